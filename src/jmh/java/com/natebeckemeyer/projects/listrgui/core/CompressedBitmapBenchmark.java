@@ -0,0 +1,231 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-06.
+ * <p>
+ * Compares {@link CompressedBitmap} with {@link BitSet} and {@link HashSet} as sets of task slots, on the posting
+ * lists of tags: intersecting the two most common tags, intersecting the most common with a rare one, uniting the two
+ * most common, and iterating over the most common.
+ * <p>
+ * The tags are read from a task file when {@code taskFile} is given (each task's slot being its position in the
+ * file). Otherwise they are generated to follow the shape of real task files: a few broad tags (such as "work" or
+ * "home") on most tasks, a long tail of rarely used ones, and project tags shared by runs of tasks that were added
+ * together. Run with {@code gradle jmh}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressedBitmapBenchmark
+{
+    /**
+     * The task file to take the tags from, or empty to generate them.
+     */
+    @Param("")
+    public String taskFile;
+
+    /**
+     * The number of tasks to generate, when no task file is given.
+     */
+    @Param({"10000", "1000000"})
+    public int taskCount;
+
+    private CompressedBitmap commonBitmap, secondBitmap, rareBitmap;
+    private BitSet commonBits, secondBits, rareBits;
+    private Set<Integer> commonSet, secondSet, rareSet;
+
+    @Setup public void setUp()
+    {
+        List<int[]> postings = taskFile.isEmpty() ? generate() : read(new File(taskFile));
+        postings.sort((first, second) -> Integer.compare(second.length, first.length));
+        int[] common = postings.get(0);
+        int[] second = postings.get(Math.min(1, postings.size() - 1));
+        int[] rare = postings.get(postings.size() / 2);
+
+        commonBitmap = toBitmap(common);
+        secondBitmap = toBitmap(second);
+        rareBitmap = toBitmap(rare);
+        commonBits = toBitSet(common);
+        secondBits = toBitSet(second);
+        rareBits = toBitSet(rare);
+        commonSet = toSet(common);
+        secondSet = toSet(second);
+        rareSet = toSet(rare);
+    }
+
+    @Benchmark public CompressedBitmap intersectCommonCompressed()
+    {
+        return commonBitmap.and(secondBitmap);
+    }
+
+    @Benchmark public BitSet intersectCommonBitSet()
+    {
+        BitSet result = (BitSet) commonBits.clone();
+        result.and(secondBits);
+        return result;
+    }
+
+    @Benchmark public Set<Integer> intersectCommonHashSet()
+    {
+        Set<Integer> result = new HashSet<>(secondSet);
+        result.retainAll(commonSet);
+        return result;
+    }
+
+    @Benchmark public CompressedBitmap intersectRareCompressed()
+    {
+        return commonBitmap.and(rareBitmap);
+    }
+
+    @Benchmark public BitSet intersectRareBitSet()
+    {
+        BitSet result = (BitSet) commonBits.clone();
+        result.and(rareBits);
+        return result;
+    }
+
+    @Benchmark public Set<Integer> intersectRareHashSet()
+    {
+        Set<Integer> result = new HashSet<>(rareSet);
+        result.retainAll(commonSet);
+        return result;
+    }
+
+    @Benchmark public CompressedBitmap uniteCompressed()
+    {
+        return commonBitmap.or(secondBitmap);
+    }
+
+    @Benchmark public BitSet uniteBitSet()
+    {
+        BitSet result = (BitSet) commonBits.clone();
+        result.or(secondBits);
+        return result;
+    }
+
+    @Benchmark public Set<Integer> uniteHashSet()
+    {
+        Set<Integer> result = new HashSet<>(commonSet);
+        result.addAll(secondSet);
+        return result;
+    }
+
+    @Benchmark public void iterateCompressed(Blackhole sink)
+    {
+        commonBitmap.forEach(sink::consume);
+    }
+
+    @Benchmark public void iterateBitSet(Blackhole sink)
+    {
+        for (int slot = commonBits.nextSetBit(0); slot >= 0; slot = commonBits.nextSetBit(slot + 1))
+            sink.consume(slot);
+    }
+
+    @Benchmark public void iterateHashSet(Blackhole sink)
+    {
+        for (int slot : commonSet)
+            sink.consume(slot);
+    }
+
+    /**
+     * @return The posting list of each tag of the tasks in a task file, by the tasks' positions in the file.
+     */
+    private static List<int[]> read(File file)
+    {
+        Map<Tag, List<Integer>> postings = new HashMap<>();
+        int slot = 0;
+        for (AbstractTask task : FileParser.readTasksFromFile(file))
+        {
+            for (Tag tag : task.tags)
+                postings.computeIfAbsent(tag, key -> new ArrayList<>()).add(slot);
+            slot++;
+        }
+
+        List<int[]> result = new ArrayList<>();
+        for (List<Integer> posting : postings.values())
+            result.add(posting.stream().mapToInt(Integer::intValue).toArray());
+        if (result.isEmpty())
+            throw new IllegalArgumentException(file + " has no tagged tasks");
+        return result;
+    }
+
+    /**
+     * @return The posting lists of generated tags over {@link CompressedBitmapBenchmark#taskCount} tasks: broad tags
+     * drawn by a Zipf distribution, and a project tag on each run of tasks added together.
+     */
+    private List<int[]> generate()
+    {
+        Random random = new Random(42);
+        int broadTags = 200;
+        double[] cumulative = new double[broadTags];
+        double total = 0;
+        for (int i = 0; i < broadTags; i++)
+            cumulative[i] = total += 1.0 / (i + 1);
+
+        List<BitSet> postings = new ArrayList<>();
+        for (int i = 0; i < broadTags; i++)
+            postings.add(new BitSet());
+
+        for (int slot = 0; slot < taskCount; slot++)
+        {
+            for (int tags = random.nextInt(3); tags > 0; tags--)
+            {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                postings.get(index < 0 ? -index - 1 : index).set(slot);
+            }
+        }
+
+        for (int start = 0; start < taskCount; )
+        {
+            int length = 1 + random.nextInt(500);
+            if (random.nextInt(4) == 0)
+            {
+                BitSet project = new BitSet();
+                project.set(start, Math.min(start + length, taskCount));
+                postings.add(project);
+            }
+            start += length;
+        }
+
+        List<int[]> result = new ArrayList<>();
+        for (BitSet posting : postings)
+            if (!posting.isEmpty())
+                result.add(posting.stream().toArray());
+        return result;
+    }
+
+    private static CompressedBitmap toBitmap(int[] slots)
+    {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int slot : slots)
+            bitmap.add(slot);
+        bitmap.runOptimize();
+        return bitmap;
+    }
+
+    private static BitSet toBitSet(int[] slots)
+    {
+        BitSet bits = new BitSet();
+        for (int slot : slots)
+            bits.set(slot);
+        return bits;
+    }
+
+    private static Set<Integer> toSet(int[] slots)
+    {
+        Set<Integer> set = new HashSet<>();
+        for (int slot : slots)
+            set.add(slot);
+        return set;
+    }
+}
@@ -2,22 +2,32 @@ package com.natebeckemeyer.projects.listrgui.core;
 
 import com.natebeckemeyer.projects.listrgui.implementations.Tag;
 
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-07-06.
  */
 public abstract class AbstractTask implements Comparable<AbstractTask>
 {
+    /**
+     * The value returned by {@link AbstractTask#getDueEpochDay()} for tasks which have no due date. It is the least
+     * int, so that tasks without a due date sort before every dated task, as they did when they were given the
+     * earliest possible calendar.
+     */
+    public static final int NO_DUE_DATE = Integer.MIN_VALUE;
+
     /**
      * The flag for whether this implementations has been completed.
      */
     protected boolean completed = false;
 
     /**
-     * The Calendar object containing the due date for the object.
+     * The due date of the task, as a number of days since the epoch (1970-01-01), or
+     * {@link AbstractTask#NO_DUE_DATE} if the task has no due date.
      */
-    protected Calendar due;
+    protected int dueDay = NO_DUE_DATE;
 
     /**
      * The name of the implementations.
@@ -30,9 +40,64 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
     protected CompletionBehavior onComplete;
 
     /**
-     * The list of tags associated with the implementations.
+     * The tags associated with the implementations, sorted by {@link Tag#getId() id} and without duplicates. The
+     * array is never modified once assigned; a change of tags assigns a new one.
+     */
+    Tag[] tags = NO_TAGS;
+
+    /**
+     * The tags of a task without tags.
+     */
+    private static final Tag[] NO_TAGS = new Tag[0];
+
+    /**
+     * Orders tags by id.
+     */
+    private static final Comparator<Tag> BY_ID = Comparator.comparingInt(Tag::getId);
+
+    /**
+     * The slot of this task in {@link Listr}'s task store, or -1 if {@link Listr} is not handling this task.
+     */
+    int slot = -1;
+
+    /**
+     * The greatest identifier handed out or loaded so far.
+     */
+    private static final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * The identifier of this task: unique among the tasks that {@link Listr} handles, saved with the task, and kept
+     * by copies made to convert the task to another type.
+     */
+    long id = nextId();
+
+    /**
+     * @return The identifier of this task, which stays the same when the task is saved and loaded again, or converted
+     * to another type of task.
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * Gives this task an identifier that it was saved with. Identifiers handed out afterward are greater.
+     *
+     * @param id The identifier to restore.
+     */
+    void restoreId(long id)
+    {
+        this.id = id;
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * @return An identifier greater than any handed out or loaded so far.
      */
-    private Set<Tag> tags = new HashSet<>();
+    static long nextId()
+    {
+        return lastId.incrementAndGet();
+    }
 
     /**
      * Returns a copy of the CompletionBehavior object associated with this implementations
@@ -50,6 +115,7 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
     public void setOnComplete(CompletionBehavior behavior)
     {
         this.onComplete = behavior;
+        Listr.reassigned(this);
     }
 
     /**
@@ -60,9 +126,13 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
         return name;
     }
 
+    /**
+     * @param name The new name of the task.
+     */
     public void setName(String name)
     {
         this.name = name;
+        Listr.renamed(this);
     }
 
     /**
@@ -74,12 +144,111 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
     }
 
     /**
-     * Returns the due date of the item in Calendar form. This calendar object is generated
-     * when this object is instantiated, and is therefore subject to the locale at that time.
+     * Returns the due date of the item in Calendar form. This is a compatibility adapter over
+     * {@link AbstractTask#getDueEpochDay()}: a new calendar is created on every call, in the locale at that time, and
+     * modifying it has no effect on the task.
+     *
+     * @return A new calendar object containing the due date, or null if the task has no due date.
+     */
+    public Calendar getDueDate()
+    {
+        int day = getDueEpochDay();
+        if (day == NO_DUE_DATE)
+            return null;
+
+        LocalDate date = LocalDate.ofEpochDay(day);
+        return new GregorianCalendar(date.getYear(), date.getMonthValue() - 1, date.getDayOfMonth());
+    }
+
+    /**
+     * Sets the due date of this task from a calendar.
+     *
+     * @param dueDate The calendar object containing the new due date, or null for no due date.
+     */
+    public void setDueDate(Calendar dueDate)
+    {
+        setDueEpochDay(toEpochDay(dueDate));
+    }
+
+    /**
+     * @return The due date of this task as a number of days since the epoch (1970-01-01), or
+     * {@link AbstractTask#NO_DUE_DATE} if the task has no due date.
+     */
+    public int getDueEpochDay()
+    {
+        return dueDay;
+    }
+
+    /**
+     * Sets the due date of this task.
      *
-     * @return The calendar object containing the due date.
+     * @param day The new due date as a number of days since the epoch (1970-01-01), or
+     *            {@link AbstractTask#NO_DUE_DATE} for no due date.
      */
-    public abstract Calendar getDueDate();
+    public void setDueEpochDay(int day)
+    {
+        this.dueDay = day;
+        Listr.redated(this);
+    }
+
+    /**
+     * Converts a date to a number of days since the epoch. Like a lenient {@link GregorianCalendar}, fields beyond
+     * their usual range roll over into the next larger field, so that month 12 of one year is month 0 of the next.
+     *
+     * @param year       The year.
+     * @param month      The month of the year, on a 0-11 scale (as in {@link Calendar#MONTH}).
+     * @param dayOfMonth The day of the month.
+     * @return The number of days since the epoch (1970-01-01) of the date.
+     */
+    public static int toEpochDay(int year, int month, int dayOfMonth)
+    {
+        if (month >= 0 && month < 12 && dayOfMonth >= 1 && dayOfMonth <= 28)
+            return (int) LocalDate.of(year, month + 1, dayOfMonth).toEpochDay();
+
+        return (int) LocalDate.of(year, 1, 1).plusMonths(month).plusDays(dayOfMonth - 1).toEpochDay();
+    }
+
+    /**
+     * @param dueDate A calendar, or null.
+     * @return The number of days since the epoch of the date in {@code dueDate}, or {@link AbstractTask#NO_DUE_DATE}
+     * if it is null.
+     */
+    private static int toEpochDay(Calendar dueDate)
+    {
+        if (dueDate == null)
+            return NO_DUE_DATE;
+
+        return toEpochDay(dueDate.get(Calendar.YEAR), dueDate.get(Calendar.MONTH), dueDate.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Appends a due date as tasks serialize it: the year, the month on a 0-11 scale (as in {@link Calendar#MONTH}) and
+     * the day of the month, zero-padded to four, two and two digits, each followed by a pipe.
+     *
+     * @param line The serialization being built.
+     * @param day  The due date, in days since the epoch (1970-01-01).
+     * @return {@code line}.
+     */
+    protected static StringBuilder appendSerializedDate(StringBuilder line, int day)
+    {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        appendPadded(line, date.getYear(), 4).append('|');
+        appendPadded(line, date.getMonthValue() - 1, 2).append('|');
+        return appendPadded(line, date.getDayOfMonth(), 2).append('|');
+    }
+
+    private static StringBuilder appendPadded(StringBuilder line, int value, int width)
+    {
+        if (value < 0)
+        {
+            line.append('-');
+            value = -value;
+            width--;
+        }
+        for (int digits = value == 0 ? 1 : (int) Math.log10(value) + 1; digits < width; digits++)
+            line.append('0');
+        return line.append(value);
+    }
 
     /**
      * Used by JavaFX to display the date that the implementations is due.
@@ -108,11 +277,28 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
     public abstract void loadFromSerialization(String serialization);
 
     /**
-     * @return The set of tags associated with this object
+     * @return An unmodifiable view of the set of tags associated with this object, in order of tag id. Use the tag
+     * mutators of this class to change the tags, so that {@link Listr} can keep its tag index up to date.
      */
     public Set<Tag> getTags()
     {
-        return tags;
+        return new AbstractSet<Tag>()
+        {
+            @Override public Iterator<Tag> iterator()
+            {
+                return Collections.unmodifiableList(Arrays.asList(tags)).iterator();
+            }
+
+            @Override public int size()
+            {
+                return tags.length;
+            }
+
+            @Override public boolean contains(Object o)
+            {
+                return o instanceof Tag && AbstractTask.this.contains((Tag) o);
+            }
+        };
     }
 
     /**
@@ -122,7 +308,7 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
      */
     public void setTags(Collection<Tag> tags)
     {
-        this.tags = new HashSet<>(tags);
+        retag(toSortedArray(tags));
     }
 
     /**
@@ -134,7 +320,22 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
      */
     public void addTags(Collection<Tag> tags)
     {
-        this.tags.addAll(tags);
+        Tag[] others = toSortedArray(tags);
+        Tag[] union = new Tag[this.tags.length + others.length];
+        int size = 0;
+        for (int i = 0, j = 0; i < this.tags.length || j < others.length; )
+        {
+            if (j == others.length || i < this.tags.length && this.tags[i].getId() < others[j].getId())
+                union[size++] = this.tags[i++];
+            else if (i == this.tags.length || others[j].getId() < this.tags[i].getId())
+                union[size++] = others[j++];
+            else
+            {
+                union[size++] = this.tags[i++];
+                j++;
+            }
+        }
+        retag(Arrays.copyOf(union, size));
     }
 
     /**
@@ -146,7 +347,16 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
      */
     public void addTag(Tag tag)
     {
-        this.tags.add(tag);
+        int position = Arrays.binarySearch(tags, tag, BY_ID);
+        if (position >= 0)
+            return;
+
+        position = -position - 1;
+        Tag[] next = new Tag[tags.length + 1];
+        System.arraycopy(tags, 0, next, 0, position);
+        next[position] = tag;
+        System.arraycopy(tags, position, next, position + 1, tags.length - position);
+        retag(next);
     }
 
     /**
@@ -159,7 +369,15 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
      */
     public boolean removeTag(Tag tag)
     {
-        return this.tags.remove(tag);
+        int position = Arrays.binarySearch(tags, tag, BY_ID);
+        if (position < 0)
+            return false;
+
+        Tag[] next = new Tag[tags.length - 1];
+        System.arraycopy(tags, 0, next, 0, position);
+        System.arraycopy(tags, position + 1, next, position, next.length - position);
+        retag(next);
+        return true;
     }
 
     /**
@@ -172,9 +390,67 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
      */
     public boolean removeTags(Collection<Tag> tags)
     {
-        return this.tags.removeAll(tags);
+        Tag[] others = toSortedArray(tags);
+        Tag[] difference = new Tag[this.tags.length];
+        int size = 0;
+        for (Tag tag : this.tags)
+            if (Arrays.binarySearch(others, tag, BY_ID) < 0)
+                difference[size++] = tag;
+
+        if (size == this.tags.length)
+            return false;
+
+        retag(Arrays.copyOf(difference, size));
+        return true;
     }
 
+    /**
+     * Replaces the tags of this task, and tells {@link Listr} which tags were removed and which were added.
+     *
+     * @param next The new tags, sorted by id and without duplicates.
+     */
+    private void retag(Tag[] next)
+    {
+        Tag[] previous = tags;
+        tags = next;
+
+        List<Tag> removed = new ArrayList<>();
+        List<Tag> added = new ArrayList<>();
+        for (int i = 0, j = 0; i < previous.length || j < next.length; )
+        {
+            if (j == next.length || i < previous.length && previous[i].getId() < next[j].getId())
+                removed.add(previous[i++]);
+            else if (i == previous.length || next[j].getId() < previous[i].getId())
+                added.add(next[j++]);
+            else
+            {
+                i++;
+                j++;
+            }
+        }
+
+        if (!removed.isEmpty() || !added.isEmpty())
+            Listr.retagged(this, removed, added);
+    }
+
+    /**
+     * @param tags A collection of tags, possibly with duplicates.
+     * @return The distinct tags of the collection, sorted by id.
+     */
+    static Tag[] toSortedArray(Collection<Tag> tags)
+    {
+        if (tags.isEmpty())
+            return NO_TAGS;
+
+        Tag[] sorted = tags.toArray(new Tag[tags.size()]);
+        Arrays.sort(sorted, BY_ID);
+
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                sorted[size++] = sorted[i];
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
 
     /**
      * Marks the task as completed or uncompleted, according to its completion behavior.
@@ -192,7 +468,7 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
      */
     public boolean contains(Tag toCheck)
     {
-        return tags.contains(toCheck);
+        return Arrays.binarySearch(tags, toCheck, BY_ID) >= 0;
     }
 
     /**
@@ -205,33 +481,49 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
      * @param onComplete The specified completion behavior.
      */
     public AbstractTask(String name, Calendar dueDate, CompletionBehavior onComplete)
+    {
+        this(name, toEpochDay(dueDate), onComplete);
+    }
+
+    /**
+     * Constructs a implementations named {@code name}, due on the day specified {@code dueDay}. The
+     * implementations is created with the
+     * completion behavior specified by the {@code onComplete} object.
+     *
+     * @param name       The name of the implementations
+     * @param dueDay     The due date of the implementations as a number of days since the epoch (1970-01-01), or
+     *                   {@link AbstractTask#NO_DUE_DATE}.
+     * @param onComplete The specified completion behavior.
+     */
+    public AbstractTask(String name, int dueDay, CompletionBehavior onComplete)
     {
         this.name = name;
         this.onComplete = onComplete;
-        this.due = dueDate;
+        this.dueDay = dueDay;
     }
 
     /**
-     * Copies the instance fields of implementations {@code other} into a new implementations.
+     * Copies the instance fields of implementations {@code other} into a new implementations. The copy keeps the
+     * identifier of {@code other}, so that it can take its place (see {@link Listr#replaceTask}); if it is instead
+     * handed to {@link Listr} alongside {@code other}, it is given a new identifier.
      *
      * @param other The implementations to copy.
      */
     public AbstractTask(AbstractTask other)
     {
+        this.id = other.id;
         this.name = other.getName();
-        Calendar dueDate = other.getDueDate();
-        if (dueDate != null)
-            this.due = new GregorianCalendar(dueDate.get(Calendar.YEAR), dueDate.get(Calendar.MONTH),
-                    dueDate.get(Calendar.DAY_OF_MONTH));
+        this.dueDay = other.getDueEpochDay();
         this.completed = other.isCompleted();
         this.onComplete = other.getOnComplete().copy();
-        this.tags = new HashSet<>(other.getTags());
+        this.tags = other.tags;
     }
 
     /**
      * Compares two tasks, exactly in accordance with the following algorithm.
      * First, uncompleted tasks always take priority over completed ones. Second, the tasks are ordered in accordance
-     * with their calendar due dates (older first). Third, the names are compared for lexicographical ordering.
+     * with their due dates (tasks without a due date first, then older first). Third, the names are compared for
+     * lexicographical ordering.
      *
      * @param other The implementations to compare this implementations against
      * @return -1 if this implementations is ordered before the other implementations,
@@ -246,7 +538,7 @@ public abstract class AbstractTask implements Comparable<AbstractTask>
             return compareResult;
 
         // Compare dates
-        compareResult = this.getDueDate().compareTo(other.getDueDate());
+        compareResult = Integer.compare(this.getDueEpochDay(), other.getDueEpochDay());
         if (compareResult != 0)
             return compareResult;
 
@@ -11,7 +11,7 @@ public abstract class CompletionBehavior
     protected static void setCompleted(AbstractTask task, boolean completed)
     {
         task.completed = completed;
-        FileParser.defaultSave(Listr.getAllTasks());
+        Listr.recompleted(task);
     }
 
     /**
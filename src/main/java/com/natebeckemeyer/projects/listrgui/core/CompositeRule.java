@@ -0,0 +1,145 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.Objects;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-21.
+ * <p>
+ * A {@link Rule} built from one or two other rules by a set operation. These are the rules returned by
+ * {@link Rule#and}, {@link Rule#or}, {@link Rule#difference}, {@link Rule#symmetricDifference} and
+ * {@link Rule#negate}. Unlike an anonymous rule, a composite rule exposes its operation and operands, so that
+ * {@link Listr} can evaluate the whole tree as set operations over its indexes instead of testing every task.
+ */
+public final class CompositeRule implements Rule
+{
+    /**
+     * The set operations from which a composite rule can be built.
+     */
+    public enum Operator
+    {
+        /**
+         * Intersection: tasks matching both operands.
+         */
+        AND("&"),
+        /**
+         * Union: tasks matching either operand.
+         */
+        OR("+"),
+        /**
+         * Difference: tasks matching the first operand but not the second.
+         */
+        DIFFERENCE("-"),
+        /**
+         * Symmetric difference: tasks matching exactly one of the operands.
+         */
+        SYMMETRIC_DIFFERENCE("$"),
+        /**
+         * Complement: tasks not matching the (only) operand.
+         */
+        NOT("!");
+
+        /**
+         * The symbol used for this operation in the text of a rule.
+         */
+        private final String symbol;
+
+        Operator(String symbol)
+        {
+            this.symbol = symbol;
+        }
+
+        @Override public String toString()
+        {
+            return symbol;
+        }
+    }
+
+    /**
+     * The operation combining the operands.
+     */
+    private final Operator operator;
+
+    /**
+     * The first (or, for {@link Operator#NOT}, only) operand.
+     */
+    private final Rule first;
+
+    /**
+     * The second operand, or null for {@link Operator#NOT}.
+     */
+    private final Rule second;
+
+    /**
+     * Creates a rule combining {@code first} and {@code second} by {@code operator}.
+     *
+     * @param operator The operation combining the operands.
+     * @param first    The first operand.
+     * @param second   The second operand; must be null if and only if {@code operator} is {@link Operator#NOT}.
+     */
+    CompositeRule(Operator operator, Rule first, Rule second)
+    {
+        this.operator = Objects.requireNonNull(operator);
+        this.first = Objects.requireNonNull(first);
+        this.second = operator == Operator.NOT ? null : Objects.requireNonNull(second);
+    }
+
+    /**
+     * @return The operation combining the operands.
+     */
+    public Operator getOperator()
+    {
+        return operator;
+    }
+
+    /**
+     * @return The first (or, for {@link Operator#NOT}, only) operand.
+     */
+    public Rule getFirst()
+    {
+        return first;
+    }
+
+    /**
+     * @return The second operand, or null for {@link Operator#NOT}.
+     */
+    public Rule getSecond()
+    {
+        return second;
+    }
+
+    /**
+     * Tests a single task at the current time. This creates a context for the one test; to test many tasks, call
+     * {@link CompositeRule#test(AbstractTask, QueryContext)} with a shared one.
+     */
+    @Override public boolean test(AbstractTask task)
+    {
+        return test(task, new QueryContext());
+    }
+
+    @Override public boolean test(AbstractTask task, QueryContext context)
+    {
+        switch (operator)
+        {
+            case AND:
+                return first.test(task, context) && second.test(task, context);
+            case OR:
+                return first.test(task, context) || second.test(task, context);
+            case DIFFERENCE:
+                return first.test(task, context) && !second.test(task, context);
+            case SYMMETRIC_DIFFERENCE:
+                return first.test(task, context) != second.test(task, context);
+            case NOT:
+                return !first.test(task, context);
+            default:
+                throw new IllegalStateException("Unknown operator " + operator);
+        }
+    }
+
+    @Override public String toString()
+    {
+        if (operator == Operator.NOT)
+            return String.format("%s%s", operator, first);
+
+        return String.format("(%s %s %s)", first, operator, second);
+    }
+}
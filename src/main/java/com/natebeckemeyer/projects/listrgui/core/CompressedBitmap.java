@@ -0,0 +1,975 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-22.
+ * <p>
+ * A compressed set of non-negative integers, used by the indexes to hold sets of task slots. The integers are split
+ * by their upper 16 bits into chunks of 65536, and each chunk is stored in whichever container suits its contents
+ * (after the Roaring bitmap design):
+ * <pre>
+ *  * an array container: a sorted array of the lower 16 bits, for sparse chunks (at most 4096 values);
+ *  * a bitmap container: 1024 longs with one bit per value, for dense chunks;
+ *  * a run container: sorted (start, length) pairs, for chunks made of long consecutive runs.
+ * </pre>
+ * Sparse tags therefore cost two bytes per task, dense tags an eighth of a byte per task, and runs of consecutive
+ * tasks (such as the set of every task) almost nothing. The set operations return new bitmaps and never modify their
+ * operands.
+ */
+final class CompressedBitmap
+{
+    /**
+     * The largest number of values held by an array container; past this point, a bitmap container is smaller.
+     */
+    private static final int ARRAY_LIMIT = 4096;
+
+    /**
+     * The number of longs in a bitmap container.
+     */
+    private static final int WORDS = 1024;
+
+    /**
+     * The upper 16 bits of the values in each container, sorted.
+     */
+    private char[] keys;
+
+    /**
+     * The containers, in the same order as their {@link CompressedBitmap#keys}.
+     */
+    private Container[] containers;
+
+    /**
+     * The number of containers in use.
+     */
+    private int size;
+
+    /**
+     * Creates an empty bitmap.
+     */
+    CompressedBitmap()
+    {
+        this(4);
+    }
+
+    private CompressedBitmap(int capacity)
+    {
+        keys = new char[capacity];
+        containers = new Container[capacity];
+    }
+
+    /**
+     * Creates a copy of {@code other}.
+     *
+     * @param other The bitmap to copy.
+     */
+    CompressedBitmap(CompressedBitmap other)
+    {
+        this(Math.max(other.size, 4));
+        for (int i = 0; i < other.size; i++)
+            append(other.keys[i], other.containers[i].copy());
+    }
+
+    /**
+     * Adds {@code value} to this set.
+     *
+     * @param value A non-negative integer.
+     * @return true if the set did not already contain {@code value}.
+     */
+    boolean add(int value)
+    {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+
+        int index = find(high);
+        if (index < 0)
+        {
+            insert(-index - 1, high, new ArrayContainer().add(low));
+            return true;
+        }
+
+        Container container = containers[index];
+        if (container.contains(low))
+            return false;
+
+        containers[index] = container.add(low);
+        return true;
+    }
+
+    /**
+     * Removes {@code value} from this set.
+     *
+     * @param value A non-negative integer.
+     * @return true if the set contained {@code value}.
+     */
+    boolean remove(int value)
+    {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+
+        int index = find(high);
+        if (index < 0 || !containers[index].contains(low))
+            return false;
+
+        Container container = containers[index].remove(low);
+        if (container.cardinality() == 0)
+        {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+            containers[--size] = null;
+        } else
+            containers[index] = container;
+        return true;
+    }
+
+    /**
+     * @param value A non-negative integer.
+     * @return Whether this set contains {@code value}.
+     */
+    boolean contains(int value)
+    {
+        int index = find((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /**
+     * @return The number of values in this set.
+     */
+    int cardinality()
+    {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++)
+            cardinality += containers[i].cardinality();
+        return cardinality;
+    }
+
+    /**
+     * @return Whether this set is empty.
+     */
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Removes every value from this set.
+     */
+    void clear()
+    {
+        Arrays.fill(containers, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @param other Another set.
+     * @return A new set containing the values in both this set and {@code other}.
+     */
+    CompressedBitmap and(CompressedBitmap other)
+    {
+        CompressedBitmap result = new CompressedBitmap(Math.max(Math.min(size, other.size), 4));
+        int i = 0, j = 0;
+        while (i < size && j < other.size)
+        {
+            if (keys[i] < other.keys[j])
+                i++;
+            else if (keys[i] > other.keys[j])
+                j++;
+            else
+            {
+                Container container = and(containers[i], other.containers[j]);
+                if (container.cardinality() > 0)
+                    result.append(keys[i], container);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another set.
+     * @return A new set containing the values in either this set or {@code other}.
+     */
+    CompressedBitmap or(CompressedBitmap other)
+    {
+        CompressedBitmap result = new CompressedBitmap(Math.max(size + other.size, 4));
+        int i = 0, j = 0;
+        while (i < size || j < other.size)
+        {
+            if (j == other.size || (i < size && keys[i] < other.keys[j]))
+            {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j])
+            {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else
+            {
+                result.append(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Unites many sets at once. The containers sharing each upper 16 bits are combined in one pass, into one array of
+     * words, rather than through a new set per operand as a chain of {@link CompressedBitmap#or(CompressedBitmap)}
+     * would.
+     *
+     * @param bitmaps The sets to unite.
+     * @return A new set containing the values in any of {@code bitmaps}.
+     */
+    static CompressedBitmap or(Collection<CompressedBitmap> bitmaps)
+    {
+        int total = 0;
+        for (CompressedBitmap bitmap : bitmaps)
+            total += bitmap.size;
+
+        // Each container, as its key above its position among all of the containers, so that sorting groups them.
+        Container[] all = new Container[total];
+        long[] order = new long[total];
+        int count = 0;
+        for (CompressedBitmap bitmap : bitmaps)
+        {
+            for (int i = 0; i < bitmap.size; i++)
+            {
+                all[count] = bitmap.containers[i];
+                order[count] = (long) bitmap.keys[i] << 32 | count;
+                count++;
+            }
+        }
+        Arrays.sort(order);
+
+        CompressedBitmap result = new CompressedBitmap(4);
+        for (int start = 0, end; start < total; start = end)
+        {
+            char key = (char) (order[start] >>> 32);
+            end = start + 1;
+            while (end < total && (char) (order[end] >>> 32) == key)
+                end++;
+
+            if (end - start == 1)
+            {
+                result.append(key, all[(int) order[start]].copy());
+                continue;
+            }
+
+            long[] words = new long[WORDS];
+            for (int i = start; i < end; i++)
+                all[(int) order[i]].orInto(words);
+            result.append(key, fromWords(words));
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another set.
+     * @return A new set containing the values in this set that are not in {@code other}.
+     */
+    CompressedBitmap andNot(CompressedBitmap other)
+    {
+        CompressedBitmap result = new CompressedBitmap(Math.max(size, 4));
+        int j = 0;
+        for (int i = 0; i < size; i++)
+        {
+            while (j < other.size && other.keys[j] < keys[i])
+                j++;
+
+            Container container;
+            if (j < other.size && other.keys[j] == keys[i])
+                container = andNot(containers[i], other.containers[j]);
+            else
+                container = containers[i].copy();
+
+            if (container.cardinality() > 0)
+                result.append(keys[i], container);
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another set.
+     * @return A new set containing the values in exactly one of this set and {@code other}.
+     */
+    CompressedBitmap xor(CompressedBitmap other)
+    {
+        CompressedBitmap result = new CompressedBitmap(Math.max(size + other.size, 4));
+        int i = 0, j = 0;
+        while (i < size || j < other.size)
+        {
+            if (j == other.size || (i < size && keys[i] < other.keys[j]))
+            {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j])
+            {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else
+            {
+                Container container = xor(containers[i], other.containers[j]);
+                if (container.cardinality() > 0)
+                    result.append(keys[i], container);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts each container to a run container wherever that is the smallest representation of its contents.
+     * This is worth calling after a bulk load, when long runs of consecutive values are likely.
+     */
+    void runOptimize()
+    {
+        for (int i = 0; i < size; i++)
+            containers[i] = containers[i].runOptimize();
+    }
+
+    /**
+     * Passes every value in this set, in increasing order, to {@code action}.
+     *
+     * @param action The action to perform on each value.
+     */
+    void forEach(IntConsumer action)
+    {
+        for (int i = 0; i < size; i++)
+            containers[i].forEach(keys[i] << 16, action);
+    }
+
+    /**
+     * @return An iterator over the values in this set, in increasing order.
+     */
+    PrimitiveIterator.OfInt iterator()
+    {
+        return new PrimitiveIterator.OfInt()
+        {
+            private int index = 0;
+            private PrimitiveIterator.OfInt current = size > 0 ? containers[0].iterator() : null;
+
+            @Override public boolean hasNext()
+            {
+                while (current != null && !current.hasNext())
+                    current = ++index < size ? containers[index].iterator() : null;
+                return current != null;
+            }
+
+            @Override public int nextInt()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return keys[index] << 16 | current.nextInt();
+            }
+        };
+    }
+
+    /**
+     * @return The values in this set, in increasing order.
+     */
+    int[] toArray()
+    {
+        int[] values = new int[cardinality()];
+        int[] position = {0};
+        forEach(value -> values[position[0]++] = value);
+        return values;
+    }
+
+    /**
+     * @param key The upper 16 bits of a value.
+     * @return The index of the container for {@code key}, or {@code -(insertion point) - 1} if there is none.
+     */
+    private int find(char key)
+    {
+        // Values are usually added in increasing order, so check the last container first.
+        if (size > 0 && keys[size - 1] == key)
+            return size - 1;
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int index, char key, Container container)
+    {
+        ensureCapacity(size + 1);
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void append(char key, Container container)
+    {
+        ensureCapacity(size + 1);
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > keys.length)
+        {
+            int grown = Math.max(capacity, keys.length * 2);
+            keys = Arrays.copyOf(keys, grown);
+            containers = Arrays.copyOf(containers, grown);
+        }
+    }
+
+    // Container operations. Arrays are combined directly when they are involved, since their values can be tested
+    // one at a time; anything else is combined word by word as a bitmap and then stored in its best form.
+
+    private static Container and(Container a, Container b)
+    {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer)
+            return ((ArrayContainer) a).intersect((ArrayContainer) b);
+        if (a instanceof ArrayContainer)
+            return ((ArrayContainer) a).filter(b, true);
+        if (b instanceof ArrayContainer)
+            return ((ArrayContainer) b).filter(a, true);
+
+        long[] words = a.toWords();
+        long[] other = b.toWords();
+        for (int i = 0; i < WORDS; i++)
+            words[i] &= other[i];
+        return fromWords(words);
+    }
+
+    private static Container or(Container a, Container b)
+    {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer &&
+                a.cardinality() + b.cardinality() <= ARRAY_LIMIT)
+            return ((ArrayContainer) a).union((ArrayContainer) b);
+
+        long[] words = a.toWords();
+        long[] other = b.toWords();
+        for (int i = 0; i < WORDS; i++)
+            words[i] |= other[i];
+        return fromWords(words);
+    }
+
+    private static Container andNot(Container a, Container b)
+    {
+        if (a instanceof ArrayContainer)
+            return ((ArrayContainer) a).filter(b, false);
+
+        long[] words = a.toWords();
+        long[] other = b.toWords();
+        for (int i = 0; i < WORDS; i++)
+            words[i] &= ~other[i];
+        return fromWords(words);
+    }
+
+    private static Container xor(Container a, Container b)
+    {
+        long[] words = a.toWords();
+        long[] other = b.toWords();
+        for (int i = 0; i < WORDS; i++)
+            words[i] ^= other[i];
+        return fromWords(words);
+    }
+
+    /**
+     * @param words The words of a bitmap.
+     * @return The smaller of an array container and a bitmap container holding the set bits of {@code words}.
+     */
+    private static Container fromWords(long[] words)
+    {
+        int cardinality = 0;
+        for (long word : words)
+            cardinality += Long.bitCount(word);
+
+        if (cardinality > ARRAY_LIMIT)
+            return new BitmapContainer(words, cardinality);
+
+        char[] values = new char[Math.max(cardinality, 1)];
+        int count = 0;
+        for (int i = 0; i < WORDS; i++)
+        {
+            long word = words[i];
+            while (word != 0)
+            {
+                values[count++] = (char) (i << 6 | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(values, count);
+    }
+
+    /**
+     * The set of lower 16 bits of the values sharing one upper 16 bits. Mutators return the container that should
+     * take this one's place, which may be of a different kind.
+     */
+    private static abstract class Container
+    {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract Container copy();
+
+        /**
+         * @return A new array of {@link CompressedBitmap#WORDS} longs with one bit set per value.
+         */
+        abstract long[] toWords();
+
+        /**
+         * Sets the bit of each value of this container in {@code words}, an array of {@link CompressedBitmap#WORDS}
+         * longs.
+         */
+        abstract void orInto(long[] words);
+
+        abstract void forEach(int high, IntConsumer action);
+
+        abstract PrimitiveIterator.OfInt iterator();
+
+        /**
+         * @return The number of runs of consecutive values in this container.
+         */
+        abstract int runCount();
+
+        /**
+         * @return The smallest container (array, bitmap or run) holding the same values.
+         */
+        Container runOptimize()
+        {
+            int runs = runCount();
+            int cardinality = cardinality();
+            int runBytes = 4 * runs;
+            int otherBytes = cardinality <= ARRAY_LIMIT ? 2 * cardinality : 8 * WORDS;
+            if (runBytes < otherBytes)
+                return this instanceof RunContainer ? this : RunContainer.fromWords(toWords(), runs);
+            return this instanceof RunContainer ? fromWords(toWords()) : this;
+        }
+    }
+
+    /**
+     * A container holding a sorted array of values.
+     */
+    private static final class ArrayContainer extends Container
+    {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer()
+        {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality)
+        {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override int cardinality()
+        {
+            return cardinality;
+        }
+
+        @Override boolean contains(char value)
+        {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override Container add(char value)
+        {
+            if (cardinality >= ARRAY_LIMIT)
+                return new BitmapContainer(toWords(), cardinality).add(value);
+
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+
+            if (cardinality == 0 || values[cardinality - 1] < value)
+                values[cardinality++] = value;
+            else
+            {
+                int index = -Arrays.binarySearch(values, 0, cardinality, value) - 1;
+                System.arraycopy(values, index, values, index + 1, cardinality - index);
+                values[index] = value;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override Container remove(char value)
+        {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0)
+            {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override Container copy()
+        {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override long[] toWords()
+        {
+            long[] words = new long[WORDS];
+            orInto(words);
+            return words;
+        }
+
+        @Override void orInto(long[] words)
+        {
+            for (int i = 0; i < cardinality; i++)
+                words[values[i] >>> 6] |= 1L << values[i];
+        }
+
+        @Override void forEach(int high, IntConsumer action)
+        {
+            for (int i = 0; i < cardinality; i++)
+                action.accept(high | values[i]);
+        }
+
+        @Override PrimitiveIterator.OfInt iterator()
+        {
+            return new PrimitiveIterator.OfInt()
+            {
+                private int index = 0;
+
+                @Override public boolean hasNext()
+                {
+                    return index < cardinality;
+                }
+
+                @Override public int nextInt()
+                {
+                    return values[index++];
+                }
+            };
+        }
+
+        @Override int runCount()
+        {
+            int runs = 0;
+            for (int i = 0; i < cardinality; i++)
+                if (i == 0 || values[i] != values[i - 1] + 1)
+                    runs++;
+            return runs;
+        }
+
+        ArrayContainer intersect(ArrayContainer other)
+        {
+            char[] result = new char[Math.max(Math.min(cardinality, other.cardinality), 1)];
+            int count = 0, i = 0, j = 0;
+            while (i < cardinality && j < other.cardinality)
+            {
+                if (values[i] < other.values[j])
+                    i++;
+                else if (values[i] > other.values[j])
+                    j++;
+                else
+                {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        ArrayContainer union(ArrayContainer other)
+        {
+            char[] result = new char[Math.max(cardinality + other.cardinality, 1)];
+            int count = 0, i = 0, j = 0;
+            while (i < cardinality || j < other.cardinality)
+            {
+                if (j == other.cardinality || (i < cardinality && values[i] < other.values[j]))
+                    result[count++] = values[i++];
+                else if (i == cardinality || values[i] > other.values[j])
+                    result[count++] = other.values[j++];
+                else
+                {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        /**
+         * @param other The container to test against.
+         * @param keep  Whether to keep the values contained in {@code other} (true) or those not contained (false).
+         * @return A new container of the values that were kept.
+         */
+        ArrayContainer filter(Container other, boolean keep)
+        {
+            char[] result = new char[Math.max(cardinality, 1)];
+            int count = 0;
+            for (int i = 0; i < cardinality; i++)
+                if (other.contains(values[i]) == keep)
+                    result[count++] = values[i];
+            return new ArrayContainer(result, count);
+        }
+    }
+
+    /**
+     * A container holding one bit for each of the 65536 possible values.
+     */
+    private static final class BitmapContainer extends Container
+    {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality)
+        {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override int cardinality()
+        {
+            return cardinality;
+        }
+
+        @Override boolean contains(char value)
+        {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override Container add(char value)
+        {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before | 1L << value;
+            if (before != words[value >>> 6])
+                cardinality++;
+            return this;
+        }
+
+        @Override Container remove(char value)
+        {
+            long before = words[value >>> 6];
+            words[value >>> 6] = before & ~(1L << value);
+            if (before != words[value >>> 6])
+                cardinality--;
+            return cardinality <= ARRAY_LIMIT ? fromWords(words) : this;
+        }
+
+        @Override Container copy()
+        {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override long[] toWords()
+        {
+            return words.clone();
+        }
+
+        @Override void orInto(long[] words)
+        {
+            for (int i = 0; i < WORDS; i++)
+                words[i] |= this.words[i];
+        }
+
+        @Override void forEach(int high, IntConsumer action)
+        {
+            for (int i = 0; i < WORDS; i++)
+            {
+                long word = words[i];
+                while (word != 0)
+                {
+                    action.accept(high | i << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override PrimitiveIterator.OfInt iterator()
+        {
+            return new PrimitiveIterator.OfInt()
+            {
+                private int index = 0;
+                private long word = words[0];
+
+                @Override public boolean hasNext()
+                {
+                    while (word == 0 && index < WORDS - 1)
+                        word = words[++index];
+                    return word != 0;
+                }
+
+                @Override public int nextInt()
+                {
+                    hasNext();
+                    int value = index << 6 | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    return value;
+                }
+            };
+        }
+
+        @Override int runCount()
+        {
+            int runs = 0;
+            for (int i = 0; i < WORDS; i++)
+            {
+                long word = words[i];
+                // A run starts at each set bit whose preceding bit (possibly in the previous word) is clear.
+                long previous = word << 1 | (i > 0 ? words[i - 1] >>> 63 : 0);
+                runs += Long.bitCount(word & ~previous);
+            }
+            return runs;
+        }
+    }
+
+    /**
+     * A container holding sorted, disjoint runs of consecutive values, each stored as its first value and its length
+     * minus one.
+     */
+    private static final class RunContainer extends Container
+    {
+        private final char[] runs;
+        private final int runCount;
+        private final int cardinality;
+
+        private RunContainer(char[] runs, int runCount)
+        {
+            this.runs = runs;
+            this.runCount = runCount;
+            int total = 0;
+            for (int i = 0; i < runCount; i++)
+                total += runs[2 * i + 1] + 1;
+            this.cardinality = total;
+        }
+
+        /**
+         * @param words The words of a bitmap.
+         * @param runs  The number of runs in {@code words}.
+         * @return A run container holding the set bits of {@code words}.
+         */
+        static RunContainer fromWords(long[] words, int runs)
+        {
+            char[] result = new char[2 * runs];
+            int count = 0;
+            int start = -1;
+            for (int value = 0; value <= WORDS * 64; value++)
+            {
+                boolean set = value < WORDS * 64 && (words[value >>> 6] & 1L << value) != 0;
+                if (set && start < 0)
+                    start = value;
+                else if (!set && start >= 0)
+                {
+                    result[2 * count] = (char) start;
+                    result[2 * count + 1] = (char) (value - start - 1);
+                    count++;
+                    start = -1;
+                }
+            }
+            return new RunContainer(result, count);
+        }
+
+        @Override int cardinality()
+        {
+            return cardinality;
+        }
+
+        @Override boolean contains(char value)
+        {
+            int low = 0, high = runCount - 1;
+            while (low <= high)
+            {
+                int middle = (low + high) >>> 1;
+                int start = runs[2 * middle];
+                if (value < start)
+                    high = middle - 1;
+                else if (value > start + runs[2 * middle + 1])
+                    low = middle + 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+
+        @Override Container add(char value)
+        {
+            return CompressedBitmap.fromWords(toWords()).add(value);
+        }
+
+        @Override Container remove(char value)
+        {
+            return CompressedBitmap.fromWords(toWords()).remove(value);
+        }
+
+        @Override Container copy()
+        {
+            // Run containers are never modified in place.
+            return this;
+        }
+
+        @Override long[] toWords()
+        {
+            long[] words = new long[WORDS];
+            orInto(words);
+            return words;
+        }
+
+        @Override void orInto(long[] words)
+        {
+            for (int i = 0; i < runCount; i++)
+            {
+                int start = runs[2 * i];
+                int end = start + runs[2 * i + 1];
+                for (int value = start; value <= end; value++)
+                    words[value >>> 6] |= 1L << value;
+            }
+        }
+
+        @Override void forEach(int high, IntConsumer action)
+        {
+            for (int i = 0; i < runCount; i++)
+            {
+                int start = runs[2 * i];
+                int end = start + runs[2 * i + 1];
+                for (int value = start; value <= end; value++)
+                    action.accept(high | value);
+            }
+        }
+
+        @Override PrimitiveIterator.OfInt iterator()
+        {
+            return new PrimitiveIterator.OfInt()
+            {
+                private int run = 0;
+                private int offset = 0;
+
+                @Override public boolean hasNext()
+                {
+                    return run < runCount;
+                }
+
+                @Override public int nextInt()
+                {
+                    int value = runs[2 * run] + offset;
+                    if (offset++ == runs[2 * run + 1])
+                    {
+                        run++;
+                        offset = 0;
+                    }
+                    return value;
+                }
+            };
+        }
+
+        @Override int runCount()
+        {
+            return runCount;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-20.
+ * <p>
+ * A {@link Rule} which is satisfied exactly by the tasks due within an inclusive range of days. Because the range is
+ * known up front, {@link Listr} answers these rules as a lookup on its due-date index rather than testing every task.
+ * Tasks without a due date never satisfy a due-date rule.
+ * <p>
+ * The range may depend on the current time, which is read from the {@link QueryContext} of the evaluation.
+ */
+public interface DueDateRule extends Rule
+{
+    /**
+     * @param context The state of the current evaluation.
+     * @return The first day (as a count of days since the epoch, 1970-01-01) that satisfies this rule, or
+     * {@link Integer#MIN_VALUE} if the range is unbounded below.
+     */
+    int getEarliestDay(QueryContext context);
+
+    /**
+     * @param context The state of the current evaluation.
+     * @return The last day (as a count of days since the epoch, 1970-01-01) that satisfies this rule, or
+     * {@link Integer#MAX_VALUE} if the range is unbounded above.
+     */
+    int getLatestDay(QueryContext context);
+
+    /**
+     * Returns true if the task is due within the range of this rule at the time of {@code context}.
+     *
+     * @param task    The task to test
+     * @param context The state of the current evaluation
+     * @return {@code true} if the task is due within the range; otherwise {@code false}
+     */
+    @Override default boolean test(AbstractTask task, QueryContext context)
+    {
+        int day = task.getDueEpochDay();
+        return day != AbstractTask.NO_DUE_DATE && day >= getEarliestDay(context) && day <= getLatestDay(context);
+    }
+
+    /**
+     * Returns true if the task is due within the range of this rule at the current time. This creates a context for
+     * the one test; to test many tasks, call {@link DueDateRule#test(AbstractTask, QueryContext)} with a shared one.
+     *
+     * @param task The task to test
+     * @return {@code true} if the task is due within the range; otherwise {@code false}
+     */
+    @Override default boolean test(AbstractTask task)
+    {
+        return test(task, new QueryContext());
+    }
+}
@@ -1,6 +1,7 @@
 package com.natebeckemeyer.projects.listrgui.core;
 
 import com.natebeckemeyer.projects.listrgui.implementations.BasicRuleOperation;
+import com.natebeckemeyer.projects.listrgui.implementations.DueRange;
 import com.natebeckemeyer.projects.listrgui.reference.ProjectPaths;
 
 import javax.naming.OperationNotSupportedException;
@@ -11,6 +12,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Scanner;
@@ -45,8 +47,10 @@ public final class DynamicBehaviorEngine
      * @param name             The name of the rule. At any given point, each existing rule must have a unique name.
      * @param implementationOf What (extra interfaces) this behavior implements.
      * @param extensionOf      What class this behavior extends (if any).
-     * @param userCode         The code written by the user; in the case of a rule, only the test. In the case of a
-     *                         completion behavior, the whole class except the toString method.
+     * @param userCode         The code written by the user; in the case of a rule, only the test, which may refer to
+     *                         the {@code task} being tested and the {@link QueryContext} {@code context} of the
+     *                         evaluation. In the case of a completion behavior, the whole class except the toString
+     *                         method.
      * @param imports          The imports that the code will need. Only the classpaths are needed; i.e., "java.io.File"
      * @param type             The type of behavior.
      */
@@ -85,6 +89,10 @@ public final class DynamicBehaviorEngine
             imports.add(ProjectPaths.corePackagePrefix + ProjectPaths.packageSeparator + type);
             imports.add(ProjectPaths.corePackagePrefix + ProjectPaths.packageSeparator +
                     AbstractTask.class.getSimpleName());
+            imports.add(ProjectPaths.corePackagePrefix + ProjectPaths.packageSeparator +
+                    QueryContext.class.getSimpleName());
+            imports.add(ProjectPaths.corePackagePrefix + ProjectPaths.packageSeparator +
+                    ThreadSafeRule.class.getSimpleName());
             StringBuilder importLines = new StringBuilder();
             for (String item : imports)
             {
@@ -246,7 +254,8 @@ public final class DynamicBehaviorEngine
     /**
      * Creates a rule based on the string input. See {@link BasicRuleOperation} for descriptions of the default
      * operations. Note that the order of operations is simply right-associative; use parentheses to change the order
-     * of evaluation.
+     * of evaluation. Besides the names of rules and tags, a term may be a due-date range such as
+     * {@code due:2016-01-01..2016-03-31} (see {@link DueRange}).
      *
      * @param input Input to parse.
      * @return The filtering rule.
@@ -295,6 +304,37 @@ public final class DynamicBehaviorEngine
         return ruleset.getEnumConstants().length > 0 ? ruleset.getEnumConstants()[0].lookup(name) : null;
     }
 
+    /**
+     * Parses a due-date range term. If the term is malformed, then an error message is written and a rule matching no
+     * tasks is used instead.
+     *
+     * @param term The term, beginning with {@link DueRange#prefix}.
+     * @return The corresponding rule.
+     */
+    private static Rule parseDueRange(String term)
+    {
+        try
+        {
+            return DueRange.parse(term);
+        } catch (DateTimeParseException e)
+        {
+            System.err.printf("Could not parse due-date range %s; expected %syyyy-mm-dd..yyyy-mm-dd.%n", term,
+                    DueRange.prefix);
+            return new Rule()
+            {
+                @Override public String toString()
+                {
+                    return term;
+                }
+
+                @Override public boolean test(AbstractTask task)
+                {
+                    return false;
+                }
+            };
+        }
+    }
+
     /**
      * Performs the actual processing of the text describing the rule.
      *
@@ -327,6 +367,10 @@ public final class DynamicBehaviorEngine
                 {
                     current = processInput(subRules.get(Integer.parseInt(val)), subRules);
                     input = input.substring(getEndIndex(input, val));
+                } else if (val.startsWith(DueRange.prefix))
+                {
+                    current = parseDueRange(val);
+                    input = input.substring(getEndIndex(input, val));
                 } else
                 {
                     current = Listr.getRule(val);
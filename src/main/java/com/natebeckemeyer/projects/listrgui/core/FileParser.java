@@ -1,21 +1,31 @@
 package com.natebeckemeyer.projects.listrgui.core;
 
 import com.natebeckemeyer.projects.listrgui.reference.Defaults;
-import com.natebeckemeyer.projects.listrgui.reference.ProjectPaths;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-05-14.
  * <p>
  * This class contains static methods to load and save tasks from and to a file.
+ * <p>
+ * Each line of a task file holds one task: its type and identifier, as {@code SimpleTask@42}, then a pipe and the
+ * task's own serialization. Lines written before tasks had identifiers hold only the type, and their tasks are given
+ * new identifiers when loaded.
+ * <p>
+ * Auto-saving appends the changes to the tasks to a {@link TaskJournal} beside the task file, and only rewrites the
+ * file itself once in a while; reading a task file replays its journal. Writing a task file in full deletes its
+ * journal.
+ * <p>
+ * Task files may also be written in a compact binary format (see {@link TaskBinaryWriter}), which is how the
+ * auto-saved file is written if {@link Defaults#getBinaryTaskFiles()} returns {@code true}. Reading a task file
+ * detects its format; the {@code saveTasksToFile} methods always write text, so that tasks can be exported in a
+ * format which people and other programs can read.
  */
 public final class FileParser
 {
@@ -30,7 +40,7 @@ public final class FileParser
      * The File from which the current tasks are loaded. This is the file to which tasks will be auto-saved, if the
      * flag {@link Defaults#autoSaveAll} is {@code true}.
      */
-    private static File currentFile = null;
+    private static volatile File currentFile = null;
 
     /**
      * Given a path to a file, writes the tasks provided to that file.
@@ -41,19 +51,49 @@ public final class FileParser
      */
     public static void saveTasksToFile(File sourceFile, Collection<AbstractTask> tasks) throws IOException
     {
-        FileWriter writer = new FileWriter(sourceFile);
+        try (TaskFileWriter writer = new TaskFileWriter(sourceFile))
+        {
+            for (AbstractTask task : tasks)
+                writer.write(TaskRecord.of(task));
+            writer.commit();
+        }
+        Files.deleteIfExists(TaskJournal.fileFor(sourceFile).toPath());
+    }
 
-        StringBuilder output = new StringBuilder();
-        for (AbstractTask task : tasks)
+    /**
+     * Given a path to a file, writes one version of the tasks to that file.
+     *
+     * @param sourceFile file to which this class will write these tasks
+     * @param snapshot   the version of the tasks to write to that file
+     * @throws IOException if the file is not found or could not be written to
+     */
+    public static void saveTasksToFile(File sourceFile, TaskSnapshot snapshot) throws IOException
+    {
+        try (TaskFileWriter writer = new TaskFileWriter(sourceFile))
         {
-            output.append(task.getClass().getSimpleName());
-            output.append("|");
-            output.append(task.serialize());
-            output.append(ProjectPaths.lineSeparator);
+            for (TaskRecord record : snapshot)
+                writer.write(record);
+            writer.commit();
         }
+        Files.deleteIfExists(TaskJournal.fileFor(sourceFile).toPath());
+    }
 
-        writer.write(output.toString().trim());
-        writer.close();
+    /**
+     * Given a path to a file, writes one version of the tasks to that file in the binary format.
+     *
+     * @param sourceFile file to which this class will write these tasks
+     * @param snapshot   the version of the tasks to write to that file
+     * @throws IOException if the file is not found or could not be written to
+     */
+    public static void saveTasksToBinaryFile(File sourceFile, TaskSnapshot snapshot) throws IOException
+    {
+        try (TaskBinaryWriter writer = new TaskBinaryWriter(sourceFile))
+        {
+            for (TaskRecord record : snapshot)
+                writer.write(record);
+            writer.commit();
+        }
+        Files.deleteIfExists(TaskJournal.fileFor(sourceFile).toPath());
     }
 
     /**
@@ -69,20 +109,37 @@ public final class FileParser
     }
 
     /**
-     * If {@link Defaults#getAutoSaveAll()} returns {@code true}, then saves tasks to the file from which the tasks
-     * were loaded, or, if that file does not exist, to the file specified by the
-     * path {@link Defaults#getDefaultTaskFile()}.
+     * If {@link Defaults#getAutoSaveAll()} returns {@code true}, then saves changes to the tasks to the file from which
+     * the tasks were loaded, or, if that file does not exist, to the file specified by the
+     * path {@link Defaults#getDefaultTaskFile()}. The changes are appended to the journal of the file, unless the file
+     * does not exist yet, the tasks were replaced wholesale, or the journal has outgrown the file; then the file is
+     * written in full from the snapshot, in the binary format if {@link Defaults#getBinaryTaskFiles()} returns
+     * {@code true}. Saves from different threads are made one at a time.
      *
-     * @param tasks The tasks to save.
+     * @param changes The changes to save, with the version of the tasks including them.
      * @return {@code true} if the tasks were saved successfully; {@code false} otherwise.
      */
-    static boolean defaultSave(Collection<AbstractTask> tasks)
+    static synchronized boolean defaultSave(TaskJournal.Changes changes)
     {
         if (Defaults.getAutoSaveAll())
         {
+            File file = currentFile != null ? currentFile : new File(Defaults.getDefaultTaskFile());
             try
             {
-                saveTasksToFile(currentFile != null ? currentFile : new File(Defaults.getDefaultTaskFile()), tasks);
+                if (!changes.isReset() && file.exists() && !TaskJournal.append(file, changes))
+                    return true;
+            } catch (IOException e)
+            {
+                System.err.printf("Could not append to the journal of %s; writing it in full instead: %s%n", file,
+                        e.getMessage());
+            }
+
+            try
+            {
+                if (Defaults.getBinaryTaskFiles())
+                    saveTasksToBinaryFile(file, changes.getSnapshot());
+                else
+                    saveTasksToFile(file, changes.getSnapshot());
                 return true;
             } catch (IOException e)
             {
@@ -105,7 +162,7 @@ public final class FileParser
             LinkedList<AbstractTask> tasks = readTasksFromFile(Defaults.getDefaultTaskFile());
             if (tasks != null)
             {
-                Listr.addTasks(tasks);
+                Listr.load(tasks);
                 return true;
             }
         }
@@ -113,59 +170,35 @@ public final class FileParser
     }
 
     /**
-     * Given a file, reads in tasks.
+     * Given a file, reads in tasks, and replays its journal on them. Binary task files are recognized by their header
+     * and read by {@link TaskBinaryReader}; text files are read by {@link TaskFileReader}, in parallel if they are
+     * large. Tasks which cannot be read are reported and skipped. Changes waiting to be auto-saved to the file read
+     * before are saved first.
      *
      * @param sourceFile The file containing the tasks.
      * @return The list containing the loaded tasks, or null if the file does not exist.
      */
     public static LinkedList<AbstractTask> readTasksFromFile(File sourceFile)
     {
+        if (!sourceFile.equals(currentFile))
+            Listr.flush();
         currentFile = sourceFile;
-        LinkedList<AbstractTask> tasks = new LinkedList<>();
+        List<AbstractTask> tasks;
 
-        try (Scanner parser = new Scanner(sourceFile))
+        try
         {
-
-            while (parser.hasNextLine())
-            {
-                String nextLine = parser.nextLine();
-
-                if (nextLine.isEmpty())
-                    return tasks;
-
-                Scanner console = new Scanner(nextLine);
-                console.useDelimiter(Pattern.quote("|"));
-
-                String taskType = console.next();
-                Class<? extends AbstractTask> taskClass = Listr.getTaskOfType(taskType);
-                AbstractTask task;
-
-                try
-                {
-                    Constructor<? extends AbstractTask> taskConstructor = taskClass.getConstructor(String.class,
-                            Calendar.class, CompletionBehavior.class);
-                    task = taskConstructor.newInstance(null, null, null);
-
-                } catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
-                        InvocationTargetException e)
-                {
-                    e.printStackTrace();
-                    return null;
-                }
-
-                task.loadFromSerialization(nextLine.substring(taskType.length() + 1));
-                tasks.add(task);
-
-                console.close();
-            }
-
-        } catch (FileNotFoundException e)
+            tasks = TaskBinaryReader.isBinary(sourceFile) ? TaskBinaryReader.readAll(sourceFile) :
+                    TaskFileReader.readAll(sourceFile);
+        } catch (NoSuchFileException e)
+        {
+            return null;
+        } catch (IOException e)
         {
+            System.err.printf("Could not read %s: %s%n", sourceFile, e.getMessage());
             return null;
         }
 
-        return tasks;
-
+        return TaskJournal.replay(sourceFile, tasks);
     }
 
     /**
@@ -189,4 +222,49 @@ public final class FileParser
         return readTasksFromFile(source);
     }
 
+    /**
+     * Queries a task file without loading it: returns the tasks of the file which match the query, read lazily as the
+     * stream is consumed, so that files of any size can be searched in the memory of a batch of tasks and of the file's
+     * journal (see {@link TaskStream}). The file is read as last saved, with its journal replayed on the tasks, and the
+     * tasks which the journal added last; changes still waiting to be auto-saved are not seen, so to query the tasks
+     * being edited, use {@link Listr} instead.
+     *
+     * @param sourceFile The file containing the tasks, in either format.
+     * @param query      The query, in the language of {@link DynamicBehaviorEngine#processInput(String)}.
+     * @return The matching tasks, in the order of the file, then those added by its journal. The stream should be
+     * closed, to close the file.
+     * @throws IOException If the file could not be opened.
+     */
+    public static Stream<AbstractTask> queryTasksFromFile(File sourceFile, String query) throws IOException
+    {
+        return queryTasksFromFile(sourceFile, DynamicBehaviorEngine.processInput(query));
+    }
+
+    /**
+     * Queries a task file without loading it: returns the tasks of the file which match the rule, read lazily as the
+     * stream is consumed (see {@link FileParser#queryTasksFromFile(File, String)}).
+     *
+     * @param sourceFile The file containing the tasks, in either format.
+     * @param rule       The rule which the tasks must match.
+     * @return The matching tasks, in the order of the file. The stream should be closed, to close the file.
+     * @throws IOException If the file could not be opened.
+     */
+    public static Stream<AbstractTask> queryTasksFromFile(File sourceFile, Rule rule) throws IOException
+    {
+        return TaskStream.open(sourceFile, rule);
+    }
+
+    /**
+     * Streams every task of a task file without loading it, read lazily as the stream is consumed (see
+     * {@link FileParser#queryTasksFromFile(File, String)}).
+     *
+     * @param sourceFile The file containing the tasks, in either format.
+     * @return The tasks, in the order of the file. The stream should be closed, to close the file.
+     * @throws IOException If the file could not be opened.
+     */
+    public static Stream<AbstractTask> streamTasksFromFile(File sourceFile) throws IOException
+    {
+        return TaskStream.open(sourceFile, task -> true);
+    }
+
 }
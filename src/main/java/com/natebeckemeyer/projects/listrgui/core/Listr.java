@@ -4,7 +4,9 @@ import com.natebeckemeyer.projects.listrgui.implementations.*;
 import com.natebeckemeyer.projects.listrgui.reference.Defaults;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-04-28.
@@ -14,6 +16,12 @@ import java.util.stream.Collectors;
  * <p>
  * A static initialization block places all of the behaviors included in the implementations package into the
  * ruleMapping.
+ * <p>
+ * Listr may be used from several threads at once. Queries and views read the index under a shared lock, so that any
+ * number of them run in parallel, while every change to the tasks that Listr handles is applied under an exclusive
+ * lock, one at a time. Each change publishes a new {@link TaskSnapshot} of all tasks, sharing its structure with the
+ * last, so that the tasks can be read and saved without holding the lock at all. Rules being evaluated must not call
+ * back into Listr, and a task should only be changed by one thread at a time.
  */
 public final class Listr
 {
@@ -27,22 +35,44 @@ public final class Listr
     /**
      * The mapping from the display name to the objects of the rules (so that only one instance of each is made).
      */
-    private static final Map<String, Rule> ruleMapping = new HashMap<>();
+    private static final Map<String, Rule> ruleMapping = new ConcurrentHashMap<>();
 
     /**
      * The mapping from the display name to the classes of the rules (so that a new instance can be instantiated).
      */
-    private static final Map<String, Class<? extends CompletionBehavior>> completionMapping = new HashMap<>();
+    private static final Map<String, Class<? extends CompletionBehavior>> completionMapping =
+            new ConcurrentHashMap<>();
 
     /**
      * The mapping from the task type names to the classes of the types (so that a new instance can be instantiated).
      */
-    private static final Map<String, Class<? extends AbstractTask>> taskTypeMapping = new HashMap<>();
+    private static final Map<String, Class<? extends AbstractTask>> taskTypeMapping = new ConcurrentHashMap<>();
+
+    /**
+     * The tasks that Listr is currently handling, with the secondary indexes over them used to answer rules without
+     * testing every task.
+     */
+    private static final TaskIndex index = new TaskIndex();
 
     /**
-     * The tasks that Listr is currently handling.
+     * Evaluates rules against {@link Listr#index}.
      */
-    private static LinkedList<AbstractTask> tasks = new LinkedList<>();
+    private static final QueryPlanner planner = new QueryPlanner(index);
+
+    /**
+     * The materialized views registered with Listr, by name.
+     */
+    private static final Map<String, TaskView> views = new ConcurrentHashMap<>();
+
+    /**
+     * The changes to the tasks which have not been saved yet.
+     */
+    private static final TaskJournal journal = new TaskJournal();
+
+    /**
+     * Saves the tasks in the background, shortly after they change.
+     */
+    private static final TaskSaver saver = new TaskSaver(index, journal);
 
     // Place the rules into the ruleMapping
     // This static initializer allows me to hardcode in the package searching and initialization without storing
@@ -75,18 +105,27 @@ public final class Listr
     }
 
     /**
-     * Returns the rule corresponding to {@code name}.
+     * @return The names of the task types known to {@link Listr}.
+     */
+    static Set<String> getTaskTypeNames()
+    {
+        return taskTypeMapping.keySet();
+    }
+
+    /**
+     * Returns the rule corresponding to {@code name}. Names which are not rules are treated as tags; looking up a tag
+     * here does not create it (see {@link Tag#lookup(String)}).
      *
      * @param name The name of the rule to get (note that this should match exactly the value returned by the rule's
      *             {@code toString} method.)
-     * @return The rule corresponding to {@code name} (or null, if such a rule does not exist).
+     * @return The rule corresponding to {@code name}, or the rule matching the tasks tagged {@code name}.
      */
     public static Rule getRule(String name)
     {
         Rule returned = ruleMapping.get(name);
 
         if (returned == null)
-            return Tag.getTag(name);
+            return Tag.lookup(name);
 
         return returned;
     }
@@ -191,26 +230,165 @@ public final class Listr
     }
 
     /**
-     * Returns the list of tasks that pass a certain rule. This aim is acheived by creating a stream, filtering it,
-     * and collecting the results into a list.
+     * Returns the list of tasks that pass a certain rule. The rule is evaluated by a {@link QueryPlanner}, which
+     * answers tags, due-date rules and their combinations from the index, and tests any other rule only against the
+     * tasks that could still match.
      *
      * @param toCompare The rule to test tasks against
-     * @return The list of tasks that match the rule.
+     * @return The list of tasks that match the rule, in the order of {@link AbstractTask#compareTo}.
      */
     public static List<AbstractTask> getTasksMatchingRule(Rule toCompare)
     {
-        if (toCompare == null)
-            toCompare = (task) -> false;
+        return index.read(() -> planner.evaluate(toCompare));
+    }
+
+    /**
+     * Returns the list of tasks that pass a certain rule, sorted by one or more columns (see {@link TaskOrder}).
+     *
+     * @param toCompare The rule to test tasks against
+     * @param order     The order of the tasks, or null for their natural order (see {@link AbstractTask#compareTo})
+     * @return The list of tasks that match the rule, in order.
+     */
+    public static List<AbstractTask> getTasksMatchingRule(Rule toCompare, TaskOrder order)
+    {
+        return index.read(() -> index.getSortedTasks(planner.evaluateSlots(toCompare), order));
+    }
 
-        return tasks.stream().filter(toCompare).collect(Collectors.toList());
+    /**
+     * Returns one page of the tasks that pass a certain rule, in the order given. Only the tasks up to the end of the
+     * page are ever sorted, and the page can fetch the pages after it (see {@link TaskPage}).
+     *
+     * @param toCompare The rule to test tasks against
+     * @param order     The order of the tasks, or null for their natural order (see {@link AbstractTask#compareTo})
+     * @param offset    The number of matching tasks to skip
+     * @param limit     The greatest number of tasks to return
+     * @return The page of tasks that match the rule.
+     */
+    public static TaskPage getTasksMatchingRule(Rule toCompare, Comparator<? super AbstractTask> order, int offset,
+                                                int limit)
+    {
+        return index.read(() -> TaskPage.first(index, () -> planner.evaluateSlots(toCompare), order, offset, limit));
     }
 
     /**
-     * @return All tasks inside of {@link Listr}.
+     * Sets the number of candidate tasks from which a {@link ThreadSafeRule} that the index cannot answer is tested
+     * in parallel, across the common fork/join pool.
+     *
+     * @param threshold The number of candidates; {@link Integer#MAX_VALUE} keeps every evaluation on one thread.
+     */
+    public static void setParallelThreshold(int threshold)
+    {
+        planner.setParallelThreshold(threshold);
+    }
+
+    /**
+     * Registers a materialized view of the tasks matching {@code rule}, which is kept up to date as tasks change
+     * (see {@link TaskView}). A view already registered under {@code name} is replaced.
+     *
+     * @param name The name under which to register the view.
+     * @param rule The rule defining the view.
+     * @return The new view.
+     */
+    public static TaskView registerView(String name, Rule rule)
+    {
+        return index.write(() -> {
+            TaskView view = new TaskView(name, rule, index, planner);
+            views.put(name, view);
+            return view;
+        });
+    }
+
+    /**
+     * @param name The name of a registered view.
+     * @return The view registered under {@code name}, or null if there is none.
+     */
+    public static TaskView getView(String name)
+    {
+        return views.get(name);
+    }
+
+    /**
+     * Stops maintaining the view registered under {@code name}.
+     *
+     * @param name The name of the view to remove.
+     * @return True if a view was registered under that name.
+     */
+    public static boolean unregisterView(String name)
+    {
+        return views.remove(name) != null;
+    }
+
+    /**
+     * @return All tasks inside of {@link Listr}, in a new list.
      */
     public static List<AbstractTask> getAllTasks()
     {
-        return tasks.stream().collect(Collectors.toList());
+        TaskSnapshot snapshot = index.getSnapshot();
+        List<AbstractTask> all = new ArrayList<>(snapshot.size());
+        snapshot.forEach(record -> all.add(record.getTask()));
+        return all;
+    }
+
+    /**
+     * @param task The task to check.
+     * @return Whether {@link Listr} is handling {@code task}.
+     */
+    static boolean isHandling(AbstractTask task)
+    {
+        return index.readOptimistically(() -> index.isIndexed(task) ? 1 : 0) == 1;
+    }
+
+    /**
+     * @param id The identifier of a task (see {@link AbstractTask#getId()}).
+     * @return The task with that identifier which {@link Listr} is handling, or null if there is none.
+     */
+    public static AbstractTask getTask(long id)
+    {
+        return index.read(() -> index.getById(id));
+    }
+
+    /**
+     * Returns the current version of all tasks inside of {@link Listr}. Taking a snapshot copies nothing, and the
+     * snapshot never changes, however the tasks are edited afterward (see {@link TaskSnapshot}).
+     *
+     * @return The latest snapshot of the tasks.
+     */
+    public static TaskSnapshot getSnapshot()
+    {
+        return index.getSnapshot();
+    }
+
+    /**
+     * Applies a unit of work to the tasks atomically: no reader sees any of its changes until all of them are made,
+     * the listeners of the views are told of them afterward, and the tasks are saved once, at the end. If the work
+     * throws an exception, every change made through the {@link Transaction} is undone in reverse order before the
+     * exception is rethrown, and nothing is saved.
+     * <p>
+     * For example, {@code Listr.batch(tx -> done.forEach(task -> tx.setCompleted(task, true)))} completes many tasks
+     * with a single save. The work holds Listr's write lock while it runs, so it should not wait on other threads.
+     * The transaction cannot be used once the batch has ended.
+     *
+     * @param work The changes to apply, through the transaction it is given.
+     */
+    public static void batch(Consumer<Transaction> work)
+    {
+        Transaction transaction = new Transaction();
+        change(() -> {
+            try
+            {
+                work.accept(transaction);
+            } catch (RuntimeException | Error e)
+            {
+                transaction.rollBack(e);
+                throw e;
+            } finally
+            {
+                transaction.close();
+            }
+            index.optimize();
+            return true;
+        });
+        persist();
     }
 
     /**
@@ -220,7 +398,32 @@ public final class Listr
      */
     public static void setTasks(Collection<AbstractTask> taskList)
     {
-        tasks = new LinkedList<>(taskList);
+        change(() -> {
+            index.clear();
+            index.addAll(taskList);
+            index.optimize();
+            journal.reset();
+            views.values().forEach(TaskView::reevaluate);
+            return true;
+        });
+        persist();
+    }
+
+    /**
+     * Hands Listr the tasks just read from the file to which they are auto-saved, which therefore need no saving.
+     *
+     * @param taskList The tasks read.
+     */
+    static void load(Collection<AbstractTask> taskList)
+    {
+        change(() -> {
+            index.clear();
+            index.addAll(taskList);
+            index.optimize();
+            views.values().forEach(TaskView::reevaluate);
+            return true;
+        });
+        saver.markSaved();
     }
 
     /**
@@ -231,8 +434,15 @@ public final class Listr
      */
     public static boolean addTask(AbstractTask toAdd)
     {
-        boolean result = tasks.add(toAdd);
-        FileParser.defaultSave(tasks);
+        boolean result = change(() -> {
+            boolean added = index.add(toAdd);
+            if (added)
+                journal.added(toAdd);
+            updateViews(toAdd);
+            return added;
+        });
+        if (result)
+            persist();
         return result;
     }
 
@@ -244,8 +454,24 @@ public final class Listr
      */
     public static boolean addTasks(Collection<AbstractTask> taskList)
     {
-        boolean result = tasks.addAll(taskList);
-        FileParser.defaultSave(tasks);
+        boolean result = change(() -> {
+            Set<AbstractTask> handled = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (AbstractTask task : taskList)
+                if (index.isIndexed(task))
+                    handled.add(task);
+
+            boolean changed = index.addAll(taskList) > 0;
+            index.optimize();
+            for (AbstractTask task : taskList)
+                if (handled.add(task))
+                    journal.added(task);
+            QueryContext context = new QueryContext();
+            for (AbstractTask task : taskList)
+                updateViews(task, context);
+            return changed;
+        });
+        if (result)
+            persist();
         return result;
     }
 
@@ -257,8 +483,58 @@ public final class Listr
      */
     public static boolean removeTask(AbstractTask toRemove)
     {
-        boolean result = tasks.remove(toRemove);
-        FileParser.defaultSave(tasks);
+        boolean result = change(() -> {
+            boolean changed = index.isIndexed(toRemove);
+            if (changed)
+                removeFromIndex(toRemove);
+            return changed;
+        });
+        if (result)
+            persist();
+        return result;
+    }
+
+    /**
+     * Removes the task with the identifier {@code id} from the Listr's {@code tasks}.
+     *
+     * @param id The identifier of the task to remove.
+     * @return True if a task with that identifier was removed.
+     */
+    public static boolean removeTask(long id)
+    {
+        boolean result = change(() -> {
+            AbstractTask task = index.getById(id);
+            if (task != null)
+                removeFromIndex(task);
+            return task != null;
+        });
+        if (result)
+            persist();
+        return result;
+    }
+
+    /**
+     * Replaces a task with another, such as a copy of it converted to another type of task (which keeps its
+     * identifier), in a single change.
+     *
+     * @param original    The task to remove.
+     * @param replacement The task to add in its place.
+     * @return True if {@code original} was replaced; if it was not being handled, nothing changes.
+     */
+    public static boolean replaceTask(AbstractTask original, AbstractTask replacement)
+    {
+        boolean result = change(() -> {
+            if (!index.isIndexed(original))
+                return false;
+
+            removeFromIndex(original);
+            index.add(replacement);
+            journal.added(replacement);
+            updateViews(replacement);
+            return true;
+        });
+        if (result)
+            persist();
         return result;
     }
 
@@ -270,11 +546,232 @@ public final class Listr
      */
     public static boolean removeTasks(Collection<AbstractTask> toRemove)
     {
-        boolean result = tasks.removeAll(toRemove);
-        FileParser.defaultSave(tasks);
+        boolean result = change(() -> {
+            boolean changed = false;
+            for (AbstractTask task : toRemove)
+                if (index.isIndexed(task))
+                {
+                    removeFromIndex(task);
+                    changed = true;
+                }
+            return changed;
+        });
+        if (result)
+            persist();
         return result;
     }
 
+    /**
+     * Called by {@link AbstractTask} whenever its tags change, so that the tag index stays consistent. Tasks which
+     * {@link Listr} is not handling are ignored.
+     * <p>
+     * This and the other hooks below are called for every change to every task, including tasks being parsed from a
+     * file or changed before they are added, so they check whether Listr handles the task optimistically, and return
+     * without taking the write lock or notifying the views if it does not.
+     *
+     * @param task    The task whose tags changed.
+     * @param removed The tags that the task no longer contains.
+     * @param added   The tags that the task now contains.
+     */
+    static void retagged(AbstractTask task, Collection<Tag> removed, Collection<Tag> added)
+    {
+        if (!isHandling(task))
+            return;
+
+        boolean changed = change(() -> {
+            index.retag(task, removed, added);
+            if (!index.isIndexed(task))
+                return false;
+
+            journal.retagged(task);
+            updateViews(task);
+            return true;
+        });
+        if (changed)
+            persist();
+    }
+
+    /**
+     * Called whenever the completion flag of a task changes, so that the index stays consistent. Tasks which
+     * {@link Listr} is not handling are ignored.
+     *
+     * @param task The task whose completion flag changed.
+     */
+    static void recompleted(AbstractTask task)
+    {
+        if (!isHandling(task))
+            return;
+
+        boolean changed = change(() -> {
+            index.recomplete(task);
+            if (!index.isIndexed(task))
+                return false;
+
+            journal.recompleted(task);
+            updateViews(task);
+            return true;
+        });
+        if (changed)
+            persist();
+    }
+
+    /**
+     * Called by {@link AbstractTask} whenever its name changes, so that the index stays consistent. Tasks which
+     * {@link Listr} is not handling are ignored.
+     *
+     * @param task The task whose name changed.
+     */
+    static void renamed(AbstractTask task)
+    {
+        if (!isHandling(task))
+            return;
+
+        boolean changed = change(() -> {
+            index.rename(task);
+            if (!index.isIndexed(task))
+                return false;
+
+            journal.renamed(task);
+            updateViews(task);
+            return true;
+        });
+        if (changed)
+            persist();
+    }
+
+    /**
+     * Called by {@link AbstractTask} whenever its completion behavior is replaced, so that the next snapshot records
+     * it. Tasks which {@link Listr} is not handling are ignored.
+     *
+     * @param task The task whose completion behavior was replaced.
+     */
+    static void reassigned(AbstractTask task)
+    {
+        if (!isHandling(task))
+            return;
+
+        boolean changed = change(() -> {
+            index.record(task);
+            if (!index.isIndexed(task))
+                return false;
+
+            journal.reassigned(task);
+            return true;
+        });
+        if (changed)
+            persist();
+    }
+
+    /**
+     * Called by {@link AbstractTask} whenever its due date changes, so that the due-date index stays consistent.
+     * Tasks which {@link Listr} is not handling are ignored.
+     *
+     * @param task The task whose due date changed.
+     */
+    static void redated(AbstractTask task)
+    {
+        if (!isHandling(task))
+            return;
+
+        boolean changed = change(() -> {
+            index.redate(task);
+            if (!index.isIndexed(task))
+                return false;
+
+            journal.redated(task);
+            updateViews(task);
+            return true;
+        });
+        if (changed)
+            persist();
+    }
+
+    /**
+     * Applies a change to the tasks under the write lock of the index, and then, with the lock released, notifies the
+     * listeners of the views which the change affected. A change made by the thread already holding the lock, within
+     * a batch, is applied directly, and its listeners are notified when the batch ends.
+     *
+     * @param change The change to apply.
+     * @return The value returned by {@code change}.
+     */
+    private static boolean change(Supplier<Boolean> change)
+    {
+        if (index.isWriting())
+            return change.get();
+
+        boolean result;
+        try
+        {
+            result = index.write(change);
+        } finally
+        {
+            views.values().forEach(TaskView::dispatch);
+        }
+        return result;
+    }
+
+    /**
+     * Schedules the latest snapshot of the tasks to be saved, if auto-saving is enabled (see
+     * {@link FileParser#defaultSave}), once changes stop coming in (see {@link TaskSaver}). Within a
+     * {@link Listr#batch(Consumer)}, nothing is scheduled until the batch ends.
+     * <p>
+     * It is only called after a change which touched a task that Listr handles: with no auto-save delay, the save runs
+     * at once, draining the journal, and must not run for every tag of a task being parsed or replayed.
+     */
+    private static void persist()
+    {
+        if (!index.isWriting())
+            saver.markDirty();
+    }
+
+    /**
+     * Saves at once any changes to the tasks which are waiting to be auto-saved. Changes are also saved when the JVM
+     * shuts down.
+     */
+    public static void flush()
+    {
+        saver.flush();
+    }
+
+
+    /**
+     * Re-tests a task which was added or changed against every registered view. The caller must hold the write lock
+     * of the index.
+     *
+     * @param task The task which was added or changed.
+     */
+    private static void updateViews(AbstractTask task)
+    {
+        if (!views.isEmpty())
+            updateViews(task, new QueryContext());
+    }
+
+    /**
+     * Re-tests a task which was added or changed against every registered view, as part of a change re-testing many
+     * tasks. The caller must hold the write lock of the index.
+     *
+     * @param task    The task which was added or changed.
+     * @param context The context shared by every test of the change.
+     */
+    private static void updateViews(AbstractTask task, QueryContext context)
+    {
+        for (TaskView view : views.values())
+            view.update(task, context);
+    }
+
+    /**
+     * Removes a task from the registered views and then from the index. The caller must hold the write lock of the
+     * index.
+     *
+     * @param task The task to remove.
+     */
+    private static void removeFromIndex(AbstractTask task)
+    {
+        for (TaskView view : views.values())
+            view.remove(task);
+        index.remove(task);
+        journal.removed(task);
+    }
 
     /**
      * The types of behaviors that are possible: {@link Rule} and {@link CompletionBehavior}.
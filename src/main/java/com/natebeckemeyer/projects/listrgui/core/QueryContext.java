@@ -0,0 +1,165 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-25.
+ * <p>
+ * The state shared by every test made during one evaluation of a rule. The current time is read once, when the
+ * context is created, so that time-based rules such as {@code today} give the same answer for every task even if the
+ * evaluation straddles midnight, and so that they need not build a calendar per task. The context also lends out
+ * scratch objects which rules may reuse between tasks instead of allocating their own.
+ * <p>
+ * {@link Listr} creates one context per query and passes it to {@link Rule#test(AbstractTask, QueryContext)}. A
+ * context is not safe to share between threads, and its scratch objects are only valid until the next call which
+ * returns them; when a query is spread across threads, each thread is given its own copy of the context, fixed at the
+ * same time.
+ */
+public final class QueryContext
+{
+    /**
+     * The time zone in which days are reckoned.
+     */
+    private final ZoneId zone;
+
+    /**
+     * The moment at which the context was created, in milliseconds since the epoch.
+     */
+    private final long now;
+
+    /**
+     * The current day, in days since the epoch (1970-01-01).
+     */
+    private final int today;
+
+    /**
+     * The first moment of the current day, in milliseconds since the epoch.
+     */
+    private final long startOfToday;
+
+    /**
+     * The first moment of the following day, in milliseconds since the epoch.
+     */
+    private final long startOfTomorrow;
+
+    /**
+     * A calendar lent out by {@link QueryContext#getCalendar()}; created on first use.
+     */
+    private Calendar calendar;
+
+    /**
+     * A string builder lent out by {@link QueryContext#getBuilder()}.
+     */
+    private final StringBuilder builder = new StringBuilder();
+
+    /**
+     * Creates a context fixed at the current time, in the default time zone.
+     */
+    public QueryContext()
+    {
+        this(Clock.systemDefaultZone());
+    }
+
+    /**
+     * Creates a context fixed at the current time of {@code clock}, in its time zone.
+     *
+     * @param clock The source of the current time.
+     */
+    public QueryContext(Clock clock)
+    {
+        Instant instant = clock.instant();
+        LocalDate date = instant.atZone(clock.getZone()).toLocalDate();
+
+        this.zone = clock.getZone();
+        this.now = instant.toEpochMilli();
+        this.today = (int) date.toEpochDay();
+        this.startOfToday = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        this.startOfTomorrow = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Creates a context fixed at the same time as {@code other}, with scratch objects of its own, for use by another
+     * thread of the same evaluation.
+     *
+     * @param other The context to copy.
+     */
+    QueryContext(QueryContext other)
+    {
+        this.zone = other.zone;
+        this.now = other.now;
+        this.today = other.today;
+        this.startOfToday = other.startOfToday;
+        this.startOfTomorrow = other.startOfTomorrow;
+    }
+
+    /**
+     * @return The moment at which this context was created, in milliseconds since the epoch.
+     */
+    public long getNow()
+    {
+        return now;
+    }
+
+    /**
+     * @return The current day, in days since the epoch (1970-01-01); comparable with
+     * {@link AbstractTask#getDueEpochDay()}.
+     */
+    public int getToday()
+    {
+        return today;
+    }
+
+    /**
+     * @param offset A number of days, which may be negative.
+     * @return The day {@code offset} days from the current day, in days since the epoch.
+     */
+    public int getDaysFromToday(int offset)
+    {
+        return today + offset;
+    }
+
+    /**
+     * @return The first moment of the current day, in milliseconds since the epoch.
+     */
+    public long getStartOfToday()
+    {
+        return startOfToday;
+    }
+
+    /**
+     * @return The first moment of the following day, in milliseconds since the epoch.
+     */
+    public long getStartOfTomorrow()
+    {
+        return startOfTomorrow;
+    }
+
+    /**
+     * @return A scratch calendar, set to the moment at which this context was created. The same calendar is returned
+     * by every call, so it must not be kept beyond the test which requested it.
+     */
+    public Calendar getCalendar()
+    {
+        if (calendar == null)
+            calendar = new GregorianCalendar(TimeZone.getTimeZone(zone));
+
+        calendar.setTimeInMillis(now);
+        return calendar;
+    }
+
+    /**
+     * @return A scratch string builder, emptied. The same builder is returned by every call, so it must not be kept
+     * beyond the test which requested it.
+     */
+    public StringBuilder getBuilder()
+    {
+        builder.setLength(0);
+        return builder;
+    }
+}
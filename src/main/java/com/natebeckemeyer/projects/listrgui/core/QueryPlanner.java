@@ -0,0 +1,294 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Completed;
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-21.
+ * <p>
+ * This class evaluates a rule against the tasks in a {@link TaskIndex} by walking its tree of
+ * {@link CompositeRule composite rules}. Leaves that the index can answer ({@link Tag tags} and
+ * {@link DueDateRule due-date rules}) are looked up rather than tested, and the composite operations are performed as
+ * operations on the resulting bitmaps: "and" for intersection, "or" for union, "and not" for difference, "xor" for
+ * symmetric difference, and negation as the complement against the tasks still under consideration.
+ * <p>
+ * Every node is evaluated only over a set of candidates: the tasks that could still match the whole rule. Opaque
+ * rules (those the index knows nothing about, such as user-compiled rules) are tested one task at a time, but only
+ * against those candidates; so in {@code work & week - completed}, no task outside of the {@code work} posting list
+ * is ever tested. Due-date rules over narrowed candidates and the {@link Completed} rule are answered by scanning the
+ * primitive columns of the {@link TaskStore} rather than by calling into each task.
+ * <p>
+ * Each evaluation creates a single {@link QueryContext}, which every rule in the tree sees, so that time-based rules
+ * agree on the current day for the whole evaluation.
+ * <p>
+ * When an opaque rule must be tested against many candidates, and the rule is a {@link ThreadSafeRule}, the tests are
+ * split across the common fork/join pool, in ranges of the candidates' slots; below
+ * {@link QueryPlanner#getParallelThreshold() a threshold} the tests stay on the calling thread.
+ */
+final class QueryPlanner
+{
+    /**
+     * The index against which rules are evaluated.
+     */
+    private final TaskIndex index;
+
+    /**
+     * The number of slots below which a range of candidates is tested on a single thread.
+     */
+    private static final int sequentialRange = 2048;
+
+    /**
+     * The number of candidates from which a thread-safe rule is tested in parallel.
+     */
+    private volatile int parallelThreshold = 1 << 14;
+
+    /**
+     * @param index The index against which rules will be evaluated.
+     */
+    QueryPlanner(TaskIndex index)
+    {
+        this.index = index;
+    }
+
+    /**
+     * @return The number of candidates from which a thread-safe rule is tested in parallel.
+     */
+    int getParallelThreshold()
+    {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param threshold The number of candidates from which a thread-safe rule is to be tested in parallel;
+     *                  {@link Integer#MAX_VALUE} disables parallel testing.
+     */
+    void setParallelThreshold(int threshold)
+    {
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * Returns the indexed tasks matching {@code rule}.
+     *
+     * @param rule The rule to evaluate; null matches no tasks.
+     * @return The matching tasks, in the order of {@link AbstractTask#compareTo}.
+     */
+    List<AbstractTask> evaluate(Rule rule)
+    {
+        return index.getSortedTasks(evaluateSlots(rule));
+    }
+
+    /**
+     * Returns the slots of the indexed tasks matching {@code rule}.
+     *
+     * @param rule The rule to evaluate; null matches no tasks.
+     * @return The slots of the matching tasks.
+     */
+    CompressedBitmap evaluateSlots(Rule rule)
+    {
+        if (rule == null)
+            return new CompressedBitmap();
+
+        return evaluate(rule, index.getAll(), new QueryContext());
+    }
+
+    /**
+     * @param rule       The rule to evaluate.
+     * @param candidates The slots of the tasks among which to look for matches. This bitmap is not modified.
+     * @param context    The state of the current evaluation.
+     * @return The subset of {@code candidates} matching {@code rule}.
+     */
+    private CompressedBitmap evaluate(Rule rule, CompressedBitmap candidates, QueryContext context)
+    {
+        if (candidates.isEmpty())
+            return candidates;
+
+        if (rule instanceof Tag)
+            return index.getPostings((Tag) rule).and(candidates);
+
+        if (rule instanceof Tag.Unresolved)
+        {
+            Tag tag = ((Tag.Unresolved) rule).resolve();
+            return tag == null ? new CompressedBitmap() : index.getPostings(tag).and(candidates);
+        }
+
+        if (rule instanceof DueDateRule)
+        {
+            // A range over all tasks is a lookup; once the candidates have been narrowed, scanning their due dates
+            // is cheaper than walking a range that may span most of the index.
+            DueDateRule range = (DueDateRule) rule;
+            int earliest = range.getEarliestDay(context);
+            int latest = range.getLatestDay(context);
+            if (candidates == index.getAll())
+                return index.getDueBetween(earliest, latest);
+            return index.getStore().getDueBetween(candidates, earliest, latest);
+        }
+
+        if (rule instanceof Completed)
+            return index.getStore().getCompleted(candidates);
+
+        if (rule instanceof CompositeRule)
+            return evaluate((CompositeRule) rule, candidates, context);
+
+        return filter(rule, candidates, context);
+    }
+
+    /**
+     * @param rule       The composite rule to evaluate.
+     * @param candidates The slots of the tasks among which to look for matches.
+     * @param context    The state of the current evaluation.
+     * @return The subset of {@code candidates} matching {@code rule}.
+     */
+    private CompressedBitmap evaluate(CompositeRule rule, CompressedBitmap candidates, QueryContext context)
+    {
+        Rule first = rule.getFirst();
+        Rule second = rule.getSecond();
+
+        switch (rule.getOperator())
+        {
+            case AND:
+                // Narrow the candidates with whichever operand the index can answer, so that an opaque operand is
+                // only ever tested against what remains.
+                if (!isIndexed(first) && isIndexed(second))
+                    return evaluate(first, evaluate(second, candidates, context), context);
+                return evaluate(second, evaluate(first, candidates, context), context);
+
+            case OR:
+                return evaluate(first, candidates, context).or(evaluate(second, candidates, context));
+
+            case DIFFERENCE:
+            {
+                CompressedBitmap result = evaluate(first, candidates, context);
+                return result.andNot(evaluate(second, result, context));
+            }
+
+            case SYMMETRIC_DIFFERENCE:
+                return evaluate(first, candidates, context).xor(evaluate(second, candidates, context));
+
+            case NOT:
+                return candidates.andNot(evaluate(first, candidates, context));
+
+            default:
+                return filter(rule, candidates, context);
+        }
+    }
+
+    /**
+     * @param rule A rule.
+     * @return Whether {@code rule} can be answered by the index without testing any task.
+     */
+    private static boolean isIndexed(Rule rule)
+    {
+        if (rule instanceof Tag || rule instanceof Tag.Unresolved || rule instanceof DueDateRule ||
+                rule instanceof Completed)
+            return true;
+
+        if (rule instanceof CompositeRule)
+        {
+            CompositeRule composite = (CompositeRule) rule;
+            return isIndexed(composite.getFirst()) &&
+                    (composite.getSecond() == null || isIndexed(composite.getSecond()));
+        }
+
+        return false;
+    }
+
+    /**
+     * @param rule A rule.
+     * @return Whether {@code rule} may be tested from several threads at once.
+     */
+    private static boolean isThreadSafe(Rule rule)
+    {
+        if (rule instanceof ThreadSafeRule)
+            return true;
+
+        if (rule instanceof CompositeRule)
+        {
+            CompositeRule composite = (CompositeRule) rule;
+            return isThreadSafe(composite.getFirst()) &&
+                    (composite.getSecond() == null || isThreadSafe(composite.getSecond()));
+        }
+
+        return false;
+    }
+
+    /**
+     * Tests each candidate against {@code rule}, in parallel if there are enough candidates and the rule allows it.
+     *
+     * @param rule       The rule to test.
+     * @param candidates The slots of the tasks to test.
+     * @param context    The state of the current evaluation.
+     * @return The slots of the candidates which pass.
+     */
+    private CompressedBitmap filter(Rule rule, CompressedBitmap candidates, QueryContext context)
+    {
+        if (candidates.cardinality() >= parallelThreshold && isThreadSafe(rule))
+        {
+            int[] slots = candidates.toArray();
+            return ForkJoinPool.commonPool().invoke(new ParallelFilter(rule, slots, 0, slots.length, context));
+        }
+
+        TaskStore store = index.getStore();
+        CompressedBitmap result = new CompressedBitmap();
+        candidates.forEach(slot -> {
+            if (rule.test(store.getTask(slot), context))
+                result.add(slot);
+        });
+        return result;
+    }
+
+    /**
+     * Tests a range of candidates against a thread-safe rule, splitting the range in half until it is small enough to
+     * test on one thread.
+     */
+    private final class ParallelFilter extends RecursiveTask<CompressedBitmap>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Rule rule;
+        private final int[] slots;
+        private final int from;
+        private final int to;
+        private final QueryContext context;
+
+        /**
+         * @param rule    The rule to test.
+         * @param slots   The slots of all of the candidates, in increasing order.
+         * @param from    The first index into {@code slots} of the range to test, inclusive.
+         * @param to      The last index into {@code slots} of the range to test, exclusive.
+         * @param context The context of the evaluation, which the tests of this range will copy.
+         */
+        ParallelFilter(Rule rule, int[] slots, int from, int to, QueryContext context)
+        {
+            this.rule = rule;
+            this.slots = slots;
+            this.from = from;
+            this.to = to;
+            this.context = context;
+        }
+
+        @Override protected CompressedBitmap compute()
+        {
+            if (to - from <= sequentialRange)
+            {
+                TaskStore store = index.getStore();
+                QueryContext own = new QueryContext(context);
+                CompressedBitmap result = new CompressedBitmap();
+                for (int i = from; i < to; i++)
+                    if (rule.test(store.getTask(slots[i]), own))
+                        result.add(slots[i]);
+                return result;
+            }
+
+            int middle = (from + to) >>> 1;
+            ParallelFilter left = new ParallelFilter(rule, slots, from, middle, context);
+            left.fork();
+            CompressedBitmap right = new ParallelFilter(rule, slots, middle, to, context).compute();
+            return left.join().or(right);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-04.
+ * <p>
+ * A temporary file, beside a target file, which replaces the target when committed. {@link ReplacementFile#commit()}
+ * forces the temporary file to the disk and then moves it over the target in one step, so that the target always
+ * holds either its old contents or the new, even if the application dies while writing; the directory is then forced
+ * too, where the platform allows it, so that the move itself survives a crash of the system. The temporary file is
+ * created readable by its owner alone, so it takes the permissions of the target before replacing it. Closing a
+ * replacement which was not committed deletes the temporary file and leaves the target as it was.
+ */
+final class ReplacementFile implements Closeable
+{
+    /**
+     * The file to replace.
+     */
+    private final Path target;
+
+    /**
+     * The temporary file written to, which becomes the target when committed.
+     */
+    private final Path temporary;
+
+    /**
+     * The channel to {@link ReplacementFile#temporary}.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Whether the temporary file has become the target.
+     */
+    private boolean committed = false;
+
+    /**
+     * Creates an empty temporary file to replace the target.
+     *
+     * @param target The file to replace.
+     * @throws IOException If the temporary file could not be created beside it.
+     */
+    ReplacementFile(File target) throws IOException
+    {
+        this.target = target.toPath().toAbsolutePath();
+        this.temporary = Files.createTempFile(this.target.getParent(), target.getName(), ".tmp");
+        this.channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return The channel to write the new contents of the target to.
+     */
+    FileChannel getChannel()
+    {
+        return channel;
+    }
+
+    /**
+     * Forces the temporary file to the disk, gives it the permissions of the target, and moves it over the target,
+     * atomically where the file system allows; then forces the directory holding them.
+     *
+     * @throws IOException If the temporary file could not be given the target's permissions or moved; the target is
+     *                     then unchanged.
+     */
+    void commit() throws IOException
+    {
+        channel.force(true);
+        channel.close();
+        copyPermissions();
+
+        try
+        {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+        forceDirectory();
+    }
+
+    /**
+     * Gives the temporary file the POSIX permissions of the target, if the target exists and the file system has
+     * such permissions.
+     */
+    private void copyPermissions() throws IOException
+    {
+        PosixFileAttributeView view = Files.getFileAttributeView(temporary, PosixFileAttributeView.class);
+        if (view != null && Files.exists(target))
+            view.setPermissions(Files.getPosixFilePermissions(target));
+    }
+
+    /**
+     * Forces the directory holding the target to the disk, so that the move is not lost if the system crashes soon
+     * after it. Not every platform can open a directory as a channel (Windows cannot), so this is done where possible.
+     */
+    private void forceDirectory()
+    {
+        try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ))
+        {
+            directory.force(true);
+        } catch (IOException e)
+        {
+            // The move itself has succeeded; it is only not yet known to be durable.
+        }
+    }
+
+    /**
+     * Abandons the replacement if it was not committed, deleting the temporary file.
+     */
+    @Override public void close() throws IOException
+    {
+        if (!committed)
+        {
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
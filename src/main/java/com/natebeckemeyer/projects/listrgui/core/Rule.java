@@ -1,14 +1,32 @@
 package com.natebeckemeyer.projects.listrgui.core;
 
-import java.util.Objects;
 import java.util.function.Predicate;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-04-28.
+ * <p>
+ * A rule is tested in one of two ways. {@link Rule#test(AbstractTask, QueryContext)} tests a task as one of many
+ * sharing a {@link QueryContext}; {@link Listr} creates one context per query, per streamed file and per change to
+ * its views, and anything else which tests many tasks should do the same. The plain {@link Rule#test(Object)} of
+ * {@link Predicate} is for testing a single task: rules which read the context create a new one for every such call.
  */
 @FunctionalInterface
 public interface Rule extends Predicate<AbstractTask>
 {
+    /**
+     * Tests {@code task} as part of an evaluation sharing {@code context}. Rules which depend on the current time
+     * should override this method and read the time from the context, so that every task in one query is judged
+     * against the same moment; by default, this simply calls {@link Rule#test(Object)}.
+     *
+     * @param task    The task to test
+     * @param context The state shared by every test of the current evaluation
+     * @return {@code true} if the task satisfies this rule; otherwise {@code false}
+     */
+    default boolean test(AbstractTask task, QueryContext context)
+    {
+        return test(task);
+    }
+
     /**
      * Performs a logical "and".
      *
@@ -18,20 +36,7 @@ public interface Rule extends Predicate<AbstractTask>
      */
     static Rule and(Rule first, Rule other)
     {
-        Objects.requireNonNull(first);
-        Objects.requireNonNull(other);
-        return new Rule()
-        {
-            @Override public String toString()
-            {
-                return String.format("(%s & %s)", first.toString(), other.toString());
-            }
-
-            @Override public boolean test(AbstractTask task)
-            {
-                return first.test(task) && other.test(task);
-            }
-        };
+        return new CompositeRule(CompositeRule.Operator.AND, first, other);
     }
 
     /**
@@ -43,20 +48,31 @@ public interface Rule extends Predicate<AbstractTask>
      */
     static Rule or(Rule first, Rule other)
     {
-        Objects.requireNonNull(first);
-        Objects.requireNonNull(other);
-        return new Rule()
-        {
-            @Override public String toString()
-            {
-                return String.format("(%s + %s)", first.toString(), other.toString());
-            }
+        return new CompositeRule(CompositeRule.Operator.OR, first, other);
+    }
 
-            @Override public boolean test(AbstractTask task)
-            {
-                return first.test(task) || other.test(task);
-            }
-        };
+    /**
+     * Performs a logical subtraction — that is, '{@code first & !other}'.
+     *
+     * @param first The rule to subtract from
+     * @param other The rule to subtract
+     * @return A new rule matching the tasks that match the first rule but not the other rule.
+     */
+    static Rule difference(Rule first, Rule other)
+    {
+        return new CompositeRule(CompositeRule.Operator.DIFFERENCE, first, other);
+    }
+
+    /**
+     * Performs a symmetric difference (XOR) — that is, '{@code (first + other) - (first & other)}'.
+     *
+     * @param first The first rule forming the symmetric difference
+     * @param other The second rule forming the symmetric difference
+     * @return A new rule matching the tasks that match exactly one of the two rules.
+     */
+    static Rule symmetricDifference(Rule first, Rule other)
+    {
+        return new CompositeRule(CompositeRule.Operator.SYMMETRIC_DIFFERENCE, first, other);
     }
 
     /**
@@ -66,17 +82,6 @@ public interface Rule extends Predicate<AbstractTask>
      */
     static Rule negate(Rule first)
     {
-        return new Rule()
-        {
-            @Override public String toString()
-            {
-                return String.format("!%s", first.toString());
-            }
-
-            @Override public boolean test(AbstractTask task)
-            {
-                return !first.test(task);
-            }
-        };
+        return new CompositeRule(CompositeRule.Operator.NOT, first, null);
     }
 }
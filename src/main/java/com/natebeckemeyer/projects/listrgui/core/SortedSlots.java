@@ -0,0 +1,344 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-07.
+ * <p>
+ * The slots of a {@link TaskStore} in the order of {@link TaskStore#compareSlots(int, int)}, held as plain ints: the
+ * sequence is cut into blocks of at most {@link SortedSlots#BLOCK_SIZE} slots, each a sorted int[], and the blocks are
+ * kept in order. A slot is found by a binary search over the last slot of each block, then one within its block; it is
+ * inserted or removed by shifting the rest of its block. The order therefore costs about five bytes per slot, where a
+ * {@code TreeSet<Integer>} costs a tree entry and a boxed slot, some 56 bytes.
+ * <p>
+ * As with any sorted set, a slot is found by comparing its fields with those of the slots around it: it must be
+ * removed before any field that it is ordered by changes in the store, and added back afterward.
+ */
+final class SortedSlots
+{
+    /**
+     * The largest number of slots in a block; a full block is split in two.
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * The number of slots from which a sort first radix sorts them by completion and due date (see
+     * {@link TaskSorter}), leaving only the runs of slots which tie on both to be sorted by name.
+     */
+    private static final int RADIX_THRESHOLD = 1024;
+
+    /**
+     * The columns of {@link TaskStore#compareSlots(int, int)} which {@link TaskSorter} can sort by.
+     */
+    private static final TaskOrder BY_COMPLETION_AND_DATE =
+            TaskOrder.by(TaskOrder.Column.COMPLETION, true).then(TaskOrder.Column.DUE_DATE, true);
+
+    /**
+     * The store whose slots are ordered.
+     */
+    private final TaskStore store;
+
+    /**
+     * The blocks, in order; those past {@link SortedSlots#blockCount} are unused.
+     */
+    private int[][] blocks = new int[4][];
+
+    /**
+     * The number of slots in each block.
+     */
+    private int[] blockSizes = new int[4];
+
+    /**
+     * The number of blocks in use.
+     */
+    private int blockCount = 0;
+
+    /**
+     * The number of slots held.
+     */
+    private int size = 0;
+
+    /**
+     * @param store The store whose slots are ordered.
+     */
+    SortedSlots(TaskStore store)
+    {
+        this.store = store;
+    }
+
+    /**
+     * @return The number of slots held.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Adds a slot at its place in the order.
+     *
+     * @param slot A slot in use, which is not held.
+     */
+    void add(int slot)
+    {
+        if (blockCount == 0)
+        {
+            int[] block = new int[16];
+            block[0] = slot;
+            insertBlock(0, block, 1);
+            size++;
+            return;
+        }
+
+        int block = findBlock(slot);
+        if (block == blockCount)
+            block--;
+
+        int[] slots = blocks[block];
+        int count = blockSizes[block];
+        int position = -search(slots, count, slot) - 1;
+        if (count == BLOCK_SIZE)
+        {
+            // Split the full block in two, and add the slot to the half it falls in.
+            int half = BLOCK_SIZE / 2;
+            int[] upper = new int[BLOCK_SIZE];
+            System.arraycopy(slots, half, upper, 0, BLOCK_SIZE - half);
+            blockSizes[block] = half;
+            insertBlock(block + 1, upper, BLOCK_SIZE - half);
+            if (position > half)
+            {
+                block++;
+                position -= half;
+            }
+            slots = blocks[block];
+            count = blockSizes[block];
+        } else if (count == slots.length)
+            blocks[block] = slots = Arrays.copyOf(slots, Math.min(slots.length * 2, BLOCK_SIZE));
+
+        System.arraycopy(slots, position, slots, position + 1, count - position);
+        slots[position] = slot;
+        blockSizes[block]++;
+        size++;
+    }
+
+    /**
+     * Removes a slot, which must be ordered by the same fields as when it was added.
+     *
+     * @param slot A slot in use.
+     * @return Whether the slot was held.
+     */
+    boolean remove(int slot)
+    {
+        int block = findBlock(slot);
+        if (block == blockCount)
+            return false;
+
+        int[] slots = blocks[block];
+        int count = blockSizes[block];
+        int position = search(slots, count, slot);
+        if (position < 0)
+            return false;
+
+        System.arraycopy(slots, position + 1, slots, position, count - position - 1);
+        size--;
+        if (--blockSizes[block] == 0)
+        {
+            System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+            System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block - 1);
+            blocks[--blockCount] = null;
+        }
+        return true;
+    }
+
+    /**
+     * Removes every slot.
+     */
+    void clear()
+    {
+        Arrays.fill(blocks, 0, blockCount, null);
+        blockCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Replaces the slots held with some slots, sorted at once. This is much cheaper than adding them one at a time.
+     *
+     * @param slots Slots in use, in any order. The array is sorted in place and then copied.
+     */
+    void rebuild(int[] slots)
+    {
+        sort(slots);
+        clear();
+
+        // Leave room in each block, so that the adds which follow a load do not split every block at once.
+        int fill = BLOCK_SIZE * 3 / 4;
+        for (int start = 0; start < slots.length; start += fill)
+        {
+            int count = Math.min(fill, slots.length - start);
+            int[] block = new int[Math.min(BLOCK_SIZE, count + count / 4 + 1)];
+            System.arraycopy(slots, start, block, 0, count);
+            insertBlock(blockCount, block, count);
+        }
+        size = slots.length;
+    }
+
+    /**
+     * Sorts slots in the order of {@link TaskStore#compareSlots(int, int)}. Many slots are radix sorted by completion
+     * and due date first, and each run of slots which tie on both is then merge sorted by name; a few are merge sorted
+     * at once.
+     *
+     * @param slots Slots in use; sorted in place.
+     */
+    void sort(int[] slots)
+    {
+        int count = slots.length;
+        if (count < RADIX_THRESHOLD)
+        {
+            if (count > 1)
+                mergeSort(slots.clone(), slots, 0, count);
+            return;
+        }
+
+        Arrays.sort(slots);
+        TaskSorter.sort(store, slots, BY_COMPLETION_AND_DATE);
+
+        int[] buffer = slots.clone();
+        for (int start = 0, end; start < count; start = end)
+        {
+            boolean completed = store.isCompleted(slots[start]);
+            int day = store.getDueDay(slots[start]);
+            for (end = start + 1; end < count; end++)
+                if (store.isCompleted(slots[end]) != completed || store.getDueDay(slots[end]) != day)
+                    break;
+
+            if (end - start > 1)
+                mergeSort(buffer, slots, start, end);
+        }
+    }
+
+    /**
+     * @return An iterator over the slots held, in order. The slots must not be changed while it is used.
+     */
+    PrimitiveIterator.OfInt iterator()
+    {
+        return new PrimitiveIterator.OfInt()
+        {
+            private int block = 0;
+            private int position = 0;
+
+            @Override public boolean hasNext()
+            {
+                return block < blockCount;
+            }
+
+            @Override public int nextInt()
+            {
+                if (block >= blockCount)
+                    throw new NoSuchElementException();
+
+                int slot = blocks[block][position++];
+                if (position == blockSizes[block])
+                {
+                    block++;
+                    position = 0;
+                }
+                return slot;
+            }
+        };
+    }
+
+    /**
+     * @return The first block whose last slot does not come before {@code slot}, or {@link SortedSlots#blockCount} if
+     * there is none.
+     */
+    private int findBlock(int slot)
+    {
+        int low = 0;
+        int high = blockCount;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (store.compareSlots(blocks[middle][blockSizes[middle] - 1], slot) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return The position of {@code slot} among the first {@code count} of {@code slots}, or, if it is not there,
+     * -(the position at which it would be inserted) - 1.
+     */
+    private int search(int[] slots, int count, int slot)
+    {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int result = store.compareSlots(slots[middle], slot);
+            if (result < 0)
+                low = middle + 1;
+            else if (result > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -low - 1;
+    }
+
+    private void insertBlock(int index, int[] block, int count)
+    {
+        if (blockCount == blocks.length)
+        {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, index, blocks, index + 1, blockCount - index);
+        System.arraycopy(blockSizes, index, blockSizes, index + 1, blockCount - index);
+        blocks[index] = block;
+        blockSizes[index] = count;
+        blockCount++;
+    }
+
+    /**
+     * Sorts {@code target[from, to)} by merging the sorted halves of {@code source[from, to)}; both ranges start
+     * with the same slots.
+     */
+    private void mergeSort(int[] source, int[] target, int from, int to)
+    {
+        if (to - from < 8)
+        {
+            for (int i = from + 1; i < to; i++)
+            {
+                int slot = target[i];
+                int j = i;
+                for (; j > from && store.compareSlots(target[j - 1], slot) > 0; j--)
+                    target[j] = target[j - 1];
+                target[j] = slot;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        mergeSort(target, source, from, middle);
+        mergeSort(target, source, middle, to);
+
+        if (store.compareSlots(source[middle - 1], source[middle]) < 0)
+        {
+            System.arraycopy(source, from, target, from, to - from);
+            return;
+        }
+
+        for (int i = from, left = from, right = middle; i < to; i++)
+        {
+            if (right >= to || left < middle && store.compareSlots(source[left], source[right]) < 0)
+                target[i] = source[left++];
+            else
+                target[i] = source[right++];
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-04.
+ * <p>
+ * Reads task files in the binary format written by {@link TaskBinaryWriter}. Each entry of a block's dictionaries is
+ * resolved once, when it is defined: task types and behaviors by a {@link TaskFileReader}, tags by
+ * {@link Tag#getTag(String)}, and each set of tags into one sorted array shared by every task which has it. The tasks
+ * themselves are then read field by field, with no text to parse, but for those of types which load themselves from
+ * their serialization.
+ * <p>
+ * Each block is checked against its checksum before it is read. A block which does not match, or cannot be read, is
+ * reported and its tasks are skipped; the blocks after it are read as usual, as each defines its own dictionaries.
+ * A block whose length is corrupt, or a file cut short, is reported, and the tasks before it are kept. A task of an
+ * unknown type is reported and skipped.
+ * <p>
+ * A reader is a {@link TaskSource} of its file, reading one block per batch.
+ */
+final class TaskBinaryReader implements TaskSource
+{
+    /**
+     * The size of the buffer of the file, in bytes.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The file read.
+     */
+    private final File file;
+
+    /**
+     * The contents of the file, after the blocks read so far.
+     */
+    private final DataInputStream input;
+
+    /**
+     * Checksums each block.
+     */
+    private final CRC32 checksum = new CRC32();
+
+    /**
+     * Resolves task types and behaviors by name.
+     */
+    private final TaskFileReader resolver = new TaskFileReader();
+
+    /**
+     * The task types defined in the block being read, or null for those which could not be resolved.
+     */
+    private final List<TaskFileReader.TaskType> types = new ArrayList<>();
+
+    /**
+     * The names of the task types defined in the block being read.
+     */
+    private final List<String> typeNames = new ArrayList<>();
+
+    /**
+     * The behaviors defined in the block being read.
+     */
+    private final List<TaskFileReader.Prototype> behaviors = new ArrayList<>();
+
+    /**
+     * The tags defined in the block being read.
+     */
+    private final List<Tag> tags = new ArrayList<>();
+
+    /**
+     * The sets of tags defined in the block being read, each sorted by id.
+     */
+    private final List<Tag[]> tagSets = new ArrayList<>();
+
+    /**
+     * The payload of the block being read.
+     */
+    private byte[] block = new byte[TaskBinaryWriter.BLOCK_SIZE + 1024];
+
+    /**
+     * The offset of the next byte to read from {@link TaskBinaryReader#block}.
+     */
+    private int position;
+
+    /**
+     * The number of blocks read so far.
+     */
+    private int blockNumber = 0;
+
+    /**
+     * The number of tasks read so far, including those which were skipped.
+     */
+    private int taskNumber = 0;
+
+    /**
+     * Whether the last block has been read, or the blocks after the last read cannot be.
+     */
+    private boolean done = false;
+
+    /**
+     * Opens a binary task file, and checks its header.
+     *
+     * @param file The task file.
+     * @throws IOException If the file could not be read, or is not a binary task file of a version this can read.
+     */
+    TaskBinaryReader(File file) throws IOException
+    {
+        this.file = file;
+        this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE));
+
+        try
+        {
+            byte[] magic = new byte[TaskBinaryWriter.MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(magic, TaskBinaryWriter.MAGIC))
+                throw new IOException(file + " is not a binary task file");
+
+            long version = readVarint(input);
+            if (version != TaskBinaryWriter.VERSION)
+                throw new IOException(file + " is in version " + version + " of the binary format; it cannot be read");
+        } catch (IOException e)
+        {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param file A task file.
+     * @return Whether the file is in the binary format, rather than text.
+     * @throws IOException If the file could not be read.
+     */
+    static boolean isBinary(File file) throws IOException
+    {
+        byte[] header = new byte[TaskBinaryWriter.MAGIC.length];
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file.toPath())))
+        {
+            input.readFully(header);
+        } catch (EOFException e)
+        {
+            return false;
+        }
+        return Arrays.equals(header, TaskBinaryWriter.MAGIC);
+    }
+
+    /**
+     * Reads every task from a binary task file, in order.
+     *
+     * @param file The task file.
+     * @return The tasks read, in the order of the file.
+     * @throws IOException If the file could not be read, or is not a binary task file of a version this can read.
+     */
+    static List<AbstractTask> readAll(File file) throws IOException
+    {
+        List<AbstractTask> tasks = new ArrayList<>();
+        try (TaskBinaryReader reader = new TaskBinaryReader(file))
+        {
+            boolean more = true;
+            while (more)
+                more = reader.readBatch(tasks::add);
+        }
+        return tasks;
+    }
+
+    /**
+     * Reads the tasks of the next block.
+     *
+     * @param sink Receives each task of the block, in order.
+     * @return Whether there may be more blocks; {@code false} once the end of the file, or of a file cut short, has
+     * been reached.
+     * @throws IOException If the file could not be read.
+     */
+    @Override public boolean readBatch(Consumer<AbstractTask> sink) throws IOException
+    {
+        if (done)
+            return false;
+
+        try
+        {
+            long length = readVarint(input);
+            if (length == 0)
+                return done();
+
+            blockNumber++;
+            if (length > file.length())
+            {
+                // The length itself is corrupt, so where the next block starts is unknown.
+                System.err.printf("Block %d of %s is corrupt; the tasks from it on were not loaded.%n", blockNumber,
+                        file);
+                return done();
+            }
+
+            if (block.length < length)
+                block = new byte[(int) length];
+            input.readFully(block, 0, (int) length);
+            int expected = input.readInt();
+
+            checksum.reset();
+            checksum.update(block, 0, (int) length);
+            if ((int) checksum.getValue() != expected)
+                return corrupt(null);
+
+            try
+            {
+                readBlock(sink);
+            } catch (RuntimeException e)
+            {
+                return corrupt(e);
+            }
+            return true;
+        } catch (EOFException e)
+        {
+            System.err.printf("%s was cut short; the tasks after block %d were not loaded.%n", file, blockNumber);
+            return done();
+        }
+    }
+
+    @Override public void close() throws IOException
+    {
+        input.close();
+    }
+
+    /**
+     * Notes that no more blocks are to be read.
+     *
+     * @return {@code false}, for {@link TaskBinaryReader#readBatch(Consumer)} to return.
+     */
+    private boolean done()
+    {
+        done = true;
+        return false;
+    }
+
+    /**
+     * Reports the block just read as corrupt; its tasks, or those not yet read, are skipped.
+     *
+     * @param cause Why the block could not be read, if its checksum matched.
+     * @return {@code true}, for {@link TaskBinaryReader#readBatch(Consumer)} to return, as the blocks after it do not
+     * depend on it.
+     */
+    private boolean corrupt(RuntimeException cause)
+    {
+        if (cause == null)
+            System.err.printf("Block %d of %s is corrupt; its tasks were not loaded.%n", blockNumber, file);
+        else
+            System.err.printf("Block %d of %s could not be read; the rest of its tasks were not loaded: %s%n",
+                    blockNumber, file, cause);
+        return true;
+    }
+
+    /**
+     * Reads the definitions and tasks of the block in {@link TaskBinaryReader#block}.
+     *
+     * @param sink Receives each task read.
+     */
+    private void readBlock(Consumer<AbstractTask> sink)
+    {
+        position = 0;
+        types.clear();
+        typeNames.clear();
+        behaviors.clear();
+        tags.clear();
+        tagSets.clear();
+
+        for (int definitionCount = readVarint(); definitionCount > 0; definitionCount--)
+            define();
+
+        int recordCount = readVarint();
+        int namesLength = readVarint();
+        int namePosition = position;
+        position += namesLength;
+
+        long id = 0;
+        for (int i = 0; i < recordCount; i++)
+        {
+            int type = readVarint();
+            id += unZigZag(readLong());
+            int flags = block[position++];
+            int dueDay = (flags & TaskBinaryWriter.DUE_DATE) != 0 ? (int) unZigZag(readLong()) :
+                    AbstractTask.NO_DUE_DATE;
+            TaskFileReader.Prototype behavior = behaviors.get(readVarint());
+            String behaviorData = (flags & TaskBinaryWriter.BEHAVIOR_DATA) != 0 ? readString() : " ";
+            Tag[] tagSet = tagSets.get(readVarint());
+            String serialization = (flags & TaskBinaryWriter.SERIALIZATION) != 0 ? readString() : null;
+
+            int recordPosition = position;
+            position = namePosition;
+            String name = readString();
+            namePosition = position;
+            position = recordPosition;
+
+            taskNumber++;
+            try
+            {
+                if (types.get(type) == null)
+                    throw new IllegalArgumentException("unknown task type '" + typeNames.get(type) + "'");
+
+                AbstractTask task;
+                if (serialization != null)
+                {
+                    task = types.get(type).create(null, null);
+                    task.loadFromSerialization(serialization);
+                } else
+                {
+                    CompletionBehavior onComplete = behavior.create();
+                    onComplete.loadFromString(behaviorData);
+                    task = types.get(type).create(name, onComplete);
+                    task.dueDay = dueDay;
+                    task.completed = (flags & TaskBinaryWriter.COMPLETED) != 0;
+                    task.tags = tagSet;
+                }
+                task.restoreId(id);
+                sink.accept(task);
+            } catch (RuntimeException e)
+            {
+                System.err.printf("Skipping task %d of %s, which could not be read: %s%n", taskNumber, file, e);
+            }
+        }
+    }
+
+    /**
+     * Reads one definition, adding its entry to its dictionary.
+     */
+    private void define()
+    {
+        char kind = (char) block[position++];
+        switch (kind)
+        {
+            case 'T':
+                String name = readString();
+                typeNames.add(name);
+                try
+                {
+                    types.add(resolver.typeNamed(name));
+                } catch (IllegalArgumentException e)
+                {
+                    types.add(null);
+                }
+                break;
+            case 'B':
+                behaviors.add(resolver.behaviorNamed(readString()));
+                break;
+            case 'G':
+                tags.add(Tag.getTag(readString()));
+                break;
+            case 'S':
+                List<Tag> tagSet = new ArrayList<>();
+                for (int count = readVarint(); count > 0; count--)
+                    tagSet.add(tags.get(readVarint()));
+                tagSets.add(AbstractTask.toSortedArray(tagSet));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown definition '" + kind + "'");
+        }
+    }
+
+    private String readString()
+    {
+        int length = readVarint();
+        String text = new String(block, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return text;
+    }
+
+    private int readVarint()
+    {
+        long value = readLong();
+        if (value > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("number out of range: " + value);
+        return (int) value;
+    }
+
+    private long readLong()
+    {
+        long value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = block[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    private static long readVarint(DataInputStream input) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * @return The value zig-zag decoded; see {@link TaskBinaryWriter}.
+     */
+    private static long unZigZag(long value)
+    {
+        return value >>> 1 ^ -(value & 1);
+    }
+}
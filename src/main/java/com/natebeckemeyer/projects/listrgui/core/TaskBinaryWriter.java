@@ -0,0 +1,399 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-04.
+ * <p>
+ * Writes a task file in the binary format, one {@link TaskRecord} at a time; {@link TaskBinaryReader} reads it back.
+ * Rather than spelling out the task type, behavior type and tags of every task, as the text format does, the binary
+ * format names each of them once in a dictionary and refers to it by index afterward. The file is laid out as:
+ * <pre>
+ *  file       := MAGIC version block* 0
+ *  block      := length payload crc32          (crc32 of the payload, 4 bytes, big-endian)
+ *  payload    := count definition* count nameLength name* record*
+ *  definition := 'T' string                    (a task type)
+ *              | 'B' string                    (a completion behavior type)
+ *              | 'G' string                    (a tag)
+ *              | 'S' count tag*                (a set of tags, by index)
+ *  record     := type id flags [dueDay] behavior [behaviorData] tagSet [serialization]
+ *  name       := string                        (the name of each record of the block, in order)
+ *  string     := length bytes                  (UTF-8)
+ * </pre>
+ * Every number is an unsigned varint, seven bits to a byte, least significant first; an identifier is written as the
+ * difference from the one before it in the block, and it and the due date are zig-zag encoded so that small negative
+ * values stay small. The flags say whether the task is completed, and whether the due date, behavior data and
+ * serialization follow. A task of a type whose layout Listr does not know (see {@link TaskFileReader.Layout}) is
+ * written with its own serialization, from which it loads itself when read; its other fields are written all the same.
+ * The dictionaries belong to a block: its entries are numbered from zero in the order of their definitions in the
+ * block, which precede their first use, and they are emptied once the block is written. So every block can be read
+ * without the others, and a corrupt block loses only its own tasks. A block is written whenever its payload reaches
+ * {@link TaskBinaryWriter#BLOCK_SIZE} bytes.
+ * <p>
+ * As with {@link TaskFileWriter}, the file is written to a temporary file which replaces the task file when committed
+ * (see {@link ReplacementFile}).
+ */
+final class TaskBinaryWriter implements Closeable
+{
+    /**
+     * The bytes with which every binary task file starts. The first is not ASCII, so that no text task file starts
+     * with them, and the line separators catch files mangled by translating them.
+     */
+    static final byte[] MAGIC = {(byte) 0x89, 'L', 'S', 'T', 'R', '\r', '\n', 0x1A};
+
+    /**
+     * The version of the format written.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The flag of a completed task.
+     */
+    static final int COMPLETED = 1;
+
+    /**
+     * The flag of a record followed by a due date.
+     */
+    static final int DUE_DATE = 2;
+
+    /**
+     * The flag of a record followed by the data of its behavior.
+     */
+    static final int BEHAVIOR_DATA = 4;
+
+    /**
+     * The flag of a record followed by the serialization of its task, which loads itself from it.
+     */
+    static final int SERIALIZATION = 8;
+
+    /**
+     * The size, in bytes, at which the payload of a block is written.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The temporary file written to, which replaces the task file when committed.
+     */
+    private final ReplacementFile file;
+
+    /**
+     * The channel to {@link TaskBinaryWriter#file}.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The indexes of the task types defined in the block being filled.
+     */
+    private final Map<String, Integer> types = new HashMap<>();
+
+    /**
+     * The indexes of the behavior types defined in the block being filled.
+     */
+    private final Map<String, Integer> behaviors = new HashMap<>();
+
+    /**
+     * The indexes of the tags defined in the block being filled.
+     */
+    private final Map<Tag, Integer> tags = new HashMap<>();
+
+    /**
+     * The indexes of the sets of tags defined in the block being filled.
+     */
+    private final Map<List<Tag>, Integer> tagSets = new HashMap<>();
+
+    /**
+     * The definitions of the block being filled.
+     */
+    private final Bytes definitions = new Bytes();
+
+    /**
+     * The names of the records of the block being filled.
+     */
+    private final Bytes names = new Bytes();
+
+    /**
+     * The records of the block being filled.
+     */
+    private final Bytes records = new Bytes();
+
+    /**
+     * The payload of the block being written, assembled from its parts.
+     */
+    private final Bytes payload = new Bytes();
+
+    /**
+     * The bytes around the payloads: the header of the file, the length and checksum of each block, and the end.
+     */
+    private final Bytes frame = new Bytes();
+
+    /**
+     * Checksums the block being written.
+     */
+    private final CRC32 checksum = new CRC32();
+
+    /**
+     * The number of definitions in the block being filled.
+     */
+    private int definitionCount = 0;
+
+    /**
+     * The number of records in the block being filled.
+     */
+    private int recordCount = 0;
+
+    /**
+     * The identifier of the last task of the block being filled, or 0 if it has none yet.
+     */
+    private long previousId = 0;
+
+    /**
+     * Starts writing a task file.
+     *
+     * @param target The task file to write.
+     * @throws IOException If the temporary file could not be created beside it, or written to.
+     */
+    TaskBinaryWriter(File target) throws IOException
+    {
+        this.file = new ReplacementFile(target);
+        this.channel = file.getChannel();
+
+        frame.put(MAGIC, MAGIC.length);
+        frame.putVarint(VERSION);
+        drain(frame);
+    }
+
+    /**
+     * Writes a task, defining its type, behavior type and tags first if they are new to the block.
+     *
+     * @param record The task to write.
+     * @throws IOException If the temporary file could not be written.
+     */
+    void write(TaskRecord record) throws IOException
+    {
+        int type = define(types, record.getType(), 'T', record.getType());
+        int behavior = define(behaviors, record.getBehaviorType(), 'B', record.getBehaviorType());
+        int tagSet = defineTagSet(record.getTagArray());
+
+        String behaviorData = record.getBehaviorData();
+        boolean hasBehaviorData = behaviorData != null && !behaviorData.isEmpty();
+        boolean hasDueDate = record.getDueEpochDay() != AbstractTask.NO_DUE_DATE;
+        boolean hasSerialization = record.getLayout() == TaskFileReader.Layout.OTHER;
+        int flags = (record.isCompleted() ? COMPLETED : 0) | (hasDueDate ? DUE_DATE : 0) |
+                (hasBehaviorData ? BEHAVIOR_DATA : 0) | (hasSerialization ? SERIALIZATION : 0);
+
+        records.putVarint(type);
+        records.putVarint(zigZag(record.getId() - previousId));
+        records.put(flags);
+        if (hasDueDate)
+            records.putVarint(zigZag(record.getDueEpochDay()));
+        records.putVarint(behavior);
+        if (hasBehaviorData)
+            records.putString(behaviorData);
+        records.putVarint(tagSet);
+        if (hasSerialization)
+            records.putString(record.serialize());
+        names.putString(String.valueOf(record.getName()));
+
+        previousId = record.getId();
+        recordCount++;
+        if (definitions.size + names.size + records.size >= BLOCK_SIZE)
+            writeBlock();
+    }
+
+    /**
+     * Finishes the file: writes the last block and the end of the file, and replaces the task file with it.
+     *
+     * @throws IOException If the file could not be finished; the task file is then unchanged.
+     */
+    void commit() throws IOException
+    {
+        if (recordCount > 0 || definitionCount > 0)
+            writeBlock();
+
+        frame.putVarint(0);
+        drain(frame);
+        file.commit();
+    }
+
+    /**
+     * Abandons the file if it was not committed, deleting the temporary file.
+     */
+    @Override public void close() throws IOException
+    {
+        file.close();
+    }
+
+    /**
+     * @return The index of an entry of a dictionary, defining it in the block being filled if it is new.
+     */
+    private <K> int define(Map<K, Integer> dictionary, K key, char kind, String entry)
+    {
+        Integer index = dictionary.get(key);
+        if (index == null)
+        {
+            index = dictionary.size();
+            dictionary.put(key, index);
+            definitions.put(kind);
+            definitions.putString(entry);
+            definitionCount++;
+        }
+        return index;
+    }
+
+    /**
+     * @return The index of a set of tags, defining it and its tags in the block being filled if they are new.
+     */
+    private int defineTagSet(Tag[] tagArray)
+    {
+        List<Tag> tagList = Arrays.asList(tagArray);
+        Integer index = tagSets.get(tagList);
+        if (index != null)
+            return index;
+
+        int[] tagIndexes = new int[tagArray.length];
+        for (int i = 0; i < tagArray.length; i++)
+            tagIndexes[i] = define(tags, tagArray[i], 'G', tagArray[i].toString());
+
+        index = tagSets.size();
+        tagSets.put(tagList, index);
+        definitions.put('S');
+        definitions.putVarint(tagIndexes.length);
+        for (int tagIndex : tagIndexes)
+            definitions.putVarint(tagIndex);
+        definitionCount++;
+        return index;
+    }
+
+    /**
+     * Writes the block being filled, and starts the next.
+     */
+    private void writeBlock() throws IOException
+    {
+        payload.putVarint(definitionCount);
+        payload.put(definitions.array, definitions.size);
+        payload.putVarint(recordCount);
+        payload.putVarint(names.size);
+        payload.put(names.array, names.size);
+        payload.put(records.array, records.size);
+
+        checksum.reset();
+        checksum.update(payload.array, 0, payload.size);
+        int crc = (int) checksum.getValue();
+        frame.putVarint(payload.size);
+        drain(frame);
+        drain(payload);
+        frame.put(crc >>> 24);
+        frame.put(crc >>> 16);
+        frame.put(crc >>> 8);
+        frame.put(crc);
+        drain(frame);
+
+        definitions.clear();
+        names.clear();
+        records.clear();
+        types.clear();
+        behaviors.clear();
+        tags.clear();
+        tagSets.clear();
+        definitionCount = 0;
+        recordCount = 0;
+        previousId = 0;
+    }
+
+    /**
+     * Writes bytes to the channel, and empties them.
+     */
+    private void drain(Bytes bytes) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.array, 0, bytes.size);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        bytes.clear();
+    }
+
+    /**
+     * @return The value zig-zag encoded: 0, -1, 1, -2, ... become 0, 1, 2, 3, ...
+     */
+    private static long zigZag(long value)
+    {
+        return value << 1 ^ value >> 63;
+    }
+
+    /**
+     * A growable array of bytes.
+     */
+    private static final class Bytes
+    {
+        private byte[] array = new byte[1024];
+        private int size = 0;
+
+        private void clear()
+        {
+            size = 0;
+        }
+
+        private void put(int b)
+        {
+            ensure(1);
+            array[size++] = (byte) b;
+        }
+
+        private void put(byte[] bytes, int length)
+        {
+            ensure(length);
+            System.arraycopy(bytes, 0, array, size, length);
+            size += length;
+        }
+
+        private void putVarint(long value)
+        {
+            ensure(10);
+            while ((value & ~0x7FL) != 0)
+            {
+                array[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            array[size++] = (byte) value;
+        }
+
+        /**
+         * Writes text in UTF-8, after its length in bytes, copying plain ASCII straight into the array.
+         */
+        private void putString(String text)
+        {
+            for (int i = 0; i < text.length(); i++)
+            {
+                if (text.charAt(i) >= 0x80)
+                {
+                    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                    putVarint(bytes.length);
+                    put(bytes, bytes.length);
+                    return;
+                }
+            }
+
+            putVarint(text.length());
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++)
+                array[size++] = (byte) text.charAt(i);
+        }
+
+        private void ensure(int more)
+        {
+            if (size + more > array.length)
+                array = Arrays.copyOf(array, Math.max(array.length * 2, size + more));
+        }
+    }
+}
@@ -0,0 +1,823 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.DatelessTask;
+import com.natebeckemeyer.projects.listrgui.implementations.SimpleTask;
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+import com.natebeckemeyer.projects.listrgui.reference.Defaults;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-03.
+ * <p>
+ * Reads task files in the format written by {@link TaskFileWriter}, without regular expressions or per-line
+ * reflection. The file is decoded a buffer at a time into a {@link CharBuffer}, and each line is split in a single
+ * pass by the indexes of its pipes; its fields are then parsed in place and set on the task directly, rather than
+ * through {@link AbstractTask#loadFromSerialization(String)}. Task types and completion behaviors are looked up once
+ * per reader, by name: each type's constructor is resolved the first time the type is seen, and each behavior is made
+ * by copying a prototype (see {@link CompletionBehavior#copy()}). Tasks with the same tags share one tag array.
+ * <p>
+ * Types which do not serialize like {@link SimpleTask} or {@link DatelessTask} still load themselves from the rest of
+ * the line. A line which cannot be parsed is reported, with its number, and skipped; the rest of the file is read. A
+ * file may also be read a buffer at a time, as a {@link TaskSource} (see {@link TaskFileReader#open(File)}).
+ * <p>
+ * Large files are read by {@link TaskFileReader#readAll(File)} in parallel: the file is memory-mapped in chunks which
+ * end at line separators, and each chunk is decoded and parsed by its own reader on the common fork/join pool. The
+ * chunks' tasks are then joined in the order of the file. As the file may be loaded while {@link Listr} is still being
+ * initialized, the task types and behaviors are all resolved beforehand on the thread reading the file, and the
+ * readers of the chunks never call into Listr.
+ */
+final class TaskFileReader
+{
+    /**
+     * The size of the buffers, in bytes and characters; lines longer than this grow the character buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The size, in bytes, from which a file is read in parallel.
+     */
+    private static final long PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * The least size of a chunk read in parallel, in bytes, before it is extended to the end of its last line.
+     */
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The greatest size of a chunk read in parallel, in bytes, before it is extended to the end of its last line; this
+     * bounds the memory taken by the characters of each chunk being parsed.
+     */
+    private static final long MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The tags of a task without tags.
+     */
+    private static final Tag[] NO_TAGS = new Tag[0];
+
+    /**
+     * The task types seen so far, by name.
+     */
+    private final List<TaskType> types = new ArrayList<>();
+
+    /**
+     * A prototype of each completion behavior seen so far, by name.
+     */
+    private final List<Prototype> behaviors = new ArrayList<>();
+
+    /**
+     * The tags of the tasks read so far, by their serialization.
+     */
+    private final Map<String, Tag[]> tagSets = new HashMap<>();
+
+    /**
+     * The offsets of the pipes of the line being parsed.
+     */
+    private final int[] pipes = new int[8];
+
+    /**
+     * The lines which could not be parsed since reading started, in order.
+     */
+    private final List<Problem> problems = new ArrayList<>();
+
+    /**
+     * Whether task types and behaviors not seen yet are looked up in {@link Listr}. The readers of the chunks of a
+     * file read in parallel only know those resolved beforehand.
+     */
+    private final boolean resolving;
+
+    /**
+     * The behavior given to tasks whose behavior is unknown, when not {@link TaskFileReader#resolving}.
+     */
+    private Prototype fallback;
+
+    /**
+     * The number of lines read since reading started.
+     */
+    private int lineCount;
+
+    /**
+     * Creates a reader which resolves task types and behaviors as it meets them.
+     */
+    TaskFileReader()
+    {
+        this.resolving = true;
+    }
+
+    /**
+     * Creates a reader which knows only the task types and behaviors already resolved by another.
+     *
+     * @param catalog The reader whose types and behaviors to use.
+     */
+    private TaskFileReader(TaskFileReader catalog)
+    {
+        this.resolving = false;
+        this.types.addAll(catalog.types);
+        this.behaviors.addAll(catalog.behaviors);
+        this.fallback = catalog.fallback;
+    }
+
+    /**
+     * Reads every task from a task file, in order; files of {@link TaskFileReader#PARALLEL_THRESHOLD} bytes or more
+     * are read in parallel, if there is more than one processor to read them with.
+     *
+     * @param file The task file.
+     * @return The tasks read, in the order of the file.
+     * @throws IOException If the file could not be read.
+     */
+    static List<AbstractTask> readAll(File file) throws IOException
+    {
+        return readAll(file, file.length() >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() >= 2);
+    }
+
+    /**
+     * Reads every task from a task file, in order, in chunks on the fork/join pool of the calling thread (or the
+     * common pool) if asked to, or else on this thread.
+     *
+     * @param file     The task file.
+     * @param parallel Whether to read the file in parallel, whatever its size; it is read on this thread anyway if a
+     *                 task type loads itself.
+     * @return The tasks read, in the order of the file.
+     * @throws IOException If the file could not be read.
+     */
+    static List<AbstractTask> readAll(File file, boolean parallel) throws IOException
+    {
+        TaskFileReader catalog = new TaskFileReader();
+        if (!parallel || !catalog.resolveAll())
+        {
+            List<AbstractTask> tasks = new ArrayList<>();
+            catalog.read(file, tasks::add);
+            return tasks;
+        }
+
+        List<Chunk> chunks;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            chunks = split(channel, catalog);
+            ForkJoinTask.invokeAll(chunks);
+        }
+
+        int taskCount = 0;
+        for (Chunk chunk : chunks)
+        {
+            if (chunk.failure != null)
+                throw chunk.failure;
+            taskCount += chunk.tasks.size();
+        }
+
+        List<AbstractTask> tasks = new ArrayList<>(taskCount);
+        int firstLine = 0;
+        for (Chunk chunk : chunks)
+        {
+            tasks.addAll(chunk.tasks);
+            chunk.reader.report(file, firstLine);
+            firstLine += chunk.reader.lineCount;
+        }
+        return tasks;
+    }
+
+    /**
+     * Reads every task from a task file, in order, on this thread.
+     *
+     * @param file The task file.
+     * @param sink Receives each task read.
+     * @throws IOException If the file could not be read.
+     */
+    void read(File file, Consumer<AbstractTask> sink) throws IOException
+    {
+        try (TaskSource source = open(file))
+        {
+            boolean more = true;
+            while (more)
+                more = source.readBatch(sink);
+        }
+    }
+
+    /**
+     * Opens a task file to be read a buffer at a time, on one thread. Lines which cannot be parsed are reported with
+     * each batch.
+     *
+     * @param file The task file.
+     * @return The source of the file's tasks.
+     * @throws IOException If the file could not be opened.
+     */
+    TaskSource open(File file) throws IOException
+    {
+        lineCount = 0;
+        problems.clear();
+        return new TextSource(file);
+    }
+
+    /**
+     * Parses each line of the text which ends with a line separator, and at the end of the input, the rest as well.
+     *
+     * @param text       The characters.
+     * @param start      The offset of the first line.
+     * @param limit      The offset just after the last character.
+     * @param endOfInput Whether no more characters follow.
+     * @param sink       Receives each task parsed.
+     * @return The offset of the first character not parsed.
+     */
+    private int scan(char[] text, int start, int limit, boolean endOfInput, Consumer<AbstractTask> sink)
+    {
+        for (int i = start; i < limit; i++)
+        {
+            if (text[i] == '\n')
+            {
+                accept(text, start, i, sink);
+                start = i + 1;
+            }
+        }
+
+        if (endOfInput && start < limit)
+        {
+            accept(text, start, limit, sink);
+            start = limit;
+        }
+        return start;
+    }
+
+    /**
+     * Parses one line of a file and hands its task to the sink, or notes why it could not.
+     */
+    private void accept(char[] text, int start, int end, Consumer<AbstractTask> sink)
+    {
+        lineCount++;
+        if (end > start && text[end - 1] == '\r')
+            end--;
+        if (end == start)
+            return;
+
+        try
+        {
+            sink.accept(parse(text, start, end));
+        } catch (RuntimeException e)
+        {
+            problems.add(new Problem(lineCount, e));
+        }
+    }
+
+    /**
+     * Reports the lines which could not be parsed, and forgets them.
+     *
+     * @param file      The file read.
+     * @param firstLine The number of lines of the file before those read by this reader.
+     */
+    private void report(File file, int firstLine)
+    {
+        for (Problem problem : problems)
+            System.err.printf("Skipping line %d of %s, which could not be read: %s%n", firstLine + problem.line, file,
+                    problem.cause);
+        problems.clear();
+    }
+
+    /**
+     * Resolves every task type and behavior known to {@link Listr}, and the default behavior, so that readers made
+     * from this one need not look any up.
+     *
+     * @return Whether every task type can be parsed without calling into Listr; types which load themselves cannot.
+     */
+    private boolean resolveAll()
+    {
+        for (String name : Listr.getTaskTypeNames())
+            if (typeOf(name.toCharArray(), 0, name.length()).layout == Layout.OTHER)
+                return false;
+
+        for (String name : Listr.getCompletionBehaviorNames())
+            prototypeOf(name.toCharArray(), 0, name.length());
+        fallback = new Prototype(null, Defaults.getDefaultCompletionBehavior());
+        return true;
+    }
+
+    /**
+     * Splits a file into chunks which end at line separators, each to be read by a reader made from the catalog.
+     */
+    private static List<Chunk> split(FileChannel channel, TaskFileReader catalog) throws IOException
+    {
+        long size = channel.size();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE,
+                Math.min(MAX_CHUNK_SIZE, size / (ForkJoinPool.getCommonPoolParallelism() * 4L)));
+
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(BUFFER_SIZE);
+        for (long start = 0, end; start < size; start = end)
+        {
+            end = lineStartAfter(channel, Math.min(start + chunkSize, size), size, probe);
+            chunks.add(new Chunk(channel, start, end, new TaskFileReader(catalog)));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The offset just after the first line separator at or after {@code position}, or the size of the file if
+     * there is none.
+     */
+    private static long lineStartAfter(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException
+    {
+        while (position < size)
+        {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read < 0)
+                break;
+
+            for (int i = 0; i < read; i++)
+                if (probe.get(i) == '\n')
+                    return position + i + 1;
+            position += read;
+        }
+        return size;
+    }
+
+    private static CharsetDecoder newDecoder()
+    {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Parses a task from one line of a task file, as found in a {@link TaskJournal}.
+     *
+     * @param line The line, holding the type and identifier of the task and then its serialization.
+     * @return The task.
+     * @throws IllegalArgumentException If the line is malformed.
+     */
+    AbstractTask parse(String line)
+    {
+        return parse(line.toCharArray(), 0, line.length());
+    }
+
+    /**
+     * Parses a task from one line of a task file.
+     *
+     * @param text  The characters holding the line.
+     * @param start The offset of the line.
+     * @param end   The offset just after the line, without its separator.
+     * @return The task.
+     * @throws IllegalArgumentException If the line is malformed.
+     */
+    private AbstractTask parse(char[] text, int start, int end)
+    {
+        int headerEnd = indexOf(text, '|', start, end);
+        if (headerEnd < 0)
+            throw new IllegalArgumentException("no fields");
+
+        int at = indexOf(text, '@', start, headerEnd);
+        TaskType type = typeOf(text, start, at < 0 ? headerEnd : at);
+        AbstractTask task;
+        if (type.layout == Layout.OTHER)
+        {
+            task = type.create(null, null);
+            task.loadFromSerialization(new String(text, headerEnd + 1, end - headerEnd - 1));
+        } else
+        {
+            // The name comes last and may hold pipes of its own, so only the pipes before it are split on.
+            int fieldCount = type.layout == Layout.DATED ? 7 : 4;
+            int from = headerEnd + 1;
+            for (int i = 0; i < fieldCount; i++)
+            {
+                pipes[i] = indexOf(text, '|', from, end);
+                if (pipes[i] < 0)
+                    throw new IllegalArgumentException("expected " + (fieldCount + 1) + " fields, found " + (i + 1));
+                from = pipes[i] + 1;
+            }
+
+            int field = 0;
+            int fieldStart = headerEnd + 1;
+            int dueDay = AbstractTask.NO_DUE_DATE;
+            if (type.layout == Layout.DATED)
+            {
+                int year = parseInt(text, fieldStart, pipes[0]);
+                int month = parseInt(text, pipes[0] + 1, pipes[1]);
+                int day = parseInt(text, pipes[1] + 1, pipes[2]);
+                dueDay = AbstractTask.toEpochDay(year, month, day);
+                field = 3;
+                fieldStart = pipes[2] + 1;
+            }
+
+            boolean completed = parseBoolean(text, fieldStart, pipes[field]);
+            Tag[] tags = tagsOf(text, pipes[field] + 1, pipes[field + 1]);
+            CompletionBehavior behavior = prototypeOf(text, pipes[field + 1] + 1, pipes[field + 2]).create();
+            int dataStart = pipes[field + 2] + 1;
+            int dataEnd = pipes[field + 3];
+            behavior.loadFromString(dataEnd - dataStart == 1 && text[dataStart] == ' ' ? " " :
+                    new String(text, dataStart, dataEnd - dataStart));
+
+            task = type.create(new String(text, dataEnd + 1, end - dataEnd - 1), behavior);
+            task.dueDay = dueDay;
+            task.completed = completed;
+            task.tags = tags;
+        }
+
+        if (at >= 0)
+            task.restoreId(parseLong(text, at + 1, headerEnd));
+        return task;
+    }
+
+    /**
+     * Resolves a task type by name, as for an entry in the dictionary of a binary task file.
+     *
+     * @param name The simple class name of the task type.
+     * @return The task type.
+     * @throws IllegalArgumentException If the type is unknown, or cannot be constructed.
+     */
+    TaskType typeNamed(String name)
+    {
+        return typeOf(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * Resolves a completion behavior by name, as for an entry in the dictionary of a binary task file. Unknown
+     * behaviors are reported, and resolve to the default behavior.
+     *
+     * @param name The simple class name of the completion behavior.
+     * @return A prototype of the behavior.
+     */
+    Prototype behaviorNamed(String name)
+    {
+        return prototypeOf(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * @return The task type named by the characters, resolving it the first time it is seen.
+     */
+    private TaskType typeOf(char[] text, int start, int end)
+    {
+        for (TaskType type : types)
+            if (matches(type.name, text, start, end, false))
+                return type;
+
+        String name = new String(text, start, end - start);
+        Class<? extends AbstractTask> taskClass = resolving ? Listr.getTaskOfType(name) : null;
+        if (taskClass == null)
+            throw new IllegalArgumentException("unknown task type '" + name + "'");
+
+        TaskType type = new TaskType(name, taskClass);
+        types.add(type);
+        return type;
+    }
+
+    /**
+     * @return A prototype of the completion behavior named by the characters, resolving it the first time it is seen.
+     */
+    private Prototype prototypeOf(char[] text, int start, int end)
+    {
+        for (Prototype prototype : behaviors)
+            if (matches(prototype.name, text, start, end, false))
+                return prototype;
+
+        String name = new String(text, start, end - start);
+        Prototype prototype;
+        if (resolving)
+            prototype = new Prototype(name, Listr.getCompletionBehavior(name));
+        else
+        {
+            System.err.printf("Could not locate completion behavior %s, or it is null. Using default instead.%n", name);
+            prototype = new Prototype(name, fallback.behavior);
+        }
+        behaviors.add(prototype);
+        return prototype;
+    }
+
+    /**
+     * @return The tags named by the characters, separated by spaces, sorted by id.
+     */
+    private Tag[] tagsOf(char[] text, int start, int end)
+    {
+        if (start == end)
+            return NO_TAGS;
+
+        return tagSets.computeIfAbsent(new String(text, start, end - start), serialized -> {
+            List<Tag> tags = new ArrayList<>();
+            for (String tag : serialized.split(" "))
+                if (!tag.isEmpty())
+                    tags.add(Tag.getTag(tag));
+            return AbstractTask.toSortedArray(tags);
+        });
+    }
+
+    private static int indexOf(char[] text, char c, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+            if (text[i] == c)
+                return i;
+        return -1;
+    }
+
+    private static int parseInt(char[] text, int start, int end)
+    {
+        long value = parseLong(text, start, end);
+        if (value != (int) value)
+            throw new NumberFormatException("out of range: " + new String(text, start, end - start));
+        return (int) value;
+    }
+
+    private static long parseLong(char[] text, int start, int end)
+    {
+        boolean negative = start < end && text[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 18)
+            throw new NumberFormatException("bad number '" + new String(text, start, end - start) + "'");
+
+        long value = 0;
+        for (; i < end; i++)
+        {
+            int digit = text[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("bad number '" + new String(text, start, end - start) + "'");
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static boolean parseBoolean(char[] text, int start, int end)
+    {
+        if (matches("true", text, start, end, true))
+            return true;
+        if (matches("false", text, start, end, true))
+            return false;
+        throw new IllegalArgumentException("bad completion flag '" + new String(text, start, end - start) + "'");
+    }
+
+    /**
+     * @return Whether the characters spell {@code word}.
+     */
+    private static boolean matches(String word, char[] text, int start, int end, boolean ignoreCase)
+    {
+        if (end - start != word.length())
+            return false;
+
+        for (int i = 0; i < word.length(); i++)
+        {
+            char c = ignoreCase ? Character.toLowerCase(text[start + i]) : text[start + i];
+            if (c != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * How a type of task lays out its serialization. A type is known to lay it out as {@link SimpleTask} or
+     * {@link DatelessTask} does only if it inherits both {@link AbstractTask#serialize()} and
+     * {@link AbstractTask#loadFromSerialization(String)} from that class; a subclass which overrides either is read and
+     * written through its own methods.
+     */
+    enum Layout
+    {
+        /**
+         * As a {@link SimpleTask}: the due date, then the fields of {@link Layout#DATELESS}.
+         */
+        DATED,
+        /**
+         * As a {@link DatelessTask}: the completion flag, tags, behavior type, behavior data and name.
+         */
+        DATELESS,
+        /**
+         * Unknown; the task serializes and loads itself.
+         */
+        OTHER;
+
+        /**
+         * The layout of each task type, worked out once per type.
+         */
+        private static final ClassValue<Layout> layouts = new ClassValue<Layout>()
+        {
+            @Override protected Layout computeValue(Class<?> taskClass)
+            {
+                return inherits(taskClass, DatelessTask.class) ? DATELESS :
+                        inherits(taskClass, SimpleTask.class) ? DATED : OTHER;
+            }
+        };
+
+        /**
+         * @param taskClass A task type.
+         * @return How that type lays out its serialization.
+         */
+        static Layout of(Class<? extends AbstractTask> taskClass)
+        {
+            return layouts.get(taskClass);
+        }
+
+        /**
+         * @return Whether {@code taskClass} serializes and loads itself with the methods of {@code known}.
+         */
+        private static boolean inherits(Class<?> taskClass, Class<?> known)
+        {
+            try
+            {
+                return taskClass.getMethod("serialize").getDeclaringClass() == known &&
+                        taskClass.getMethod("loadFromSerialization", String.class).getDeclaringClass() == known;
+            } catch (NoSuchMethodException e)
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A task type, with its constructor resolved.
+     */
+    static final class TaskType
+    {
+        private final String name;
+        private final Layout layout;
+        private final Constructor<? extends AbstractTask> constructor;
+
+        private TaskType(String name, Class<? extends AbstractTask> taskClass)
+        {
+            this.name = name;
+            this.layout = Layout.of(taskClass);
+            try
+            {
+                this.constructor = taskClass.getConstructor(String.class, Calendar.class, CompletionBehavior.class);
+            } catch (NoSuchMethodException e)
+            {
+                throw new IllegalArgumentException("task type '" + name + "' cannot be constructed", e);
+            }
+        }
+
+        /**
+         * @return A new task of this type, without a due date.
+         */
+        AbstractTask create(String name, CompletionBehavior behavior)
+        {
+            try
+            {
+                return constructor.newInstance(name, null, behavior);
+            } catch (ReflectiveOperationException e)
+            {
+                throw new IllegalArgumentException("task type '" + this.name + "' cannot be constructed", e);
+            }
+        }
+    }
+
+    /**
+     * A completion behavior, copied for each task which has it.
+     */
+    static final class Prototype
+    {
+        private final String name;
+        private final CompletionBehavior behavior;
+
+        private Prototype(String name, CompletionBehavior behavior)
+        {
+            this.name = name;
+            this.behavior = behavior;
+        }
+
+        /**
+         * @return A new copy of the behavior.
+         */
+        CompletionBehavior create()
+        {
+            return behavior.copy();
+        }
+    }
+
+    /**
+     * A line which could not be parsed.
+     */
+    private static final class Problem
+    {
+        private final int line;
+        private final RuntimeException cause;
+
+        private Problem(int line, RuntimeException cause)
+        {
+            this.line = line;
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * A part of a file read in parallel, which starts and ends at line separators.
+     */
+    private static final class Chunk extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        /**
+         * The reader parsing the chunk, which counts its lines and notes those which could not be parsed.
+         */
+        private final TaskFileReader reader;
+
+        /**
+         * The tasks of the chunk, in order.
+         */
+        private final List<AbstractTask> tasks = new ArrayList<>();
+
+        /**
+         * Why the chunk could not be read, if it could not.
+         */
+        private IOException failure;
+
+        private Chunk(FileChannel channel, long start, long end, TaskFileReader reader)
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.reader = reader;
+        }
+
+        @Override protected void compute()
+        {
+            try
+            {
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                CharBuffer chars = newDecoder().decode(bytes);
+                reader.scan(chars.array(), chars.arrayOffset() + chars.position(),
+                        chars.arrayOffset() + chars.limit(), true, tasks::add);
+            } catch (IOException e)
+            {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * A text task file being read a buffer at a time.
+     */
+    private final class TextSource implements TaskSource
+    {
+        private final File file;
+        private final FileChannel channel;
+        private final CharsetDecoder decoder = newDecoder();
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * The characters decoded and not yet parsed; it grows to hold lines longer than it.
+         */
+        private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * Whether the channel has been read to its end.
+         */
+        private boolean endOfInput = false;
+
+        /**
+         * Whether every character of the file has been parsed.
+         */
+        private boolean done = false;
+
+        private TextSource(File file) throws IOException
+        {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        @Override public boolean readBatch(Consumer<AbstractTask> sink) throws IOException
+        {
+            if (done)
+                return false;
+
+            if (!endOfInput && channel.read(bytes) < 0)
+                endOfInput = true;
+
+            bytes.flip();
+            done = !decoder.decode(bytes, chars, endOfInput).isOverflow() && endOfInput;
+            bytes.compact();
+
+            chars.flip();
+            int start = scan(chars.array(), chars.position(), chars.limit(), done, sink);
+            report(file, 0);
+            if (done)
+                return false;
+
+            chars.position(start);
+            chars.compact();
+            if (!chars.hasRemaining())
+            {
+                CharBuffer larger = CharBuffer.allocate(chars.capacity() * 2);
+                chars.flip();
+                larger.put(chars);
+                chars = larger;
+            }
+            return true;
+        }
+
+        @Override public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
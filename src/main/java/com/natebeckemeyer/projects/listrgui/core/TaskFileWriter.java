@@ -0,0 +1,245 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+import com.natebeckemeyer.projects.listrgui.reference.ProjectPaths;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-02.
+ * <p>
+ * Writes a task file, one {@link TaskRecord} at a time, in the format read by {@link FileParser}. Each record is
+ * encoded straight into a buffer, which is reused by every file written on the same thread, and the buffer is
+ * streamed to a temporary file beside the task file whenever it fills; so writing takes the same memory however many
+ * tasks there are. {@link TaskFileWriter#commit()} then replaces the task file with the temporary file in one step
+ * (see {@link ReplacementFile}), so that the task file always holds either the old tasks or the new, even if the
+ * application dies while saving. Closing a writer which was not committed leaves the task file as it was.
+ */
+final class TaskFileWriter implements Closeable
+{
+    /**
+     * The size of the buffer, in bytes.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The buffer of each thread, reused by every file it writes.
+     */
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(
+            () -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    /**
+     * The line separator, encoded.
+     */
+    private static final byte[] LINE_SEPARATOR = ProjectPaths.lineSeparator.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The temporary file written to, which replaces the task file when committed.
+     */
+    private final ReplacementFile file;
+
+    /**
+     * The channel to {@link TaskFileWriter#file}.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The bytes encoded and not yet written to the channel.
+     */
+    private final ByteBuffer buffer = buffers.get();
+
+    /**
+     * Encodes text which is not plain ASCII.
+     */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * The digits of a number being written, least significant last.
+     */
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Whether no record has been written yet.
+     */
+    private boolean first = true;
+
+    /**
+     * Starts writing a task file.
+     *
+     * @param target The task file to write.
+     * @throws IOException If the temporary file could not be created beside it.
+     */
+    TaskFileWriter(File target) throws IOException
+    {
+        this.file = new ReplacementFile(target);
+        this.channel = file.getChannel();
+        buffer.clear();
+    }
+
+    /**
+     * Writes a task as a line of the file: its type and identifier, then its serialization (see
+     * {@link TaskRecord#serialize()}).
+     *
+     * @param record The task to write.
+     * @throws IOException If the temporary file could not be written.
+     */
+    void write(TaskRecord record) throws IOException
+    {
+        if (!first)
+            put(LINE_SEPARATOR);
+        first = false;
+
+        put(record.getType());
+        put('@');
+        put(record.getId(), 1);
+        put('|');
+
+        if (record.getLayout() == TaskFileReader.Layout.OTHER)
+        {
+            put(record.serialize());
+            return;
+        }
+
+        if (record.getLayout() == TaskFileReader.Layout.DATED)
+        {
+            LocalDate date = LocalDate.ofEpochDay(record.getDueEpochDay());
+            put(date.getYear(), 4);
+            put('|');
+            put(date.getMonthValue() - 1, 2);
+            put('|');
+            put(date.getDayOfMonth(), 2);
+            put('|');
+        }
+
+        put(record.isCompleted() ? "true" : "false");
+        put('|');
+        Tag[] tags = record.getTagArray();
+        for (int i = 0; i < tags.length; i++)
+        {
+            if (i > 0)
+                put(' ');
+            put(tags[i].toString());
+        }
+
+        put('|');
+        put(record.getBehaviorType());
+        put('|');
+        String behaviorData = record.getBehaviorData();
+        put(behaviorData == null || behaviorData.isEmpty() ? " " : behaviorData);
+        put('|');
+        put(String.valueOf(record.getName()));
+    }
+
+    /**
+     * Finishes the file: writes what remains of the buffer, forces the temporary file to the disk, and moves it over
+     * the task file, atomically where the file system allows.
+     *
+     * @throws IOException If the file could not be finished; the task file is then unchanged.
+     */
+    void commit() throws IOException
+    {
+        drain();
+        file.commit();
+    }
+
+    /**
+     * Abandons the file if it was not committed, deleting the temporary file.
+     */
+    @Override public void close() throws IOException
+    {
+        file.close();
+    }
+
+    private void put(char ascii) throws IOException
+    {
+        if (!buffer.hasRemaining())
+            drain();
+        buffer.put((byte) ascii);
+    }
+
+    private void put(byte[] bytes) throws IOException
+    {
+        for (byte b : bytes)
+        {
+            if (!buffer.hasRemaining())
+                drain();
+            buffer.put(b);
+        }
+    }
+
+    /**
+     * Writes a number in decimal.
+     *
+     * @param value The number.
+     * @param width The least number of characters to write, padding with zeros after any sign.
+     */
+    private void put(long value, int width) throws IOException
+    {
+        if (value < 0)
+        {
+            put('-');
+            value = -value;
+            width--;
+        }
+
+        int start = digits.length;
+        do
+        {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        for (int i = digits.length - start; i < width; i++)
+            put('0');
+        for (int i = start; i < digits.length; i++)
+            put((char) digits[i]);
+    }
+
+    /**
+     * Writes text in UTF-8, copying plain ASCII straight into the buffer.
+     */
+    private void put(String text) throws IOException
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c >= 0x80)
+            {
+                encode(CharBuffer.wrap(text, i, text.length()));
+                return;
+            }
+            put(c);
+        }
+    }
+
+    private void encode(CharBuffer text) throws IOException
+    {
+        encoder.reset();
+        while (encoder.encode(text, buffer, true).isOverflow())
+            drain();
+        while (encoder.flush(buffer).isOverflow())
+            drain();
+    }
+
+    /**
+     * Writes the buffer to the channel and empties it.
+     */
+    private void drain() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,541 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-20.
+ * <p>
+ * This class maintains the secondary indexes over the tasks that {@link Listr} is currently handling (by tag and by
+ * due date), so that rules which can be answered by a lookup do not need to test every task. It is kept up to date by
+ * {@link Listr} whenever a task is added or removed, and by the mutators of {@link AbstractTask} whenever an indexed
+ * task changes.
+ * <p>
+ * The tasks themselves, and the primitive columns that the indexes are built from, are held by a {@link TaskStore};
+ * every set of tasks in the index is a {@link CompressedBitmap} of the tasks' slots in that store.
+ * <p>
+ * The index also keeps every slot in order, in the order of {@link AbstractTask#compareTo} (see {@link SortedSlots}).
+ * A change to a field of that order (the completion flag, the due date or the name) moves only the changed task within
+ * it, and the results of a query can be read off in order without sorting them.
+ * <p>
+ * The index is guarded by a {@link StampedLock}: any number of threads may read it at once through
+ * {@link TaskIndex#read(Supplier)}, and {@link Listr} serializes every change to it through
+ * {@link TaskIndex#write(Supplier)}. Small reads, such as the size of a view, are tried optimistically without
+ * taking the lock at all.
+ * <p>
+ * Alongside the indexes, the index keeps an immutable {@link TaskRecord} of every task by slot, in a persistent
+ * {@link TaskVector}. Each change records the tasks it touched anew, and on releasing the write lock the index
+ * publishes the records as a new {@link TaskSnapshot}, which readers take without locking.
+ */
+final class TaskIndex
+{
+    /**
+     * The columnar store of the indexed tasks.
+     */
+    private final TaskStore store = new TaskStore();
+
+    /**
+     * The mapping from each tag to the slots of the tasks which currently contain it (the tag's posting list).
+     */
+    private final Map<Tag, CompressedBitmap> postings = new HashMap<>();
+
+    /**
+     * The slots of the tasks that have a due date, bucketed by their due day (in days since the epoch) and sorted
+     * by it.
+     */
+    private final TreeMap<Integer, CompressedBitmap> dueDays = new TreeMap<>();
+
+    /**
+     * The slots of the tasks that have no due date, kept apart so that they never fall inside a due-date range.
+     */
+    private final CompressedBitmap dateless = new CompressedBitmap();
+
+    /**
+     * The slots of all of the indexed tasks, in the order of {@link AbstractTask#compareTo} (see
+     * {@link TaskStore#compareSlots(int, int)}). A slot must be taken out of the order before any field that it is
+     * ordered by changes in the store, and put back afterward.
+     */
+    private final SortedSlots sorted = new SortedSlots(store);
+
+    /**
+     * The record of each indexed task, by slot; null where a slot is free.
+     */
+    private TaskVector<TaskRecord> records = TaskVector.empty();
+
+    /**
+     * The latest snapshot of {@link TaskIndex#records}, published whenever the write lock is released.
+     */
+    private volatile TaskSnapshot snapshot = TaskSnapshot.EMPTY;
+
+    /**
+     * Guards every structure of the index, including the store.
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * The thread holding the write lock, or null.
+     */
+    private volatile Thread writer;
+
+    /**
+     * Runs {@code reader} while holding the read lock, which any number of threads may hold at once. A thread which
+     * holds the write lock reads without taking the read lock.
+     *
+     * @param reader The action which reads the index.
+     * @return The value returned by {@code reader}.
+     */
+    <T> T read(Supplier<T> reader)
+    {
+        if (isWriting())
+            return reader.get();
+
+        long stamp = lock.readLock();
+        try
+        {
+            return reader.get();
+        } finally
+        {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs {@code reader} without taking a lock, and runs it again under the read lock if the index was changed
+     * while it ran. The reader must therefore be cheap and free of side effects, and must tolerate seeing the index
+     * half-changed (any exception it throws in that case is discarded).
+     *
+     * @param reader The action which reads the index.
+     * @return The value returned by {@code reader} on a consistent index.
+     */
+    int readOptimistically(IntSupplier reader)
+    {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0)
+        {
+            try
+            {
+                int value = reader.getAsInt();
+                if (lock.validate(stamp))
+                    return value;
+            } catch (RuntimeException e)
+            {
+                if (lock.validate(stamp))
+                    throw e;
+            }
+        }
+
+        return read(reader::getAsInt);
+    }
+
+    /**
+     * Runs {@code action} while holding the write lock, which excludes all other readers and writers, and then
+     * publishes a new snapshot if any task changed. A thread which already holds the write lock may write again, in
+     * which case the snapshot is published when the outermost write ends.
+     *
+     * @param action The action which changes the index.
+     * @return The value returned by {@code action}.
+     */
+    <T> T write(Supplier<T> action)
+    {
+        if (isWriting())
+            return action.get();
+
+        long stamp = lock.writeLock();
+        writer = Thread.currentThread();
+        try
+        {
+            return action.get();
+        } finally
+        {
+            if (records != snapshot.getRecords())
+                snapshot = new TaskSnapshot(records, store.size(), snapshot.getVersion() + 1);
+            writer = null;
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Whether the current thread holds the write lock.
+     */
+    boolean isWriting()
+    {
+        return writer == Thread.currentThread();
+    }
+
+    /**
+     * @return The latest published snapshot of the indexed tasks. No lock is needed.
+     */
+    TaskSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * @param task The task to check.
+     * @return Whether {@code task} is covered by this index.
+     */
+    boolean isIndexed(AbstractTask task)
+    {
+        return store.contains(task);
+    }
+
+    /**
+     * @param id The identifier of a task.
+     * @return The indexed task with that identifier, or null if there is none.
+     */
+    AbstractTask getById(long id)
+    {
+        return store.findById(id);
+    }
+
+    /**
+     * @return The number of tasks covered by this index.
+     */
+    int size()
+    {
+        return store.size();
+    }
+
+    /**
+     * @return The slots of every task covered by this index. The bitmap must not be modified.
+     */
+    CompressedBitmap getAll()
+    {
+        return store.getLiveSlots();
+    }
+
+    /**
+     * @return The columnar store of the indexed tasks.
+     */
+    TaskStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Returns the tasks in some slots in the order of {@link AbstractTask#compareTo}. Large sets of slots are read off
+     * the order of all slots; small ones are sorted by themselves.
+     *
+     * @param slots The slots of indexed tasks.
+     * @return The tasks in those slots, in order.
+     */
+    List<AbstractTask> getSortedTasks(CompressedBitmap slots)
+    {
+        int count = slots.cardinality();
+        List<AbstractTask> result = new ArrayList<>(count);
+        if (count == 0)
+            return result;
+
+        // Walking the order costs a bitmap probe per indexed task; sorting costs about count * log(count)
+        // comparisons of the columns, each several times dearer than a probe.
+        int log = 32 - Integer.numberOfLeadingZeros(count);
+        if ((long) count * log * 4 >= sorted.size())
+        {
+            for (PrimitiveIterator.OfInt iterator = sorted.iterator(); iterator.hasNext(); )
+            {
+                int slot = iterator.nextInt();
+                if (slots.contains(slot))
+                    result.add(store.getTask(slot));
+            }
+            return result;
+        }
+
+        int[] ordered = slots.toArray();
+        sorted.sort(ordered);
+        for (int slot : ordered)
+            result.add(store.getTask(slot));
+        return result;
+    }
+
+    /**
+     * Returns the tasks in some slots in the order given, sorted by primitive keys (see {@link TaskSorter}).
+     *
+     * @param slots The slots of indexed tasks.
+     * @param order The order of the tasks, or null for the order of {@link AbstractTask#compareTo}.
+     * @return The tasks in those slots, in order.
+     */
+    List<AbstractTask> getSortedTasks(CompressedBitmap slots, TaskOrder order)
+    {
+        if (order == null)
+            return getSortedTasks(slots);
+
+        int[] ordered = new int[slots.cardinality()];
+        int[] size = {0};
+        slots.forEach(slot -> ordered[size[0]++] = slot);
+        TaskSorter.sort(store, ordered, order);
+
+        List<AbstractTask> result = new ArrayList<>(ordered.length);
+        for (int slot : ordered)
+            result.add(store.getTask(slot));
+        return result;
+    }
+
+    /**
+     * @return The slots of all of the indexed tasks, in the order of {@link AbstractTask#compareTo}. The order must
+     * not be modified.
+     */
+    SortedSlots getSortedSlots()
+    {
+        return sorted;
+    }
+
+    /**
+     * Places {@code task}, its due date and all of its tags into the index.
+     *
+     * @param task The task to index.
+     * @return Whether the task was not already indexed.
+     */
+    boolean add(AbstractTask task)
+    {
+        if (!insert(task, true))
+            return false;
+
+        records = records.set(task.slot, TaskRecord.of(task));
+        return true;
+    }
+
+    /**
+     * Places many tasks into the index. When they are many compared to the tasks already indexed, the records and
+     * the order of the slots are rebuilt in one pass rather than one task at a time.
+     *
+     * @param tasks The tasks to index.
+     * @return The number of tasks which were not already indexed.
+     */
+    int addAll(Collection<? extends AbstractTask> tasks)
+    {
+        if (tasks.size() < (store.size() >> 3) + TaskVector.leafWidth())
+        {
+            int added = 0;
+            for (AbstractTask task : tasks)
+                if (add(task))
+                    added++;
+            return added;
+        }
+
+        int added = 0;
+        for (AbstractTask task : tasks)
+            if (insert(task, false))
+                added++;
+        sorted.rebuild(store.getLiveSlots().toArray());
+
+        TaskRecord[] rebuilt = new TaskRecord[store.getSlotCount()];
+        store.getLiveSlots().forEach(slot -> {
+            TaskRecord existing = slot < records.length() ? records.get(slot) : null;
+            AbstractTask task = store.getTask(slot);
+            rebuilt[slot] = existing != null && existing.getTask() == task ? existing : TaskRecord.of(task);
+        });
+        records = TaskVector.of(rebuilt, rebuilt.length);
+        return added;
+    }
+
+    /**
+     * Records the current fields of an indexed task, for the next snapshot.
+     *
+     * @param task The task which changed. Tasks which are not indexed are ignored.
+     */
+    void record(AbstractTask task)
+    {
+        if (store.contains(task))
+            records = records.set(task.slot, TaskRecord.of(task));
+    }
+
+    /**
+     * Removes {@code task}, its due date and all of its tags from the index.
+     *
+     * @param task The task to remove.
+     */
+    void remove(AbstractTask task)
+    {
+        if (!store.contains(task))
+            return;
+
+        int slot = task.slot;
+        unschedule(slot, store.getDueDay(slot));
+        for (Tag tag : task.tags)
+            unpost(slot, tag);
+        sorted.remove(slot);
+        store.remove(task);
+        records = records.set(slot, null);
+    }
+
+    /**
+     * Removes every task from the index.
+     */
+    void clear()
+    {
+        store.clear();
+        records = TaskVector.empty();
+        sorted.clear();
+        postings.clear();
+        dueDays.clear();
+        dateless.clear();
+    }
+
+    /**
+     * Compacts the bitmaps of the index. This is worth calling after a bulk load.
+     */
+    void optimize()
+    {
+        store.getLiveSlots().runOptimize();
+        dateless.runOptimize();
+        postings.values().forEach(CompressedBitmap::runOptimize);
+        dueDays.values().forEach(CompressedBitmap::runOptimize);
+    }
+
+    /**
+     * Moves an indexed task to the bucket of its current due date.
+     *
+     * @param task The task whose due date changed.
+     */
+    void redate(AbstractTask task)
+    {
+        if (!store.contains(task))
+            return;
+
+        int slot = task.slot;
+        int previous = store.getDueDay(slot);
+        int day = task.getDueEpochDay();
+        if (day != previous)
+        {
+            unschedule(slot, previous);
+            sorted.remove(slot);
+            store.setDueDay(slot, day);
+            sorted.add(slot);
+            schedule(slot, day);
+        }
+        record(task);
+    }
+
+    /**
+     * Updates the posting lists after the tags of an indexed task have changed.
+     *
+     * @param task    The task whose tags changed.
+     * @param removed The tags that the task no longer contains.
+     * @param added   The tags that the task now contains.
+     */
+    void retag(AbstractTask task, Collection<Tag> removed, Collection<Tag> added)
+    {
+        if (!store.contains(task))
+            return;
+
+        for (Tag tag : removed)
+            unpost(task.slot, tag);
+        for (Tag tag : added)
+            post(task.slot, tag);
+        record(task);
+    }
+
+    /**
+     * Records the current completion flag of an indexed task.
+     *
+     * @param task The task whose completion flag changed.
+     */
+    void recomplete(AbstractTask task)
+    {
+        if (store.contains(task) && store.isCompleted(task.slot) != task.isCompleted())
+        {
+            sorted.remove(task.slot);
+            store.setCompleted(task.slot, task.isCompleted());
+            sorted.add(task.slot);
+        }
+        record(task);
+    }
+
+    /**
+     * Records the current name of an indexed task.
+     *
+     * @param task The task whose name changed.
+     */
+    void rename(AbstractTask task)
+    {
+        if (store.contains(task))
+        {
+            sorted.remove(task.slot);
+            store.updateName(task.slot);
+            sorted.add(task.slot);
+        }
+        record(task);
+    }
+
+    /**
+     * @param tag The tag whose tasks to return.
+     * @return The slots of the tasks containing {@code tag}. The bitmap must not be modified.
+     */
+    CompressedBitmap getPostings(Tag tag)
+    {
+        CompressedBitmap posting = postings.get(tag);
+        return posting == null ? new CompressedBitmap() : posting;
+    }
+
+    /**
+     * Returns the tasks due within an inclusive range of days. Tasks without a due date are never included.
+     *
+     * @param earliest The first day of the range (in days since the epoch).
+     * @param latest   The last day of the range (in days since the epoch).
+     * @return The slots of the tasks due within the range.
+     */
+    CompressedBitmap getDueBetween(int earliest, int latest)
+    {
+        if (earliest > latest)
+            return new CompressedBitmap();
+
+        return CompressedBitmap.or(dueDays.subMap(earliest, true, latest, true).values());
+    }
+
+    /**
+     * Places a task into the store and the indexes, without recording it.
+     *
+     * @param order Whether to add the task's slot to the order of the slots; if not, the order must be rebuilt.
+     * @return Whether the task was not already indexed.
+     */
+    private boolean insert(AbstractTask task, boolean order)
+    {
+        if (store.contains(task))
+            return false;
+
+        int slot = store.add(task);
+        if (order)
+            sorted.add(slot);
+        schedule(slot, store.getDueDay(slot));
+        for (Tag tag : task.tags)
+            post(slot, tag);
+        return true;
+    }
+
+    private void schedule(int slot, int day)
+    {
+        if (day == AbstractTask.NO_DUE_DATE)
+            dateless.add(slot);
+        else
+            dueDays.computeIfAbsent(day, key -> new CompressedBitmap()).add(slot);
+    }
+
+    private void unschedule(int slot, int day)
+    {
+        if (day == AbstractTask.NO_DUE_DATE)
+        {
+            dateless.remove(slot);
+            return;
+        }
+
+        CompressedBitmap bucket = dueDays.get(day);
+        if (bucket != null && bucket.remove(slot) && bucket.isEmpty())
+            dueDays.remove(day);
+    }
+
+    private void post(int slot, Tag tag)
+    {
+        postings.computeIfAbsent(tag, key -> new CompressedBitmap()).add(slot);
+    }
+
+    private void unpost(int slot, Tag tag)
+    {
+        CompressedBitmap posting = postings.get(tag);
+        if (posting != null && posting.remove(slot) && posting.isEmpty())
+            postings.remove(tag);
+    }
+}
@@ -0,0 +1,456 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-01.
+ * <p>
+ * The journal of the changes made to the tasks since the task file was last written in full. Rather than rewriting
+ * the whole file after each change, {@link FileParser#defaultSave} appends the changes to a journal kept beside it
+ * (see {@link TaskJournal#fileFor(File)}), so that saving a change costs about as much as the change itself. Once the
+ * journal grows past the size of the task file, the next save folds it in by writing the file in full and deleting
+ * the journal; as that happens on the background thread of {@link TaskSaver}, the cost of rewriting the file is both
+ * spread over many changes and kept off the thread making them. Loading a task file replays its journal on top, as
+ * does streaming one (see {@link TaskJournal.Replay}).
+ * <p>
+ * Each line of the journal records one change, by the identifier of the task changed:
+ * <pre>
+ *  A SimpleTask@42|...   the task was added, or replaced, as it would be written in the task file
+ *  R 42                  the task was removed
+ *  C 42 true             the task's completion flag was set
+ *  T 42 work home        the task's tags were set
+ *  N 42 Buy milk         the task was renamed
+ *  D 42 17000            the task's due date was set, in days since the epoch
+ *  B 42 SimpleCompleted| the task's completion behavior was replaced, with its serialization after the pipe
+ * </pre>
+ * Every change records the new value rather than the difference, so that replaying changes which the task file
+ * already holds does no harm. Lines which cannot be replayed, such as one cut short by a crash, are reported and
+ * skipped.
+ */
+final class TaskJournal
+{
+    /**
+     * The size, in bytes, that the journal may always reach before it is folded into the task file, however small the
+     * file.
+     */
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    /**
+     * The changes made since the journal was last written to, in order.
+     */
+    private final List<String> pending = new ArrayList<>();
+
+    /**
+     * Whether the tasks were replaced wholesale since the journal was last written to, so that the task file must be
+     * written in full.
+     */
+    private boolean reset = false;
+
+    /**
+     * @param taskFile A task file.
+     * @return The journal of the changes made to the tasks of that file since it was written.
+     */
+    static File fileFor(File taskFile)
+    {
+        return new File(taskFile.getPath() + ".journal");
+    }
+
+    /**
+     * @param task A task which was added, or which replaced another.
+     */
+    void added(AbstractTask task)
+    {
+        log("A " + TaskRecord.of(task));
+    }
+
+    /**
+     * @param task A task which was removed.
+     */
+    void removed(AbstractTask task)
+    {
+        log("R " + task.id);
+    }
+
+    /**
+     * @param task A task whose completion flag was set.
+     */
+    void recompleted(AbstractTask task)
+    {
+        log("C " + task.id + " " + task.completed);
+    }
+
+    /**
+     * @param task A task whose tags were set.
+     */
+    void retagged(AbstractTask task)
+    {
+        StringBuilder entry = new StringBuilder("T ").append(task.id);
+        for (Tag tag : task.tags)
+            entry.append(' ').append(tag);
+        log(entry.toString());
+    }
+
+    /**
+     * @param task A task which was renamed.
+     */
+    void renamed(AbstractTask task)
+    {
+        log("N " + task.id + " " + task.name);
+    }
+
+    /**
+     * @param task A task whose due date was set.
+     */
+    void redated(AbstractTask task)
+    {
+        log("D " + task.id + " " + task.dueDay);
+    }
+
+    /**
+     * @param task A task whose completion behavior was replaced.
+     */
+    void reassigned(AbstractTask task)
+    {
+        String data = task.onComplete.convertToString();
+        log("B " + task.id + " " + task.onComplete.getClass().getSimpleName() + "|" + (data == null ? "" : data));
+    }
+
+    /**
+     * Notes that the tasks were replaced wholesale, so that the changes made before no longer matter, and the next save
+     * must write the task file in full.
+     */
+    synchronized void reset()
+    {
+        pending.clear();
+        reset = true;
+    }
+
+    private synchronized void log(String entry)
+    {
+        pending.add(entry);
+    }
+
+    /**
+     * Takes the changes made since the journal was last written to. The caller must hold a lock of the index, so that
+     * {@code snapshot} includes exactly the changes taken.
+     *
+     * @param snapshot The snapshot of the tasks including the changes.
+     * @return The changes, to be saved.
+     */
+    synchronized Changes drain(TaskSnapshot snapshot)
+    {
+        Changes changes = new Changes(snapshot, new ArrayList<>(pending), reset);
+        pending.clear();
+        reset = false;
+        return changes;
+    }
+
+    /**
+     * Appends changes to the journal of a task file, and forces them to the disk. If the journal ends with a line cut
+     * short by a crash, the changes start on a new line, so that only the cut line is lost.
+     *
+     * @param taskFile The task file.
+     * @param changes  The changes to append.
+     * @return Whether the journal has grown enough that it should be folded into the task file.
+     * @throws IOException If the journal could not be written.
+     */
+    static boolean append(File taskFile, Changes changes) throws IOException
+    {
+        File journal = fileFor(taskFile);
+        boolean cut = false;
+        if (journal.length() > 0)
+            try (RandomAccessFile last = new RandomAccessFile(journal, "r"))
+            {
+                last.seek(journal.length() - 1);
+                cut = last.read() != '\n';
+            }
+
+        try (FileOutputStream output = new FileOutputStream(journal, true))
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            if (cut)
+                writer.write('\n');
+            for (String entry : changes.entries)
+                writer.write(entry + "\n");
+            writer.flush();
+            output.getFD().sync();
+        }
+        return journal.length() > Math.max(MIN_COMPACTION_SIZE, taskFile.length());
+    }
+
+    /**
+     * Replays the journal of a task file, if it has one, on top of the tasks read from the file.
+     *
+     * @param taskFile The task file.
+     * @param tasks    The tasks read from the file, in order.
+     * @return The tasks as changed by the journal, in the same order, with added tasks at the end.
+     */
+    static LinkedList<AbstractTask> replay(File taskFile, List<AbstractTask> tasks)
+    {
+        Replay replay = Replay.of(taskFile);
+        LinkedList<AbstractTask> result = new LinkedList<>();
+        for (AbstractTask task : tasks)
+        {
+            AbstractTask changed = replay.apply(task);
+            if (changed != null)
+                result.add(changed);
+        }
+        replay.forEachAdded(result::add);
+        return result;
+    }
+
+    /**
+     * @param entry A line of the journal.
+     * @return The identifier of the task which the line changes.
+     */
+    private static long idOf(String entry)
+    {
+        if (entry.charAt(0) == 'A')
+        {
+            int headerEnd = entry.indexOf('|');
+            int at = headerEnd < 0 ? -1 : entry.lastIndexOf('@', headerEnd);
+            if (at < 0)
+                throw new IllegalArgumentException("no identifier");
+            return Long.parseLong(entry.substring(at + 1, headerEnd));
+        }
+
+        int idEnd = entry.indexOf(' ', 2);
+        return Long.parseLong(idEnd < 0 ? entry.substring(2) : entry.substring(2, idEnd));
+    }
+
+    /**
+     * Replays one change.
+     *
+     * @param entry  A line of the journal.
+     * @param parser Reads the tasks added.
+     * @param task   The task it changes, or null if there is none (yet).
+     * @return The task as changed; the task added, for a task which was added or replaced; or null, for a task which
+     * was removed.
+     */
+    private static AbstractTask replay(String entry, TaskFileReader parser, AbstractTask task)
+    {
+        if (entry.charAt(0) == 'A')
+            return parser.parse(entry.substring(2));
+        if (entry.charAt(0) == 'R')
+            return null;
+
+        int idEnd = entry.indexOf(' ', 2);
+        String value = idEnd < 0 ? "" : entry.substring(idEnd + 1);
+        if (task == null)
+            throw new NoSuchElementException("no task " + idOf(entry));
+
+        switch (entry.charAt(0))
+        {
+            case 'C':
+                if (!value.equals("true") && !value.equals("false"))
+                    throw new IllegalArgumentException("bad completion flag '" + value + "'");
+                task.completed = value.equals("true");
+                break;
+            case 'T':
+                List<Tag> tags = new ArrayList<>();
+                for (String tag : value.split(" "))
+                    if (!tag.isEmpty())
+                        tags.add(Tag.getTag(tag));
+                task.setTags(tags);
+                break;
+            case 'N':
+                task.name = value;
+                break;
+            case 'D':
+                task.dueDay = Integer.parseInt(value);
+                break;
+            case 'B':
+                int separator = value.indexOf('|');
+                CompletionBehavior behavior = Listr.getCompletionBehavior(value.substring(0, separator));
+                behavior.loadFromString(value.substring(separator + 1));
+                task.onComplete = behavior;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown change '" + entry.charAt(0) + "'");
+        }
+        return task;
+    }
+
+    /**
+     * The journal of a task file, read into memory with its changes grouped by the task which they change, so that it
+     * can be replayed on the tasks of the file one at a time as they are read (see {@link TaskStream}). As every
+     * change names the one task it changes, replaying the changes of each task in order gives the same tasks as
+     * replaying the whole journal in order. Tasks which the file does not hold, but the journal adds, come last.
+     */
+    static final class Replay
+    {
+        /**
+         * The journal read.
+         */
+        private final File journal;
+
+        /**
+         * Reads the tasks added.
+         */
+        private final TaskFileReader parser = new TaskFileReader();
+
+        /**
+         * The lines of the journal not yet replayed, by the identifier of the task which they
+         * change, in the order in which each task first appears in the journal.
+         */
+        private final Map<Long, List<Line>> changes = new LinkedHashMap<>();
+
+        private Replay(File journal)
+        {
+            this.journal = journal;
+        }
+
+        /**
+         * Reads the journal of a task file. A journal which cannot be read is reported, and replays nothing.
+         *
+         * @param taskFile The task file.
+         * @return The replay of its journal, which changes nothing if it has none.
+         */
+        static Replay of(File taskFile)
+        {
+            Replay replay = new Replay(fileFor(taskFile));
+            if (!replay.journal.exists())
+                return replay;
+
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(replay.journal), StandardCharsets.UTF_8)))
+            {
+                int number = 0;
+                for (String entry; (entry = reader.readLine()) != null; )
+                {
+                    number++;
+                    if (entry.isEmpty())
+                        continue;
+
+                    try
+                    {
+                        replay.changes.computeIfAbsent(idOf(entry), id -> new ArrayList<>())
+                                .add(new Line(number, entry));
+                    } catch (RuntimeException e)
+                    {
+                        replay.skip(number, e);
+                    }
+                }
+            } catch (IOException e)
+            {
+                System.err.printf("Could not read %s; its changes were not loaded: %s%n", replay.journal,
+                        e.getMessage());
+                replay.changes.clear();
+            }
+            return replay;
+        }
+
+        /**
+         * Replays the changes of one task of the file.
+         *
+         * @param task A task read from the file.
+         * @return The task as changed by the journal, the task which replaced it, or null if it was removed.
+         */
+        AbstractTask apply(AbstractTask task)
+        {
+            List<Line> taskChanges = changes.remove(task.id);
+            return taskChanges == null ? task : replay(task, taskChanges);
+        }
+
+        /**
+         * Replays the changes of the tasks which the file does not hold, and passes on those which the journal
+         * added; this is to be done once every task of the file has been applied.
+         *
+         * @param sink Receives each task added, in the order in which they first appear in the journal.
+         */
+        void forEachAdded(Consumer<AbstractTask> sink)
+        {
+            for (List<Line> taskChanges : changes.values())
+            {
+                AbstractTask task = replay(null, taskChanges);
+                if (task != null)
+                    sink.accept(task);
+            }
+            changes.clear();
+        }
+
+        private AbstractTask replay(AbstractTask task, List<Line> taskChanges)
+        {
+            for (Line line : taskChanges)
+            {
+                try
+                {
+                    task = TaskJournal.replay(line.entry, parser, task);
+                } catch (RuntimeException e)
+                {
+                    skip(line.number, e);
+                }
+            }
+            return task;
+        }
+
+        private void skip(int number, RuntimeException cause)
+        {
+            System.err.printf("Skipping line %d of %s, which could not be replayed: %s%n", number, journal, cause);
+        }
+    }
+
+    /**
+     * A line of a journal, with its number.
+     */
+    private static final class Line
+    {
+        private final int number;
+        private final String entry;
+
+        private Line(int number, String entry)
+        {
+            this.number = number;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * The changes taken from the journal to be saved, with the snapshot that includes them.
+     */
+    static final class Changes
+    {
+        /**
+         * The snapshot of the tasks including the changes.
+         */
+        private final TaskSnapshot snapshot;
+
+        /**
+         * The lines recording the changes, in order.
+         */
+        private final List<String> entries;
+
+        /**
+         * Whether the task file must be written in full.
+         */
+        private final boolean reset;
+
+        private Changes(TaskSnapshot snapshot, List<String> entries, boolean reset)
+        {
+            this.snapshot = snapshot;
+            this.entries = entries;
+            this.reset = reset;
+        }
+
+        /**
+         * @return The snapshot of the tasks including the changes.
+         */
+        TaskSnapshot getSnapshot()
+        {
+            return snapshot;
+        }
+
+        /**
+         * @return Whether the task file must be written in full, rather than the changes appended to its journal.
+         */
+        boolean isReset()
+        {
+            return reset;
+        }
+    }
+}
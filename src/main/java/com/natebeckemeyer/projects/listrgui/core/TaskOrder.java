@@ -0,0 +1,167 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-30.
+ * <p>
+ * An ordering of tasks by several columns, each ascending or descending, such as the sort order chosen in the task
+ * table. Ties in every column are left in the order in which Listr holds the tasks.
+ * <p>
+ * An order is a comparator, but {@link Listr#getTasksMatchingRule(Rule, TaskOrder)} and
+ * {@link TaskView#getTasks(TaskOrder)} do not compare tasks with it: they turn each task's columns into primitive
+ * sort keys (the completion flag and due date packed into a {@code long}, the name into its rank among the
+ * {@link Collator collation keys} of the names) and radix sort the keys, so that sorting is linear in the number of
+ * tasks.
+ */
+public final class TaskOrder implements Comparator<AbstractTask>
+{
+    /**
+     * The columns by which tasks can be ordered.
+     */
+    public enum Column
+    {
+        /**
+         * Uncompleted tasks before completed ones, when ascending.
+         */
+        COMPLETION,
+        /**
+         * Tasks without a due date first, then earlier due dates first, when ascending.
+         */
+        DUE_DATE,
+        /**
+         * Names in the order of the default locale's {@link Collator}.
+         */
+        NAME,
+        /**
+         * Fewer tags first, when ascending.
+         */
+        TAG_COUNT
+    }
+
+    /**
+     * Collators for comparing names, one per thread, as collators are not safe to share between threads.
+     */
+    private static final ThreadLocal<Collator> collators = ThreadLocal.withInitial(Collator::getInstance);
+
+    /**
+     * The columns, most significant first.
+     */
+    private final List<Column> columns;
+
+    /**
+     * Whether each column is ascending, parallel to {@link TaskOrder#columns}.
+     */
+    private final List<Boolean> ascending;
+
+    private TaskOrder(List<Column> columns, List<Boolean> ascending)
+    {
+        this.columns = Collections.unmodifiableList(columns);
+        this.ascending = Collections.unmodifiableList(ascending);
+    }
+
+    /**
+     * @param column    The most significant column of the order.
+     * @param ascending Whether the column is ascending.
+     * @return An order by that column alone.
+     */
+    public static TaskOrder by(Column column, boolean ascending)
+    {
+        return new TaskOrder(new ArrayList<>(), new ArrayList<>()).then(column, ascending);
+    }
+
+    /**
+     * @param column    The column to break the ties of this order.
+     * @param ascending Whether the column is ascending.
+     * @return A new order, by the columns of this one and then by {@code column}.
+     */
+    public TaskOrder then(Column column, boolean ascending)
+    {
+        List<Column> columns = new ArrayList<>(this.columns);
+        List<Boolean> directions = new ArrayList<>(this.ascending);
+        columns.add(column);
+        directions.add(ascending);
+        return new TaskOrder(columns, directions);
+    }
+
+    /**
+     * @return The columns of this order, most significant first.
+     */
+    public List<Column> getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * @param position The position of a column in {@link TaskOrder#getColumns()}.
+     * @return Whether that column is ascending.
+     */
+    public boolean isAscending(int position)
+    {
+        return ascending.get(position);
+    }
+
+    /**
+     * Compares two tasks column by column. This is for ordering a few tasks; {@link Listr} sorts many by keys.
+     */
+    @Override public int compare(AbstractTask first, AbstractTask second)
+    {
+        for (int i = 0; i < columns.size(); i++)
+        {
+            int result;
+            switch (columns.get(i))
+            {
+                case COMPLETION:
+                    result = Boolean.compare(first.isCompleted(), second.isCompleted());
+                    break;
+                case DUE_DATE:
+                    result = Integer.compare(first.getDueEpochDay(), second.getDueEpochDay());
+                    break;
+                case NAME:
+                    result = compareNames(first.getName(), second.getName());
+                    break;
+                case TAG_COUNT:
+                    result = Integer.compare(first.tags.length, second.tags.length);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown column " + columns.get(i));
+            }
+
+            if (result != 0)
+                return ascending.get(i) ? result : -result;
+        }
+        return 0;
+    }
+
+    /**
+     * @return A collator for names, for use by the current thread only.
+     */
+    static Collator getCollator()
+    {
+        return collators.get();
+    }
+
+    private static int compareNames(String first, String second)
+    {
+        if (first == null || second == null)
+            return first == second ? 0 : first == null ? -1 : 1;
+
+        return getCollator().compare(first, second);
+    }
+
+    @Override public String toString()
+    {
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++)
+        {
+            if (i > 0)
+                order.append(", ");
+            order.append(columns.get(i)).append(ascending.get(i) ? " ascending" : " descending");
+        }
+        return order.toString();
+    }
+}
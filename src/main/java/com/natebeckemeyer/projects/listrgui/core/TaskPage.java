@@ -0,0 +1,277 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-27.
+ * <p>
+ * One page of the tasks matching a rule, in the order of a comparator, as returned by
+ * {@link Listr#getTasksMatchingRule(Rule, Comparator, int, int)} and {@link TaskView#getPage(Comparator, int, int)}.
+ * <p>
+ * Only the tasks on the page are ever sorted: the matches are passed through a heap bounded by the end of the page,
+ * so a page of 50 out of half a million matches keeps 50 tasks, not half a million. The first page in the natural
+ * order of the tasks is not sorted at all when the matches are dense, but read off the index's sorted order.
+ * <p>
+ * The page also serves as a cursor: {@link TaskPage#next()} fetches the following page lazily, by seeking past the
+ * last task of this page (ties in the comparator are broken by the order in which Listr holds the tasks), so that
+ * tasks added or removed in the meantime neither repeat nor skip a task that was already due to come later. The page
+ * seeks past a copy of its last task taken when it was fetched, not the task itself: were the task edited or removed
+ * in the meantime, seeking past its new fields would skip or repeat the tasks between its old and new place.
+ */
+public final class TaskPage
+{
+    /**
+     * The tasks on this page, in order.
+     */
+    private final List<AbstractTask> tasks;
+
+    /**
+     * The number of matches at the time this page was fetched.
+     */
+    private final int matchCount;
+
+    /**
+     * Whether there were matches beyond this page when it was fetched.
+     */
+    private final boolean hasNext;
+
+    /**
+     * A copy of the last task on this page as it was when the page was fetched, which the next page starts after; or
+     * null if the page is empty.
+     */
+    private final AbstractTask last;
+
+    /**
+     * The slot of the last task on this page, to break ties in the comparator when seeking the next page.
+     */
+    private final int lastSlot;
+
+    /**
+     * The order of the pages.
+     */
+    private final Comparator<? super AbstractTask> order;
+
+    /**
+     * The number of tasks per page.
+     */
+    private final int limit;
+
+    /**
+     * Evaluates the rule of the pages anew, returning the slots of the matching tasks.
+     */
+    private final Supplier<CompressedBitmap> matches;
+
+    /**
+     * The index holding the tasks.
+     */
+    private final TaskIndex index;
+
+    private TaskPage(List<AbstractTask> tasks, int matchCount, boolean hasNext, AbstractTask last, int lastSlot,
+                     Comparator<? super AbstractTask> order, int limit, Supplier<CompressedBitmap> matches,
+                     TaskIndex index)
+    {
+        this.tasks = Collections.unmodifiableList(tasks);
+        this.matchCount = matchCount;
+        this.hasNext = hasNext;
+        this.last = last;
+        this.lastSlot = lastSlot;
+        this.order = order;
+        this.limit = limit;
+        this.matches = matches;
+        this.index = index;
+    }
+
+    /**
+     * Fetches the first page of a query.
+     *
+     * @param index   The index holding the tasks.
+     * @param matches Evaluates the query, returning the slots of the matching tasks. The bitmap is not modified.
+     * @param order   The order of the tasks, or null for their natural order.
+     * @param offset  The number of matching tasks to skip.
+     * @param limit   The greatest number of tasks on the page.
+     * @return The page.
+     */
+    static TaskPage first(TaskIndex index, Supplier<CompressedBitmap> matches, Comparator<? super AbstractTask> order,
+                          int offset, int limit)
+    {
+        if (offset < 0 || limit < 0)
+            throw new IllegalArgumentException(String.format("Invalid page: offset %d, limit %d", offset, limit));
+
+        CompressedBitmap slots = matches.get();
+        if (order == null && (long) slots.cardinality() * 4 >= index.size())
+            return walk(index, slots, matches, offset, limit);
+
+        Comparator<? super AbstractTask> used = order == null ? Comparator.naturalOrder() : order;
+        return select(index, slots, matches, used, offset, limit, null, -1);
+    }
+
+    /**
+     * @return The tasks on this page, in order.
+     */
+    public List<AbstractTask> getTasks()
+    {
+        return tasks;
+    }
+
+    /**
+     * @return The number of tasks matching the query when this page was fetched.
+     */
+    public int getMatchCount()
+    {
+        return matchCount;
+    }
+
+    /**
+     * @return Whether there were matching tasks beyond this page when it was fetched.
+     */
+    public boolean hasNext()
+    {
+        return hasNext;
+    }
+
+    /**
+     * Fetches the page following this one, of the same size, by evaluating the query again.
+     *
+     * @return The next page; empty if there are no more matching tasks.
+     */
+    public TaskPage next()
+    {
+        if (last == null)
+            return this;
+
+        return index.read(() -> select(index, matches.get(), matches, order, 0, limit, last, lastSlot));
+    }
+
+    /**
+     * Reads a page of matching tasks, in their natural order, off the sorted order of the index.
+     *
+     * @param slots   The slots of the matching tasks.
+     * @param matches Evaluates the query again, for the following pages.
+     */
+    private static TaskPage walk(TaskIndex index, CompressedBitmap slots, Supplier<CompressedBitmap> matches,
+                                 int offset, int limit)
+    {
+        TaskStore store = index.getStore();
+        List<AbstractTask> page = new ArrayList<>(Math.min(limit, slots.cardinality()));
+        int skipped = 0;
+        int lastSlot = -1;
+        boolean hasNext = false;
+        for (PrimitiveIterator.OfInt iterator = index.getSortedSlots().iterator(); iterator.hasNext(); )
+        {
+            int slot = iterator.nextInt();
+            if (!slots.contains(slot))
+                continue;
+
+            if (skipped < offset)
+                skipped++;
+            else if (page.size() < limit)
+            {
+                page.add(store.getTask(slot));
+                lastSlot = slot;
+            } else
+            {
+                hasNext = true;
+                break;
+            }
+        }
+
+        AbstractTask last = page.isEmpty() ? null : new Position(page.get(page.size() - 1));
+        return new TaskPage(page, slots.cardinality(), hasNext, last, lastSlot, Comparator.naturalOrder(), limit,
+                matches, index);
+    }
+
+    /**
+     * Selects a page of matching tasks with a bounded heap.
+     *
+     * @param slots     The slots of the matching tasks.
+     * @param matches   Evaluates the query again, for the following pages.
+     * @param afterTask A copy of the task after which the page starts, or null to start from the first match.
+     * @param afterSlot The slot that {@code afterTask} had, to break ties.
+     */
+    private static TaskPage select(TaskIndex index, CompressedBitmap slots, Supplier<CompressedBitmap> matches,
+                                   Comparator<? super AbstractTask> order, int offset, int limit,
+                                   AbstractTask afterTask, int afterSlot)
+    {
+        TaskStore store = index.getStore();
+
+        // Slots ordered by the comparator, then by slot; the heap is reversed so that its head is the worst kept.
+        Comparator<Integer> bySlot = (first, second) -> {
+            int result = order.compare(store.getTask(first), store.getTask(second));
+            return result != 0 ? result : Integer.compare(first, second);
+        };
+        int bound = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        PriorityQueue<Integer> kept = new PriorityQueue<>(Math.max(1, Math.min(bound, 1024)), bySlot.reversed());
+
+        int[] remaining = {0};
+        slots.forEach(slot -> {
+            if (afterTask != null)
+            {
+                int result = order.compare(store.getTask(slot), afterTask);
+                if (result < 0 || result == 0 && slot <= afterSlot)
+                    return;
+            }
+
+            remaining[0]++;
+            if (kept.size() < bound)
+                kept.add(slot);
+            else if (bound > 0 && bySlot.compare(slot, kept.peek()) < 0)
+            {
+                kept.poll();
+                kept.add(slot);
+            }
+        });
+
+        int[] ordered = new int[kept.size()];
+        for (int i = ordered.length - 1; i >= 0; i--)
+            ordered[i] = kept.poll();
+
+        List<AbstractTask> page = new ArrayList<>(Math.max(0, ordered.length - offset));
+        for (int i = offset; i < ordered.length; i++)
+            page.add(store.getTask(ordered[i]));
+
+        AbstractTask last = page.isEmpty() ? afterTask : new Position(page.get(page.size() - 1));
+        int lastSlot = page.isEmpty() ? afterSlot : ordered[ordered.length - 1];
+        return new TaskPage(page, slots.cardinality(), remaining[0] > bound, last, lastSlot, order, limit, matches,
+                index);
+    }
+
+    /**
+     * A copy of the fields of a task at one moment, by which the page after it is sought. It is never added to Listr.
+     */
+    private static final class Position extends AbstractTask
+    {
+        /**
+         * The due date, text and serialization of the task, as they were when it was copied.
+         */
+        private final String dueString, text, serialization;
+
+        private Position(AbstractTask task)
+        {
+            super(task);
+            this.dueString = task.getDueString();
+            this.text = task.toString();
+            this.serialization = task.serialize();
+        }
+
+        @Override public String getDueString()
+        {
+            return dueString;
+        }
+
+        @Override public String toString()
+        {
+            return text;
+        }
+
+        @Override public String serialize()
+        {
+            return serialization;
+        }
+
+        @Override public void loadFromSerialization(String serialization)
+        {
+            throw new UnsupportedOperationException("A position in a page cannot be changed");
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.DatelessTask;
+import com.natebeckemeyer.projects.listrgui.implementations.SimpleTask;
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-28.
+ * <p>
+ * An immutable record of the fields of a task at one moment, as held by a {@link TaskSnapshot}. Listr records a task
+ * anew each time it changes, so a record never changes under a reader, however the task itself is edited afterward.
+ * <p>
+ * The fields are recorded one by one, and a task which serializes like {@link SimpleTask} or {@link DatelessTask} is
+ * serialized from them when written. A task of any other type is also recorded as its own serialization, since only
+ * the task knows its layout (see {@link TaskFileReader.Layout}); only its records carry the extra field.
+ */
+public class TaskRecord
+{
+    /**
+     * The simple name of each class, made once per class rather than once per record, as
+     * {@link Class#getSimpleName()} may build a new string on each call.
+     */
+    private static final ClassValue<String> simpleNames = new ClassValue<String>()
+    {
+        @Override protected String computeValue(Class<?> type)
+        {
+            return type.getSimpleName();
+        }
+    };
+
+    /**
+     * The task recorded.
+     */
+    private final AbstractTask task;
+
+    /**
+     * The identifier of the task.
+     */
+    private final long id;
+
+    /**
+     * The name of the task.
+     */
+    private final String name;
+
+    /**
+     * The due date of the task, in days since the epoch, or {@link AbstractTask#NO_DUE_DATE}.
+     */
+    private final int dueDay;
+
+    /**
+     * The completion flag of the task.
+     */
+    private final boolean completed;
+
+    /**
+     * The tags of the task, sorted by id. The array is shared with the task, which never modifies it.
+     */
+    private final Tag[] tags;
+
+    /**
+     * The simple class name of the completion behavior of the task.
+     */
+    private final String behaviorType;
+
+    /**
+     * The serialization of the completion behavior of the task; may be null or empty.
+     */
+    private final String behaviorData;
+
+    /**
+     * Records the current fields of {@code task}.
+     *
+     * @param task The task to record.
+     */
+    private TaskRecord(AbstractTask task)
+    {
+        this.task = task;
+        this.id = task.id;
+        this.name = task.name;
+        this.dueDay = task.getDueEpochDay();
+        this.completed = task.completed;
+        this.tags = task.tags;
+        this.behaviorType = simpleNames.get(task.onComplete.getClass());
+        this.behaviorData = task.onComplete.convertToString();
+    }
+
+    /**
+     * Records the current fields of a task, and its serialization if Listr does not know its layout.
+     *
+     * @param task The task to record.
+     * @return The record.
+     */
+    static TaskRecord of(AbstractTask task)
+    {
+        return TaskFileReader.Layout.of(task.getClass()) == TaskFileReader.Layout.OTHER ? new Serialized(task) :
+                new TaskRecord(task);
+    }
+
+    /**
+     * @return The task recorded. Its fields may have changed since the record was made.
+     */
+    public AbstractTask getTask()
+    {
+        return task;
+    }
+
+    /**
+     * @return The identifier of the task.
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return The simple class name of the task, as written in the task file.
+     */
+    public String getType()
+    {
+        return simpleNames.get(task.getClass());
+    }
+
+    /**
+     * @return The name of the task.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The due date of the task, in days since the epoch, or {@link AbstractTask#NO_DUE_DATE}.
+     */
+    public int getDueEpochDay()
+    {
+        return dueDay;
+    }
+
+    /**
+     * @return How the task lays out its serialization.
+     */
+    TaskFileReader.Layout getLayout()
+    {
+        return TaskFileReader.Layout.of(task.getClass());
+    }
+
+    /**
+     * @return Whether the task was completed.
+     */
+    public boolean isCompleted()
+    {
+        return completed;
+    }
+
+    /**
+     * @return The tags of the task, in order of tag id.
+     */
+    public List<Tag> getTags()
+    {
+        return Collections.unmodifiableList(Arrays.asList(tags));
+    }
+
+    /**
+     * @return The tags of the task, in order of tag id, as the array shared with the task; not to be modified.
+     */
+    Tag[] getTagArray()
+    {
+        return tags;
+    }
+
+    /**
+     * @return The simple class name of the completion behavior of the task.
+     */
+    public String getBehaviorType()
+    {
+        return behaviorType;
+    }
+
+    /**
+     * @return The serialization of the completion behavior of the task; may be null or empty.
+     */
+    public String getBehaviorData()
+    {
+        return behaviorData;
+    }
+
+    /**
+     * Serializes the record exactly as its task would have serialized itself when the record was made (see
+     * {@link AbstractTask#serialize()}).
+     *
+     * @return The serialization of the recorded task, without its type.
+     */
+    public String serialize()
+    {
+        StringBuilder line = new StringBuilder(64);
+        if (getLayout() == TaskFileReader.Layout.DATED)
+            AbstractTask.appendSerializedDate(line, dueDay);
+
+        line.append(completed).append('|');
+        for (int i = 0; i < tags.length; i++)
+        {
+            if (i > 0)
+                line.append(' ');
+            line.append(tags[i]);
+        }
+
+        line.append('|').append(behaviorType);
+        line.append('|').append(behaviorData == null || behaviorData.isEmpty() ? " " : behaviorData);
+        line.append('|').append(name);
+        return line.toString();
+    }
+
+    @Override public String toString()
+    {
+        return getType() + "@" + id + "|" + serialize();
+    }
+
+    /**
+     * The record of a task whose layout is not known, which keeps the task's own serialization.
+     */
+    private static final class Serialized extends TaskRecord
+    {
+        private final String serialization;
+
+        private Serialized(AbstractTask task)
+        {
+            super(task);
+            this.serialization = task.serialize();
+        }
+
+        @Override public String serialize()
+        {
+            return serialization;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.reference.Defaults;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-31.
+ * <p>
+ * Saves the tasks behind the changes made to them, rather than with each change. A change only marks the tasks as
+ * dirty; once no change has been made for {@link Defaults#getAutoSaveDelay()} milliseconds, the changes logged to the
+ * {@link TaskJournal} since the last save are saved by {@link FileParser#defaultSave} on a background thread. A burst
+ * of changes, such as ticking off many tasks one after another, is thus saved once, and the thread making the changes
+ * never waits on the disk. So that a steady stream of changes is still saved, no save is put off for more than
+ * {@link TaskSaver#MAX_DELAYS} delays after the first unsaved change.
+ * <p>
+ * Unsaved changes are saved when the JVM shuts down, or at once by {@link TaskSaver#flush()}. With a delay of zero,
+ * every change is saved on the thread making it, as before.
+ */
+final class TaskSaver
+{
+    /**
+     * The most delays that a save may be put off by a steady stream of changes.
+     */
+    private static final int MAX_DELAYS = 5;
+
+    /**
+     * The tasks to save.
+     */
+    private final TaskIndex index;
+
+    /**
+     * The changes to the tasks since they were last saved.
+     */
+    private final TaskJournal journal;
+
+    /**
+     * The thread on which saves are made. It is a daemon, so that it never keeps the application alive; unsaved
+     * changes are saved by the shutdown hook instead.
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Listr autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Serializes saves, so that changes are saved in order and {@link TaskSaver#savedVersion} only ever increases.
+     */
+    private final Object saveLock = new Object();
+
+    /**
+     * The save scheduled for the current burst of changes, or null if the tasks are clean.
+     */
+    private ScheduledFuture<?> pending;
+
+    /**
+     * When the first unsaved change of the current burst was made, in nanoseconds.
+     */
+    private long firstChange;
+
+    /**
+     * When the last change was made, in nanoseconds.
+     */
+    private long lastChange;
+
+    /**
+     * The version of the tasks last saved or loaded.
+     */
+    private long savedVersion = TaskSnapshot.EMPTY.getVersion();
+
+    /**
+     * @param index   The tasks to save.
+     * @param journal The changes to the tasks since they were last saved.
+     */
+    TaskSaver(TaskIndex index, TaskJournal journal)
+    {
+        this.index = index;
+        this.journal = journal;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "Listr autosave flush"));
+    }
+
+    /**
+     * Notes that the tasks have changed, scheduling a save if none is pending.
+     */
+    void markDirty()
+    {
+        long delay = Defaults.getAutoSaveDelay();
+        if (delay <= 0)
+        {
+            save();
+            return;
+        }
+
+        synchronized (this)
+        {
+            lastChange = System.nanoTime();
+            if (pending == null)
+            {
+                firstChange = lastChange;
+                pending = executor.schedule(this::expire, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Saves the tasks at once if they have changed since they were last saved, cancelling any pending save.
+     */
+    void flush()
+    {
+        synchronized (this)
+        {
+            if (pending != null)
+            {
+                pending.cancel(false);
+                pending = null;
+            }
+        }
+        save();
+    }
+
+    /**
+     * Runs when a pending save comes due. If changes have been made during the delay, the save is put off until the
+     * tasks have been quiet for a whole delay, or until the burst has lasted {@link TaskSaver#MAX_DELAYS} delays.
+     */
+    private void expire()
+    {
+        synchronized (this)
+        {
+            long delay = TimeUnit.MILLISECONDS.toNanos(Defaults.getAutoSaveDelay());
+            long due = Math.min(lastChange + delay, firstChange + MAX_DELAYS * delay);
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+            {
+                pending = executor.schedule(this::expire, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+            pending = null;
+        }
+        save();
+    }
+
+    /**
+     * Notes that the tasks, as they are now, are what the task file and its journal hold, as after loading them, and
+     * forgets the changes logged so far.
+     */
+    void markSaved()
+    {
+        synchronized (saveLock)
+        {
+            savedVersion = index.read(() -> journal.drain(index.getSnapshot())).getSnapshot().getVersion();
+        }
+    }
+
+    /**
+     * Saves the changes logged since the last save, unless there are none. If they could not be saved, the next save
+     * writes the task file in full, so that the journal is never left missing a change.
+     */
+    private void save()
+    {
+        synchronized (saveLock)
+        {
+            TaskJournal.Changes changes = index.read(() -> journal.drain(index.getSnapshot()));
+            if (changes.getSnapshot().getVersion() == savedVersion)
+                return;
+
+            if (FileParser.defaultSave(changes))
+                savedVersion = changes.getSnapshot().getVersion();
+            else
+                journal.reset();
+        }
+    }
+}
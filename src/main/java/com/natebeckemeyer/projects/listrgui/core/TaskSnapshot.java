@@ -0,0 +1,125 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-28.
+ * <p>
+ * One version of the tasks that {@link Listr} handles, as returned by {@link Listr#getSnapshot()}: an immutable
+ * collection of {@link TaskRecord}s, which saving, exporting and rendering can read at leisure while edits go on.
+ * <p>
+ * Taking a snapshot costs nothing, as Listr publishes a new one with each change. The records are held in a
+ * {@link TaskVector} by the tasks' slots, so each change copies only the path to the records it replaced, and every
+ * snapshot shares the rest with the versions before and after it.
+ */
+public final class TaskSnapshot extends AbstractCollection<TaskRecord>
+{
+    /**
+     * The snapshot of no tasks.
+     */
+    static final TaskSnapshot EMPTY = new TaskSnapshot(TaskVector.empty(), 0, 0);
+
+    /**
+     * The records of the tasks, by slot; null where a slot was free.
+     */
+    private final TaskVector<TaskRecord> records;
+
+    /**
+     * The number of records.
+     */
+    private final int size;
+
+    /**
+     * The version of this snapshot, which increases with each change.
+     */
+    private final long version;
+
+    /**
+     * @param records The records of the tasks, by slot.
+     * @param size    The number of records.
+     * @param version The version of this snapshot.
+     */
+    TaskSnapshot(TaskVector<TaskRecord> records, int size, long version)
+    {
+        this.records = records;
+        this.size = size;
+        this.version = version;
+    }
+
+    /**
+     * @return The version of this snapshot. A later snapshot has a greater version.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return The records of the tasks, by slot; for the next version.
+     */
+    TaskVector<TaskRecord> getRecords()
+    {
+        return records;
+    }
+
+    @Override public int size()
+    {
+        return size;
+    }
+
+    @Override public void forEach(Consumer<? super TaskRecord> action)
+    {
+        records.forEach(action);
+    }
+
+    @Override public Iterator<TaskRecord> iterator()
+    {
+        return new Iterator<TaskRecord>()
+        {
+            /**
+             * The index of the next record, or the length of the vector when there is none.
+             */
+            private int next = advance(0);
+
+            @Override public boolean hasNext()
+            {
+                return next < records.length();
+            }
+
+            @Override public TaskRecord next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                TaskRecord record = records.get(next);
+                next = advance(next + 1);
+                return record;
+            }
+
+            /**
+             * @return The first index from {@code from} holding a record, skipping empty leaves whole.
+             */
+            private int advance(int from)
+            {
+                int width = TaskVector.leafWidth();
+                while (from < records.length())
+                {
+                    Object[] leaf = records.leafFor(from);
+                    if (leaf == null)
+                    {
+                        from = (from | (width - 1)) + 1;
+                        continue;
+                    }
+
+                    for (int end = Math.min(records.length(), (from | (width - 1)) + 1); from < end; from++)
+                        if (leaf[from & (width - 1)] != null)
+                            return from;
+                }
+                return from;
+            }
+        };
+    }
+}
@@ -0,0 +1,226 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.Arrays;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-30.
+ * <p>
+ * Sorts slots of a {@link TaskStore} by a {@link TaskOrder} without comparing tasks. Each column of the order is
+ * turned into a small non-negative integer per slot, read straight from the store's primitive columns:
+ * <pre>
+ *  * the completion flag, as 0 or 1;
+ *  * the due date, less the earliest due date among the slots, plus one (tasks without one being 0);
+ *  * the name, as its rank among the collation keys of all names (see {@link TaskStore#rankNames()});
+ *  * the number of tags.
+ * </pre>
+ * A descending column is subtracted from its maximum. The columns are then packed, most significant first, into as
+ * few {@code long} keys per slot as their widths allow (completion, due date and name usually share one), and the
+ * slots are sorted by the keys with a stable least-significant-digit radix sort, 11 bits per pass. As the slots start
+ * in ascending order, ties are left in slot order.
+ */
+final class TaskSorter
+{
+    /**
+     * The number of bits sorted by each pass of the radix sort.
+     */
+    private static final int DIGIT_BITS = 11;
+
+    /**
+     * The number of slots below which a comparison sort of the keys is cheaper than a radix sort.
+     */
+    private static final int RADIX_THRESHOLD = 1024;
+
+    /**
+     * Sorting is static.
+     */
+    private TaskSorter()
+    {
+    }
+
+    /**
+     * Sorts slots in place.
+     *
+     * @param store The store holding the slots' tasks.
+     * @param slots Slots in use, in ascending order.
+     * @param order The order to sort them in.
+     */
+    static void sort(TaskStore store, int[] slots, TaskOrder order)
+    {
+        int count = slots.length;
+        if (count < 2 || order.getColumns().isEmpty())
+            return;
+
+        // Pack the columns into as few words as possible, most significant first.
+        long[][] words = new long[order.getColumns().size()][];
+        int wordCount = 0;
+        int usedBits = 64;
+        int[] wordBits = new int[words.length];
+        for (int column = 0; column < order.getColumns().size(); column++)
+        {
+            int[] values = new int[count];
+            int max = columnValues(store, slots, order.getColumns().get(column), values);
+            int bits = 32 - Integer.numberOfLeadingZeros(max);
+            if (bits == 0)
+                continue;
+
+            if (!order.isAscending(column))
+                for (int i = 0; i < count; i++)
+                    values[i] = max - values[i];
+
+            if (usedBits + bits > 63)
+            {
+                words[wordCount++] = new long[count];
+                usedBits = 0;
+            }
+
+            long[] word = words[wordCount - 1];
+            for (int i = 0; i < count; i++)
+                word[i] = word[i] << bits | values[i];
+            usedBits += bits;
+            wordBits[wordCount - 1] = usedBits;
+        }
+
+        if (count < RADIX_THRESHOLD)
+        {
+            comparisonSort(slots, Arrays.copyOf(words, wordCount));
+            return;
+        }
+
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++)
+            rows[i] = i;
+
+        long[] keys = new long[count];
+        long[] keyBuffer = new long[count];
+        int[] rowBuffer = new int[count];
+        int[] counts = new int[1 << DIGIT_BITS];
+        for (int w = wordCount - 1; w >= 0; w--)
+        {
+            long[] word = words[w];
+            for (int i = 0; i < count; i++)
+                keys[i] = word[rows[i]];
+
+            for (int shift = 0; shift < wordBits[w]; shift += DIGIT_BITS)
+            {
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < count; i++)
+                    counts[(int) (keys[i] >>> shift) & (counts.length - 1)]++;
+
+                int total = 0;
+                for (int digit = 0; digit < counts.length; digit++)
+                {
+                    int start = total;
+                    total += counts[digit];
+                    counts[digit] = start;
+                }
+
+                for (int i = 0; i < count; i++)
+                {
+                    int position = counts[(int) (keys[i] >>> shift) & (counts.length - 1)]++;
+                    keyBuffer[position] = keys[i];
+                    rowBuffer[position] = rows[i];
+                }
+
+                long[] swappedKeys = keys;
+                keys = keyBuffer;
+                keyBuffer = swappedKeys;
+                int[] swappedRows = rows;
+                rows = rowBuffer;
+                rowBuffer = swappedRows;
+            }
+        }
+
+        int[] original = slots.clone();
+        for (int i = 0; i < count; i++)
+            slots[i] = original[rows[i]];
+    }
+
+    /**
+     * Fills in the value of one column for each slot.
+     *
+     * @param values Receives the value of the column for each slot, non-negative.
+     * @return The greatest value.
+     */
+    private static int columnValues(TaskStore store, int[] slots, TaskOrder.Column column, int[] values)
+    {
+        int max = 0;
+        switch (column)
+        {
+            case COMPLETION:
+                for (int i = 0; i < slots.length; i++)
+                    max |= values[i] = store.isCompleted(slots[i]) ? 1 : 0;
+                return max;
+
+            case DUE_DATE:
+                int earliest = Integer.MAX_VALUE;
+                int latest = Integer.MIN_VALUE;
+                for (int slot : slots)
+                {
+                    int day = store.getDueDay(slot);
+                    if (day != AbstractTask.NO_DUE_DATE)
+                    {
+                        earliest = Math.min(earliest, day);
+                        latest = Math.max(latest, day);
+                    }
+                }
+                if (earliest > latest)
+                    return 0;
+
+                for (int i = 0; i < slots.length; i++)
+                {
+                    int day = store.getDueDay(slots[i]);
+                    values[i] = day == AbstractTask.NO_DUE_DATE ? 0 : day - earliest + 1;
+                }
+                return latest - earliest + 1;
+
+            case NAME:
+                return nameRanks(store, slots, values);
+
+            case TAG_COUNT:
+                for (int i = 0; i < slots.length; i++)
+                    max = Math.max(max, values[i] = store.getTagCount(slots[i]));
+                return max;
+
+            default:
+                throw new IllegalStateException("Unknown column " + column);
+        }
+    }
+
+    /**
+     * Fills in the rank of each slot's name among the names of the store. Slots without a name rank first.
+     *
+     * @param values Receives the rank of each slot's name.
+     * @return The greatest rank.
+     */
+    private static int nameRanks(TaskStore store, int[] slots, int[] values)
+    {
+        int ranks = store.rankNames();
+        for (int i = 0; i < slots.length; i++)
+            values[i] = store.getName(slots[i]) == null ? 0 : store.getNameRank(slots[i]) + 1;
+        return ranks;
+    }
+
+    /**
+     * Sorts a few slots by comparing their keys, stably.
+     */
+    private static void comparisonSort(int[] slots, long[][] words)
+    {
+        Integer[] rows = new Integer[slots.length];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = i;
+
+        Arrays.sort(rows, (first, second) -> {
+            for (long[] word : words)
+            {
+                int result = Long.compare(word[first], word[second]);
+                if (result != 0)
+                    return result;
+            }
+            return 0;
+        });
+
+        int[] original = slots.clone();
+        for (int i = 0; i < rows.length; i++)
+            slots[i] = original[rows[i]];
+    }
+}
@@ -0,0 +1,24 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-05.
+ * <p>
+ * A task file being read a batch of tasks at a time, so that the file can be read without ever holding more than a
+ * batch of its tasks; see {@link TaskStream}. Text files are read a buffer at a time (see {@link TaskFileReader}), and
+ * binary files a block at a time (see {@link TaskBinaryReader}).
+ */
+interface TaskSource extends Closeable
+{
+    /**
+     * Reads the next batch of tasks.
+     *
+     * @param sink Receives each task of the batch, in the order of the file.
+     * @return Whether there may be more tasks; {@code false} once the file has been read to its end.
+     * @throws IOException If the file could not be read.
+     */
+    boolean readBatch(Consumer<AbstractTask> sink) throws IOException;
+}
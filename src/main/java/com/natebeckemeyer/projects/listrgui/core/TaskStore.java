@@ -0,0 +1,568 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.text.CollationKey;
+import java.util.*;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-24.
+ * <p>
+ * This class is the columnar (struct-of-arrays) store behind {@link Listr}'s indexes. Each task that {@link Listr}
+ * handles occupies a dense integer slot, and only the fields which are scanned, or by which the slots are kept in
+ * order, are copied into columns indexed by slot:
+ * <pre>
+ *  * the due date, as an int of days since the epoch, scanned by due-date rules (see {@link QueryPlanner});
+ *  * the completion flag, as one bit of a long[], scanned by the completion rule;
+ *  * the name, from a pool of names which also ranks them for {@link TaskSorter}.
+ * </pre>
+ * Scans over these columns touch only primitive arrays, rather than chasing a pointer to a task for every task tested.
+ * The columns are updated whenever an indexed task changes, and they also record the values under which each task
+ * was last indexed, so that it can be found again in {@link SortedSlots} and the due-date buckets after a change. The
+ * other fields, such as the tags (which the posting lists of {@link TaskIndex} answer for) and the identifier, are
+ * read from the task itself; the store's own arrays cost about 20 bytes per task, beside the pooled names.
+ * <p>
+ * Tasks are found by identifier through an open-addressing table of slots, keyed by the identifiers of the tasks in
+ * those slots, so that the lookup costs a few bytes per task rather than a boxed map entry.
+ */
+final class TaskStore
+{
+    /**
+     * The tasks, by slot; null where a slot is free.
+     */
+    private AbstractTask[] tasks = new AbstractTask[16];
+
+    /**
+     * The due date of each slot's task, in days since the epoch (or {@link AbstractTask#NO_DUE_DATE}).
+     */
+    private int[] dueDays = new int[16];
+
+    /**
+     * The completion flag of each slot's task, 64 slots to a long.
+     */
+    private long[] completed = new long[1];
+
+    /**
+     * The name of each slot's task.
+     */
+    private String[] names = new String[16];
+
+    /**
+     * The pool of names, so that tasks sharing a name share one string. Each name is counted by the number of slots
+     * using it, and leaves the pool when that count reaches zero.
+     */
+    private final Map<String, PooledName> namePool = new HashMap<>();
+
+    /**
+     * The version of {@link TaskStore#namePool}, advanced whenever a name enters or leaves it.
+     */
+    private int namePoolVersion = 0;
+
+    /**
+     * The version of {@link TaskStore#namePool} when its names were last ranked, or -1.
+     */
+    private int rankedVersion = -1;
+
+    /**
+     * The number of distinct ranks given to the pooled names when they were last ranked.
+     */
+    private int rankCount = 0;
+
+    /**
+     * The number of slots ever handed out; every slot below this is either in use or free.
+     */
+    private int slotCount = 0;
+
+    /**
+     * The slots of removed tasks, available for reuse.
+     */
+    private final CompressedBitmap freeSlots = new CompressedBitmap();
+
+    /**
+     * The slots in use.
+     */
+    private final CompressedBitmap live = new CompressedBitmap();
+
+    /**
+     * The slots of the tasks, by identifier: an open-addressing table with linear probing, holding each slot plus
+     * one at the position given by {@link TaskStore#hash(long)} of its task's identifier, or at the first free position
+     * after it; 0 marks a free position. The table is at most half full.
+     */
+    private int[] slotsById = new int[32];
+
+    /**
+     * The number of slots in {@link TaskStore#slotsById}.
+     */
+    private int idCount = 0;
+
+    /**
+     * @param task The task to check.
+     * @return Whether {@code task} occupies a slot of this store.
+     */
+    boolean contains(AbstractTask task)
+    {
+        return task.slot >= 0 && task.slot < slotCount && tasks[task.slot] == task;
+    }
+
+    /**
+     * @return The number of tasks in this store.
+     */
+    int size()
+    {
+        return live.cardinality();
+    }
+
+    /**
+     * @return The number of slots ever handed out; every slot below this is either in use or free.
+     */
+    int getSlotCount()
+    {
+        return slotCount;
+    }
+
+    /**
+     * @return The slots in use. The bitmap must not be modified.
+     */
+    CompressedBitmap getLiveSlots()
+    {
+        return live;
+    }
+
+    /**
+     * Gives {@code task} a slot and records its fields in the columns. A task whose identifier is already taken by
+     * another task in the store is given a new identifier.
+     *
+     * @param task A task not already in the store.
+     * @return The slot of the task.
+     */
+    int add(AbstractTask task)
+    {
+        int slot = allocate();
+        if (findSlot(task.id) >= 0)
+            task.id = AbstractTask.nextId();
+        tasks[slot] = task;
+        task.slot = slot;
+        live.add(slot);
+        putId(slot);
+
+        dueDays[slot] = task.getDueEpochDay();
+        setCompletedBit(slot, task.isCompleted());
+        names[slot] = pool(task.getName());
+        task.name = names[slot];
+        return slot;
+    }
+
+    /**
+     * Frees the slot of {@code task}.
+     *
+     * @param task A task in the store.
+     */
+    void remove(AbstractTask task)
+    {
+        int slot = task.slot;
+        removeId(task.id);
+        tasks[slot] = null;
+        release(names[slot]);
+        names[slot] = null;
+        setCompletedBit(slot, false);
+
+        task.slot = -1;
+        live.remove(slot);
+        freeSlots.add(slot);
+    }
+
+    /**
+     * Removes every task from the store.
+     */
+    void clear()
+    {
+        live.forEach(slot -> tasks[slot].slot = -1);
+        Arrays.fill(tasks, 0, slotCount, null);
+        Arrays.fill(names, 0, slotCount, null);
+        Arrays.fill(completed, 0);
+        slotCount = 0;
+        namePool.clear();
+        namePoolVersion++;
+        Arrays.fill(slotsById, 0);
+        idCount = 0;
+        freeSlots.clear();
+        live.clear();
+    }
+
+    /**
+     * @param slot A slot in use.
+     * @return The task in that slot.
+     */
+    AbstractTask getTask(int slot)
+    {
+        return tasks[slot];
+    }
+
+    /**
+     * @param id The identifier of a task.
+     * @return The task in the store with that identifier, or null if there is none.
+     */
+    AbstractTask findById(long id)
+    {
+        int slot = findSlot(id);
+        return slot < 0 ? null : tasks[slot];
+    }
+
+    /**
+     * @param slot A slot in use.
+     * @return The due day recorded for that slot.
+     */
+    int getDueDay(int slot)
+    {
+        return dueDays[slot];
+    }
+
+    /**
+     * Records a new due day for a slot.
+     *
+     * @param slot A slot in use.
+     * @param day  The new due day, in days since the epoch (or {@link AbstractTask#NO_DUE_DATE}).
+     */
+    void setDueDay(int slot, int day)
+    {
+        dueDays[slot] = day;
+    }
+
+    /**
+     * @param slot A slot in use.
+     * @return The completion flag recorded for that slot.
+     */
+    boolean isCompleted(int slot)
+    {
+        return (completed[slot >>> 6] & 1L << slot) != 0;
+    }
+
+    /**
+     * Records a new completion flag for a slot.
+     *
+     * @param slot      A slot in use.
+     * @param completed The new completion flag.
+     */
+    void setCompleted(int slot, boolean completed)
+    {
+        setCompletedBit(slot, completed);
+    }
+
+    /**
+     * Compares the tasks in two slots by their recorded fields, in the order of {@link AbstractTask#compareTo}:
+     * uncompleted before completed, then by due date (tasks without one first), then by name. Tasks which tie are
+     * ordered by slot, so that two different slots never compare as equal.
+     *
+     * @param first  A slot in use.
+     * @param second A slot in use.
+     * @return A negative number, zero or a positive number as {@code first} comes before, is, or comes after
+     * {@code second}.
+     */
+    int compareSlots(int first, int second)
+    {
+        int result = Boolean.compare(isCompleted(first), isCompleted(second));
+        if (result != 0)
+            return result;
+
+        result = Integer.compare(dueDays[first], dueDays[second]);
+        if (result != 0)
+            return result;
+
+        String firstName = names[first];
+        String secondName = names[second];
+        if (firstName != secondName)
+        {
+            if (firstName == null || secondName == null)
+                return firstName == null ? -1 : 1;
+
+            result = firstName.compareTo(secondName);
+            if (result != 0)
+                return result;
+        }
+
+        return Integer.compare(first, second);
+    }
+
+    /**
+     * @param slot A slot in use.
+     * @return The name recorded for that slot.
+     */
+    String getName(int slot)
+    {
+        return names[slot];
+    }
+
+    /**
+     * Ranks every pooled name by its collation key (see {@link TaskOrder#getCollator()}), unless the pool has not
+     * changed since it was last ranked. Each name's collation key is made once and kept with it, so a change to the
+     * pool costs a sort of the keys, and sorting by name again without a change costs nothing. Readers holding the
+     * read lock may call this concurrently.
+     *
+     * @return The number of distinct ranks; names with equal collation keys share a rank.
+     */
+    synchronized int rankNames()
+    {
+        if (rankedVersion == namePoolVersion)
+            return rankCount;
+
+        PooledName[] pooled = namePool.values().toArray(new PooledName[namePool.size()]);
+        for (PooledName name : pooled)
+            if (name.collationKey == null)
+                name.collationKey = TaskOrder.getCollator().getCollationKey(name.value);
+        Arrays.sort(pooled, (first, second) -> first.collationKey.compareTo(second.collationKey));
+
+        int rank = 0;
+        for (int i = 0; i < pooled.length; i++)
+        {
+            if (i > 0 && pooled[i].collationKey.compareTo(pooled[i - 1].collationKey) != 0)
+                rank++;
+            pooled[i].rank = rank;
+        }
+
+        rankCount = pooled.length == 0 ? 0 : rank + 1;
+        rankedVersion = namePoolVersion;
+        return rankCount;
+    }
+
+    /**
+     * @param slot A slot in use, with a name.
+     * @return The rank of the slot's name among the pooled names, as of the last {@link TaskStore#rankNames()}.
+     */
+    int getNameRank(int slot)
+    {
+        return namePool.get(names[slot]).rank;
+    }
+
+    /**
+     * @param slot A slot in use.
+     * @return The number of tags of that slot's task.
+     */
+    int getTagCount(int slot)
+    {
+        return tasks[slot].tags.length;
+    }
+
+    /**
+     * Records the new name of a slot's task, and has the task share the pooled copy of it.
+     *
+     * @param slot A slot in use.
+     */
+    void updateName(int slot)
+    {
+        String pooled = pool(tasks[slot].getName());
+        release(names[slot]);
+        names[slot] = pooled;
+        tasks[slot].name = pooled;
+    }
+
+    /**
+     * Scans the completion column.
+     *
+     * @param candidates The slots to consider. This bitmap is not modified.
+     * @return The slots among {@code candidates} whose tasks are completed.
+     */
+    CompressedBitmap getCompleted(CompressedBitmap candidates)
+    {
+        CompressedBitmap result = new CompressedBitmap();
+        if (candidates == live)
+        {
+            // Every slot is a candidate: walk the set bits a word at a time.
+            for (int i = 0; i < completed.length; i++)
+            {
+                long word = completed[i];
+                while (word != 0)
+                {
+                    result.add(i << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return result;
+        }
+
+        candidates.forEach(slot -> {
+            if (isCompleted(slot))
+                result.add(slot);
+        });
+        return result;
+    }
+
+    /**
+     * Scans the due-date column.
+     *
+     * @param candidates The slots to consider. This bitmap is not modified.
+     * @param earliest   The first day of the range (in days since the epoch), inclusive.
+     * @param latest     The last day of the range (in days since the epoch), inclusive.
+     * @return The slots among {@code candidates} whose tasks are due within the range.
+     */
+    CompressedBitmap getDueBetween(CompressedBitmap candidates, int earliest, int latest)
+    {
+        CompressedBitmap result = new CompressedBitmap();
+        candidates.forEach(slot -> {
+            int day = dueDays[slot];
+            if (day != AbstractTask.NO_DUE_DATE && day >= earliest && day <= latest)
+                result.add(slot);
+        });
+        return result;
+    }
+
+    /**
+     * @return A free slot, growing the columns if there is none.
+     */
+    private int allocate()
+    {
+        if (!freeSlots.isEmpty())
+        {
+            int slot = freeSlots.iterator().nextInt();
+            freeSlots.remove(slot);
+            return slot;
+        }
+
+        if (slotCount == tasks.length)
+        {
+            int capacity = slotCount * 2;
+            tasks = Arrays.copyOf(tasks, capacity);
+            dueDays = Arrays.copyOf(dueDays, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        if (slotCount >> 6 >= completed.length)
+            completed = Arrays.copyOf(completed, completed.length * 2);
+
+        return slotCount++;
+    }
+
+    private void setCompletedBit(int slot, boolean value)
+    {
+        if (value)
+            completed[slot >>> 6] |= 1L << slot;
+        else
+            completed[slot >>> 6] &= ~(1L << slot);
+    }
+
+    /**
+     * @param name A name to be used by a slot.
+     * @return The pooled string equal to {@code name}.
+     */
+    private String pool(String name)
+    {
+        if (name == null)
+            return null;
+
+        PooledName pooled = namePool.get(name);
+        if (pooled == null)
+        {
+            pooled = new PooledName(name);
+            namePool.put(name, pooled);
+            namePoolVersion++;
+        }
+        pooled.references++;
+        return pooled.value;
+    }
+
+    /**
+     * @param name A name no longer used by a slot.
+     */
+    private void release(String name)
+    {
+        if (name == null)
+            return;
+
+        PooledName pooled = namePool.get(name);
+        if (pooled != null && --pooled.references == 0)
+        {
+            namePool.remove(name);
+            namePoolVersion++;
+        }
+    }
+
+    /**
+     * @param id The identifier of a task.
+     * @return The slot of the task with that identifier, or -1 if there is none.
+     */
+    private int findSlot(long id)
+    {
+        int mask = slotsById.length - 1;
+        for (int i = hash(id) & mask; slotsById[i] != 0; i = i + 1 & mask)
+            if (tasks[slotsById[i] - 1].id == id)
+                return slotsById[i] - 1;
+        return -1;
+    }
+
+    /**
+     * Enters a slot in {@link TaskStore#slotsById} under the identifier of its task, which must not be there yet.
+     */
+    private void putId(int slot)
+    {
+        if (++idCount * 2 > slotsById.length)
+        {
+            int[] previous = slotsById;
+            slotsById = new int[previous.length * 2];
+            for (int entry : previous)
+                if (entry != 0)
+                    place(entry);
+        }
+        place(slot + 1);
+    }
+
+    /**
+     * Places an entry (a slot plus one) at the first free position from the hash of its identifier.
+     */
+    private void place(int entry)
+    {
+        int mask = slotsById.length - 1;
+        int i = hash(tasks[entry - 1].id) & mask;
+        while (slotsById[i] != 0)
+            i = i + 1 & mask;
+        slotsById[i] = entry;
+    }
+
+    /**
+     * Takes the slot of a task out of {@link TaskStore#slotsById}. The entries after it in its run are shifted back
+     * into the gap wherever their hash allows, so that no run is broken and no position needs a tombstone.
+     */
+    private void removeId(long id)
+    {
+        int mask = slotsById.length - 1;
+        int hole = hash(id) & mask;
+        while (slotsById[hole] != 0 && tasks[slotsById[hole] - 1].id != id)
+            hole = hole + 1 & mask;
+        if (slotsById[hole] == 0)
+            return;
+
+        for (int i = hole + 1 & mask; slotsById[i] != 0; i = i + 1 & mask)
+        {
+            // An entry may fill the hole unless its home position lies after the hole, up to its own position.
+            int home = hash(tasks[slotsById[i] - 1].id) & mask;
+            if ((i - home & mask) >= (i - hole & mask))
+            {
+                slotsById[hole] = slotsById[i];
+                hole = i;
+            }
+        }
+        slotsById[hole] = 0;
+        idCount--;
+    }
+
+    /**
+     * @return The hash of an identifier, spread over every bit so that consecutive identifiers do not cluster.
+     */
+    private static int hash(long id)
+    {
+        long mixed = id * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ mixed >>> 32);
+    }
+
+    /**
+     * A name in the pool, with the number of slots using it and, once names have been sorted, its collation key and
+     * rank.
+     */
+    private static final class PooledName
+    {
+        private final String value;
+        private int references;
+        private CollationKey collationKey;
+        private int rank;
+
+        PooledName(String value)
+        {
+            this.value = value;
+        }
+    }
+}
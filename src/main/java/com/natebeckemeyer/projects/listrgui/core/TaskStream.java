@@ -0,0 +1,132 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-05.
+ * <p>
+ * Streams the tasks of a task file which match a rule, reading and parsing the file lazily, a batch at a time (see
+ * {@link TaskSource}), as the stream is consumed. Each task is tested against the rule as soon as it is parsed, and
+ * only those which match are kept until the stream takes them; so a file is queried in the memory of one batch,
+ * however large it is. The tasks are not added to {@link Listr}, and every task of one stream is tested with the same
+ * {@link QueryContext}, as in a query of Listr.
+ * <p>
+ * The file is read as it was last saved: its {@link TaskJournal} is read into memory first (it is small, being folded
+ * into the file once it outgrows it), and replayed on each task as it is parsed (see {@link TaskJournal.Replay}),
+ * before the task is tested. Tasks which the journal removed are dropped, and those which it added are tested once the
+ * file has been read, and come last. Errors reading the file are thrown from the stream as
+ * {@link UncheckedIOException}s; lines or blocks which cannot be parsed are reported and skipped, as when the file is
+ * loaded. The stream should be closed, to close the file.
+ */
+final class TaskStream extends Spliterators.AbstractSpliterator<AbstractTask>
+{
+    /**
+     * The file being read.
+     */
+    private final TaskSource source;
+
+    /**
+     * The changes of the file's journal, replayed on the tasks as they are read.
+     */
+    private final TaskJournal.Replay replay;
+
+    /**
+     * Keeps the tasks which match the rule.
+     */
+    private final Consumer<AbstractTask> filter;
+
+    /**
+     * Replays the journal on each task of the batch being read, and keeps those which then match the rule.
+     */
+    private final Consumer<AbstractTask> replayThenFilter;
+
+    /**
+     * The tasks read which match the rule and have not yet been taken by the stream.
+     */
+    private final ArrayDeque<AbstractTask> matches = new ArrayDeque<>();
+
+    /**
+     * Whether the file has been read to its end.
+     */
+    private boolean exhausted = false;
+
+    /**
+     * @param source The file to read.
+     * @param replay The changes of the file's journal.
+     * @param rule   The rule which the tasks must match.
+     */
+    private TaskStream(TaskSource source, TaskJournal.Replay replay, Rule rule)
+    {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.source = source;
+        this.replay = replay;
+
+        QueryContext context = new QueryContext();
+        this.filter = task -> {
+            if (rule.test(task, context))
+                matches.add(task);
+        };
+        this.replayThenFilter = task -> {
+            AbstractTask changed = replay.apply(task);
+            if (changed != null)
+                filter.accept(changed);
+        };
+    }
+
+    /**
+     * Opens a task file as a stream of the tasks which match a rule, in the order of the file, with its journal
+     * replayed on them. Binary task files are recognized by their header.
+     *
+     * @param file The task file.
+     * @param rule The rule which the tasks must match.
+     * @return The stream, which closes the file when closed.
+     * @throws IOException If the file could not be opened.
+     */
+    static Stream<AbstractTask> open(File file, Rule rule) throws IOException
+    {
+        // The journal is read before the file: should the journal be folded into the file in between, its changes are
+        // then replayed on a file which already holds them, which does no harm, rather than lost.
+        TaskJournal.Replay replay = TaskJournal.Replay.of(file);
+        TaskSource source = TaskBinaryReader.isBinary(file) ? new TaskBinaryReader(file) :
+                new TaskFileReader().open(file);
+        return StreamSupport.stream(new TaskStream(source, replay, rule), false).onClose(() -> {
+            try
+            {
+                source.close();
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override public boolean tryAdvance(Consumer<? super AbstractTask> action)
+    {
+        while (matches.isEmpty())
+        {
+            if (exhausted)
+                return false;
+
+            try
+            {
+                exhausted = !source.readBatch(replayThenFilter);
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            if (exhausted)
+                replay.forEachAdded(filter);
+        }
+
+        action.accept(matches.poll());
+        return true;
+    }
+}
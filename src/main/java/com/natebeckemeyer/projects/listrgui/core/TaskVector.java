@@ -0,0 +1,209 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.function.Consumer;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-28.
+ * <p>
+ * A persistent vector: an immutable array whose updates return a new vector, sharing all but the changed path with
+ * the old one. The elements are held in a trie of 32-wide nodes, so a vector of a million elements is four levels
+ * deep, and an update copies at most four small nodes however large the vector is. Old versions remain valid and
+ * unchanged for as long as anything refers to them.
+ * <p>
+ * Elements may be null; the length of the vector is one past the highest index ever set.
+ *
+ * @param <E> The type of the elements.
+ */
+final class TaskVector<E>
+{
+    /**
+     * The number of bits of the index consumed by each level of the trie.
+     */
+    private static final int BITS = 5;
+
+    /**
+     * The number of children of each node.
+     */
+    private static final int WIDTH = 1 << BITS;
+
+    /**
+     * The mask selecting the position within a node from a shifted index.
+     */
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * The vector of no elements.
+     */
+    private static final TaskVector<?> EMPTY = new TaskVector<>(0, 0, new Object[WIDTH]);
+
+    /**
+     * One past the highest index ever set.
+     */
+    private final int length;
+
+    /**
+     * The shift of the index at the root; zero when the root is itself a leaf.
+     */
+    private final int shift;
+
+    /**
+     * The root of the trie. Nodes above the leaves hold {@code Object[]} children, or null for empty subtrees.
+     */
+    private final Object[] root;
+
+    private TaskVector(int length, int shift, Object[] root)
+    {
+        this.length = length;
+        this.shift = shift;
+        this.root = root;
+    }
+
+    /**
+     * @return The vector of no elements.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> TaskVector<E> empty()
+    {
+        return (TaskVector<E>) EMPTY;
+    }
+
+    /**
+     * Builds a vector from the start of an array in a single pass, without copying any path twice.
+     *
+     * @param elements The elements; the array is not kept.
+     * @param length   The number of elements of the array to take.
+     * @return The vector.
+     */
+    static <E> TaskVector<E> of(E[] elements, int length)
+    {
+        if (length == 0)
+            return empty();
+
+        Object[][] level = new Object[(length + MASK) >>> BITS][];
+        for (int i = 0; i < level.length; i++)
+        {
+            level[i] = new Object[WIDTH];
+            System.arraycopy(elements, i << BITS, level[i], 0, Math.min(WIDTH, length - (i << BITS)));
+        }
+
+        int shift = 0;
+        while (level.length > 1)
+        {
+            Object[][] parents = new Object[(level.length + MASK) >>> BITS][];
+            for (int i = 0; i < parents.length; i++)
+            {
+                parents[i] = new Object[WIDTH];
+                System.arraycopy(level, i << BITS, parents[i], 0, Math.min(WIDTH, level.length - (i << BITS)));
+            }
+            level = parents;
+            shift += BITS;
+        }
+
+        return new TaskVector<>(length, shift, level[0]);
+    }
+
+    /**
+     * @return One past the highest index ever set.
+     */
+    int length()
+    {
+        return length;
+    }
+
+    /**
+     * @param index An index below {@link TaskVector#length()}.
+     * @return The element at that index, or null if none was set.
+     */
+    @SuppressWarnings("unchecked")
+    E get(int index)
+    {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException(String.format("Index %d of %d", index, length));
+
+        Object[] node = root;
+        for (int level = shift; level > 0 && node != null; level -= BITS)
+            node = (Object[]) node[(index >>> level) & MASK];
+        return node == null ? null : (E) node[index & MASK];
+    }
+
+    /**
+     * Returns a vector with one element changed, or appended.
+     *
+     * @param index   An index no greater than {@link TaskVector#length()}.
+     * @param element The element to place at that index.
+     * @return The new vector; this vector is unchanged.
+     */
+    TaskVector<E> set(int index, E element)
+    {
+        if (index < 0 || index > length)
+            throw new IndexOutOfBoundsException(String.format("Index %d of %d", index, length));
+
+        Object[] top = root;
+        int topShift = shift;
+        if (index >= 1L << (shift + BITS))
+        {
+            top = new Object[WIDTH];
+            top[0] = root;
+            topShift += BITS;
+        }
+
+        return new TaskVector<>(Math.max(length, index + 1), topShift, assoc(top, topShift, index, element));
+    }
+
+    /**
+     * Passes every element which is not null to {@code action}, in order of index.
+     *
+     * @param action The action to perform on each element.
+     */
+    void forEach(Consumer<? super E> action)
+    {
+        forEach(root, shift, action);
+    }
+
+    /**
+     * @param index An index below {@link TaskVector#length()}.
+     * @return The leaf holding that index, or null if there is none; the element is at {@code index & 31}. The array
+     * must not be modified.
+     */
+    Object[] leafFor(int index)
+    {
+        Object[] node = root;
+        for (int level = shift; level > 0 && node != null; level -= BITS)
+            node = (Object[]) node[(index >>> level) & MASK];
+        return node;
+    }
+
+    /**
+     * @return The number of elements held by each leaf.
+     */
+    static int leafWidth()
+    {
+        return WIDTH;
+    }
+
+    private static Object[] assoc(Object[] node, int shift, int index, Object element)
+    {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int position = (index >>> shift) & MASK;
+        if (shift == 0)
+            copy[position] = element;
+        else
+            copy[position] = assoc((Object[]) copy[position], shift - BITS, index, element);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> void forEach(Object[] node, int shift, Consumer<? super E> action)
+    {
+        for (Object child : node)
+        {
+            if (child == null)
+                continue;
+
+            if (shift == 0)
+                action.accept((E) child);
+            else
+                forEach((Object[]) child, shift - BITS, action);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-26.
+ * <p>
+ * A materialized view: a named rule registered with {@link Listr#registerView(String, Rule)}, together with the set
+ * of tasks which currently match it. The set is computed once when the view is registered, and from then on it is
+ * maintained incrementally: whenever a task is added, removed, completed, renamed, redated or retagged, only that
+ * task is tested against the rule. Listeners are told of each task entering, leaving or changing within the view, so
+ * that a display bound to the view costs time in proportion to the tasks that changed rather than to all tasks.
+ * <p>
+ * A rule whose answer for one task depends on something other than that task, such as the current day for
+ * {@code today}, can go stale between changes; {@link TaskView#refresh()} re-evaluates the whole view.
+ * <p>
+ * A view may be read from any thread. Its listeners are called after the change which caused the notice is complete
+ * and Listr's lock has been released, one notice at a time and in the order of the changes, on the thread of whichever
+ * writer delivers them.
+ */
+public final class TaskView
+{
+    /**
+     * The ways in which a task can change with respect to a view.
+     */
+    public enum Change
+    {
+        /**
+         * The task now matches the view's rule, and did not before.
+         */
+        ENTERED,
+        /**
+         * The task no longer matches the view's rule (or is no longer handled by {@link Listr}).
+         */
+        LEFT,
+        /**
+         * The task still matches the view's rule, but has changed.
+         */
+        UPDATED
+    }
+
+    /**
+     * Receives notice of the changes to a view.
+     */
+    @FunctionalInterface
+    public interface Listener
+    {
+        /**
+         * Called after {@code task} has changed with respect to {@code view}.
+         *
+         * @param view   The view that changed.
+         * @param task   The task that changed.
+         * @param change The kind of change.
+         */
+        void viewChanged(TaskView view, AbstractTask task, Change change);
+
+        /**
+         * Called after the whole of {@code view} has been re-evaluated, such as when {@link Listr} is given a new set
+         * of tasks; the listener should read the view's tasks afresh.
+         *
+         * @param view The view that was re-evaluated.
+         */
+        default void viewRefreshed(TaskView view)
+        {
+        }
+    }
+
+    /**
+     * The name under which the view is registered.
+     */
+    private final String name;
+
+    /**
+     * The rule defining the view.
+     */
+    private final Rule rule;
+
+    /**
+     * The index of the tasks over which the view is maintained.
+     */
+    private final TaskIndex index;
+
+    /**
+     * Evaluates {@link TaskView#rule} against {@link TaskView#index}.
+     */
+    private final QueryPlanner planner;
+
+    /**
+     * The slots of the tasks which match the rule.
+     */
+    private CompressedBitmap members;
+
+    /**
+     * The listeners to notify of changes.
+     */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The notices recorded while the index was locked for writing, waiting for {@link TaskView#dispatch()}. A notice
+     * with a null task means that the view was refreshed.
+     */
+    private final Queue<Notice> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates and populates a view. The caller must hold the lock of {@code index}.
+     *
+     * @param name    The name under which the view is registered.
+     * @param rule    The rule defining the view.
+     * @param index   The index of the tasks over which the view is maintained.
+     * @param planner Evaluates rules against {@code index}.
+     */
+    TaskView(String name, Rule rule, TaskIndex index, QueryPlanner planner)
+    {
+        this.name = name;
+        this.rule = rule;
+        this.index = index;
+        this.planner = planner;
+        this.members = new CompressedBitmap(planner.evaluateSlots(rule));
+    }
+
+    /**
+     * @return The name under which the view is registered.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The rule defining the view.
+     */
+    public Rule getRule()
+    {
+        return rule;
+    }
+
+    /**
+     * @return The tasks which currently match the view's rule, in the order of {@link AbstractTask#compareTo}.
+     */
+    public List<AbstractTask> getTasks()
+    {
+        return index.read(() -> index.getSortedTasks(members));
+    }
+
+    /**
+     * @param order The order of the tasks, such as the sort order of a table, or null for their natural order.
+     * @return The tasks which currently match the view's rule, in that order (see {@link TaskOrder}).
+     */
+    public List<AbstractTask> getTasks(TaskOrder order)
+    {
+        return index.read(() -> index.getSortedTasks(members, order));
+    }
+
+    /**
+     * Returns one page of the tasks in the view, in the order given (see {@link TaskPage}).
+     *
+     * @param order  The order of the tasks, or null for their natural order.
+     * @param offset The number of tasks to skip.
+     * @param limit  The greatest number of tasks to return.
+     * @return The page of tasks.
+     */
+    public TaskPage getPage(Comparator<? super AbstractTask> order, int offset, int limit)
+    {
+        return index.read(() -> TaskPage.first(index, () -> members, order, offset, limit));
+    }
+
+    /**
+     * @return The number of tasks which currently match the view's rule.
+     */
+    public int size()
+    {
+        return index.readOptimistically(() -> members.cardinality());
+    }
+
+    /**
+     * @param task The task to check.
+     * @return Whether {@code task} is currently in the view.
+     */
+    public boolean contains(AbstractTask task)
+    {
+        return index.readOptimistically(() -> index.isIndexed(task) && members.contains(task.slot) ? 1 : 0) == 1;
+    }
+
+    /**
+     * @param listener The listener to notify of changes to this view.
+     */
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener The listener to stop notifying.
+     * @return Whether the listener had been added.
+     */
+    public boolean removeListener(Listener listener)
+    {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Re-evaluates the whole view, and notifies the listeners that it has been refreshed.
+     */
+    public void refresh()
+    {
+        index.write(() -> {
+            reevaluate();
+            return null;
+        });
+        dispatch();
+    }
+
+    /**
+     * Re-evaluates the whole view. The caller must hold the write lock of the index, and must call
+     * {@link TaskView#dispatch()} once it has released it.
+     */
+    void reevaluate()
+    {
+        members = new CompressedBitmap(planner.evaluateSlots(rule));
+        pending.add(new Notice(null, null));
+    }
+
+    /**
+     * Re-tests a single task which has been added to the index or has changed. The caller must hold the write lock
+     * of the index, and must call {@link TaskView#dispatch()} once it has released it.
+     *
+     * @param task    The task to re-test. Tasks which are not indexed are ignored.
+     * @param context The context of the change, shared by every view and task that it re-tests.
+     */
+    void update(AbstractTask task, QueryContext context)
+    {
+        if (!index.isIndexed(task))
+            return;
+
+        boolean was = members.contains(task.slot);
+        boolean is = rule.test(task, context);
+        if (is)
+            members.add(task.slot);
+        else
+            members.remove(task.slot);
+
+        if (is != was)
+            pending.add(new Notice(task, is ? Change.ENTERED : Change.LEFT));
+        else if (is)
+            pending.add(new Notice(task, Change.UPDATED));
+    }
+
+    /**
+     * Removes a task which is about to leave the index; it must be called while the task still holds its slot. The
+     * caller must hold the write lock of the index, and must call {@link TaskView#dispatch()} once it has released it.
+     *
+     * @param task The task being removed. Tasks which are not indexed are ignored.
+     */
+    void remove(AbstractTask task)
+    {
+        if (index.isIndexed(task) && members.remove(task.slot))
+            pending.add(new Notice(task, Change.LEFT));
+    }
+
+    /**
+     * Delivers the pending notices to the listeners, in order. This is called without holding the lock of the index,
+     * so that listeners are free to read from and write to Listr.
+     */
+    synchronized void dispatch()
+    {
+        Notice notice;
+        while ((notice = pending.poll()) != null)
+            for (Listener listener : listeners)
+            {
+                if (notice.task == null)
+                    listener.viewRefreshed(this);
+                else
+                    listener.viewChanged(this, notice.task, notice.change);
+            }
+    }
+
+    /**
+     * A change to the view, waiting to be delivered to the listeners.
+     */
+    private static final class Notice
+    {
+        private final AbstractTask task;
+        private final Change change;
+
+        Notice(AbstractTask task, Change change)
+        {
+            this.task = task;
+            this.change = change;
+        }
+    }
+
+    @Override public String toString()
+    {
+        return String.format("%s: %s", name, rule);
+    }
+}
@@ -0,0 +1,15 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-28.
+ * <p>
+ * A marker for {@link Rule rules} which may be tested on several tasks at once from different threads. Such a rule
+ * must not change any shared state in {@code test}, and must use the {@link QueryContext} it is given (each thread of
+ * an evaluation has its own) for any scratch objects. {@link Listr} only spreads the testing of a rule across threads
+ * when the rule is marked as thread-safe; the built-in rules all are, and a user-defined rule can opt in by listing
+ * {@code ThreadSafeRule} among the interfaces it implements. A {@link CompositeRule} is thread-safe when its operands
+ * are.
+ */
+public interface ThreadSafeRule extends Rule
+{
+}
@@ -0,0 +1,218 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.Tag;
+
+import java.util.*;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-29.
+ * <p>
+ * The changes of one {@link Listr#batch}. Each method applies its change at once, so that later changes in the batch
+ * see earlier ones, and remembers how to undo it; if the batch fails, the changes are undone in reverse order.
+ * <p>
+ * Changes made to tasks directly, rather than through the transaction, are applied and saved with the batch but are
+ * not undone if it fails.
+ * <p>
+ * A transaction is only good for its batch: once {@link Listr#batch} returns or throws, every method throws an
+ * {@link IllegalStateException}, since a change made then would be neither atomic nor undone.
+ */
+public final class Transaction
+{
+    /**
+     * The actions undoing the changes made so far, the latest first.
+     */
+    private final Deque<Runnable> undo = new ArrayDeque<>();
+
+    /**
+     * Whether the batch has ended. A transaction kept past its batch may be used from any thread.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Transactions are created by {@link Listr#batch}.
+     */
+    Transaction()
+    {
+    }
+
+    /**
+     * @param task The task for Listr to start handling.
+     */
+    public void add(AbstractTask task)
+    {
+        checkOpen();
+        if (Listr.addTask(task))
+            undo.push(() -> Listr.removeTask(task));
+    }
+
+    /**
+     * @param tasks The tasks for Listr to start handling.
+     */
+    public void addAll(Collection<AbstractTask> tasks)
+    {
+        checkOpen();
+        List<AbstractTask> added = new ArrayList<>(tasks.size());
+        for (AbstractTask task : tasks)
+            if (!Listr.isHandling(task))
+                added.add(task);
+
+        Listr.addTasks(added);
+        undo.push(() -> Listr.removeTasks(added));
+    }
+
+    /**
+     * @param task The task for Listr to stop handling.
+     */
+    public void remove(AbstractTask task)
+    {
+        checkOpen();
+        if (Listr.removeTask(task))
+            undo.push(() -> Listr.addTask(task));
+    }
+
+    /**
+     * @param original    The task to replace.
+     * @param replacement The task to handle in its place.
+     */
+    public void replace(AbstractTask original, AbstractTask replacement)
+    {
+        checkOpen();
+        if (Listr.replaceTask(original, replacement))
+            undo.push(() -> Listr.replaceTask(replacement, original));
+    }
+
+    /**
+     * @param tasks The tasks for Listr to stop handling.
+     */
+    public void removeAll(Collection<AbstractTask> tasks)
+    {
+        checkOpen();
+        tasks.forEach(this::remove);
+    }
+
+    /**
+     * Marks a task as completed or uncompleted, according to its completion behavior; undoing it marks the task back.
+     *
+     * @param task      The task to mark.
+     * @param completed The new completion flag.
+     */
+    public void setCompleted(AbstractTask task, boolean completed)
+    {
+        checkOpen();
+        boolean previous = task.isCompleted();
+        task.setCompleted(completed);
+        if (task.isCompleted() != previous)
+            undo.push(() -> task.setCompleted(previous));
+    }
+
+    /**
+     * @param task The task to rename.
+     * @param name The new name of the task.
+     */
+    public void setName(AbstractTask task, String name)
+    {
+        checkOpen();
+        String previous = task.getName();
+        task.setName(name);
+        undo.push(() -> task.setName(previous));
+    }
+
+    /**
+     * @param task The task to redate.
+     * @param day  The new due date, in days since the epoch, or {@link AbstractTask#NO_DUE_DATE}.
+     */
+    public void setDueEpochDay(AbstractTask task, int day)
+    {
+        checkOpen();
+        int previous = task.getDueEpochDay();
+        task.setDueEpochDay(day);
+        undo.push(() -> task.setDueEpochDay(previous));
+    }
+
+    /**
+     * @param task The task to retag.
+     * @param tags The new tags of the task.
+     */
+    public void setTags(AbstractTask task, Collection<Tag> tags)
+    {
+        checkOpen();
+        Tag[] previous = task.tags;
+        task.setTags(tags);
+        undo.push(() -> task.setTags(Arrays.asList(previous)));
+    }
+
+    /**
+     * @param task The task to tag.
+     * @param tag  The tag to add.
+     */
+    public void addTag(AbstractTask task, Tag tag)
+    {
+        checkOpen();
+        if (!task.contains(tag))
+        {
+            task.addTag(tag);
+            undo.push(() -> task.removeTag(tag));
+        }
+    }
+
+    /**
+     * @param task The task to untag.
+     * @param tag  The tag to remove.
+     */
+    public void removeTag(AbstractTask task, Tag tag)
+    {
+        checkOpen();
+        if (task.removeTag(tag))
+            undo.push(() -> task.addTag(tag));
+    }
+
+    /**
+     * @param task     The task whose completion behavior to replace.
+     * @param behavior The new completion behavior.
+     */
+    public void setOnComplete(AbstractTask task, CompletionBehavior behavior)
+    {
+        checkOpen();
+        CompletionBehavior previous = task.onComplete;
+        task.setOnComplete(behavior);
+        undo.push(() -> task.setOnComplete(previous));
+    }
+
+    /**
+     * Ends the batch: the transaction can no longer be used.
+     */
+    void close()
+    {
+        closed = true;
+        undo.clear();
+    }
+
+    /**
+     * @throws IllegalStateException If the batch has ended.
+     */
+    private void checkOpen()
+    {
+        if (closed)
+            throw new IllegalStateException("The batch of this transaction has ended");
+    }
+
+    /**
+     * Undoes every change made so far, the latest first. Failures to undo are attached to {@code cause} and do not
+     * stop the remaining changes from being undone.
+     *
+     * @param cause The failure of the batch.
+     */
+    void rollBack(Throwable cause)
+    {
+        while (!undo.isEmpty())
+        {
+            try
+            {
+                undo.pop().run();
+            } catch (RuntimeException e)
+            {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+}
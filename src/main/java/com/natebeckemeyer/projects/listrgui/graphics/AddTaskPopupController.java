@@ -15,7 +15,6 @@ import javafx.scene.control.TextField;
 import javafx.stage.Stage;
 
 import java.time.LocalDate;
-import java.util.GregorianCalendar;
 import java.util.LinkedList;
 import java.util.Scanner;
 
@@ -61,11 +60,7 @@ public class AddTaskPopupController
         String labelInput = addTaskLabelField.getText();
         CompletionBehavior completionBehaviorValue = Listr.getCompletionBehavior(addTaskChoiceBox.getValue());
 
-        GregorianCalendar dueDate = null;
         LocalDate localDueDate = addTaskDueDatePicker.getValue();
-        if (localDueDate != null)
-            dueDate = new GregorianCalendar(localDueDate.getYear(),
-                    localDueDate.getMonth().getValue() - 1, localDueDate.getDayOfMonth());
 
         Scanner tagParser = new Scanner(labelInput);
         LinkedList<Tag> tagList = new LinkedList<>();
@@ -73,10 +68,10 @@ public class AddTaskPopupController
             tagList.add(Tag.getTag(tagParser.next()));
 
         AbstractTask newTask;
-        if (dueDate == null)
+        if (localDueDate == null)
             newTask = new DatelessTask(taskName, null, completionBehaviorValue);
         else
-            newTask = new SimpleTask(taskName, dueDate, completionBehaviorValue);
+            newTask = new SimpleTask(taskName, (int) localDueDate.toEpochDay(), completionBehaviorValue);
 
         newTask.setTags(tagList);
 
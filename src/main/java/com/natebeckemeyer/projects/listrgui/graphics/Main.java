@@ -82,7 +82,7 @@ public class Main extends Application
             if (taskFile != null)
                 try
                 {
-                    FileParser.saveTasksToFile(taskFile, Listr.getTasksMatchingRule(task -> true));
+                    FileParser.saveTasksToFile(taskFile, Listr.getSnapshot());
                 } catch (IOException e)
                 {
                     e.printStackTrace();
@@ -169,6 +169,15 @@ public class Main extends Application
         primary = primaryStage;
     }
 
+    /**
+     * Saves any changes still waiting to be auto-saved before the application exits.
+     */
+    @Override
+    public void stop()
+    {
+        Listr.flush();
+    }
+
     /**
      * Creates a new stage (attached to the native menu bar) with children {@code elements}.
      *
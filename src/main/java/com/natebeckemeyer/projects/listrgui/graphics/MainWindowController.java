@@ -5,10 +5,13 @@ import com.natebeckemeyer.projects.listrgui.core.AbstractTask;
 import com.natebeckemeyer.projects.listrgui.core.DynamicBehaviorEngine;
 import com.natebeckemeyer.projects.listrgui.core.Listr;
 import com.natebeckemeyer.projects.listrgui.core.Rule;
+import com.natebeckemeyer.projects.listrgui.core.TaskOrder;
+import com.natebeckemeyer.projects.listrgui.core.TaskView;
 import com.natebeckemeyer.projects.listrgui.implementations.DatelessTask;
 import com.natebeckemeyer.projects.listrgui.implementations.SimpleTask;
 import com.natebeckemeyer.projects.listrgui.implementations.Tag;
 import com.natebeckemeyer.projects.listrgui.reference.ProjectPaths;
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -28,9 +31,9 @@ import javafx.stage.Stage;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class MainWindowController
 {
@@ -72,6 +75,20 @@ public class MainWindowController
     @FXML
     private TreeView<String> behaviorTreeView;
 
+    /**
+     * The columns of {@link MainWindowController#mainTaskList}. The FXML gives them no fx:id, so they are taken from
+     * the table once, in the order of the FXML, by {@link MainWindowController#captureColumns()}.
+     */
+    private TableColumn<AbstractTask, AbstractTask> checkMarksColumn;
+
+    private TableColumn<AbstractTask, String> dueDatesColumn;
+
+    private TableColumn<AbstractTask, String> namesColumn;
+
+    private TableColumn<AbstractTask, String> tagsColumn;
+
+    private TableColumn<AbstractTask, String> completionBehaviorsColumn;
+
     /**
      * This is the flag that tells displayTasks() whether or not to show the tag column.
      */
@@ -92,6 +109,35 @@ public class MainWindowController
      */
     private Rule currentRule;
 
+    /**
+     * The name under which the view of the displayed tasks is registered with {@link Listr}.
+     */
+    private static final String displayedViewName = "main window";
+
+    /**
+     * The view of the tasks currently displayed: those matching {@link MainWindowController#currentRule}, less the
+     * completed tasks unless they are shown. Listr keeps it up to date as tasks change, so the table is refreshed
+     * from it without re-running the rule.
+     */
+    private TaskView displayedView;
+
+    /**
+     * The changes to the displayed view which have not yet been applied to the table, in order. Listeners of the view
+     * may be called on any thread, so the changes are queued and applied on the JavaFX thread.
+     */
+    private final Queue<ViewChange> pendingChanges = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the displayed view has been re-evaluated as a whole, so that the table must be loaded afresh rather than
+     * changed task by task.
+     */
+    private volatile boolean refreshPending;
+
+    /**
+     * Whether the pending changes have been scheduled to be applied but have not yet been.
+     */
+    private final AtomicBoolean displayPending = new AtomicBoolean();
+
     private TreeItem<String> ruleNode;
 
     private TreeItem<String> completionBehaviorNode;
@@ -108,60 +154,136 @@ public class MainWindowController
      */
     private void displayTasks()
     {
-        if (currentRule == null)
+        if (displayedView == null)
             identifyCurrentRule();
 
-        List<AbstractTask> passed;
-        if (!showCompletedTasks)
-            passed = Listr.getTasksMatchingRule(Rule.and(currentRule, Rule.negate(Listr.getRule("completed"))));
-        else
-            passed = Listr.getTasksMatchingRule(currentRule);
-        passed.sort(null);
+        List<AbstractTask> passed = displayedView.getTasks(currentOrder());
 
         ObservableList<AbstractTask> tasks = FXCollections.observableArrayList(passed);
         mainTaskList.setItems(tasks);
 
-        AtomicInteger count = new AtomicInteger(0);
-        @SuppressWarnings("unchecked")
-        TableColumn<AbstractTask, AbstractTask> checkMarks = (TableColumn<AbstractTask, AbstractTask>) mainTaskList
-                .getColumns()
-                .get(0);
+        tagsColumn.setVisible(tagColumnShowing);
+        completionBehaviorsColumn.setVisible(onCompletionColumnShowing);
+    }
 
-        checkMarks.setCellFactory(column -> {
-            CheckBoxTableCell<AbstractTask, AbstractTask> checkBox = new CheckBoxTableCell<>();
-            BooleanProperty selected;
-            if (count.intValue() >= passed.size())
-                selected = new SimpleBooleanProperty();
+    /**
+     * Applies the changes to the displayed view to the table, one task at a time: a task which entered the view is
+     * inserted where the order of the table puts it, a task which left is removed, and a task which was updated is
+     * replaced in place, or moved if its place in the order changed. The table is only loaded afresh when the whole
+     * view was re-evaluated.
+     */
+    private void applyPendingChanges()
+    {
+        displayPending.set(false);
+        if (refreshPending)
+        {
+            refreshPending = false;
+            pendingChanges.clear();
+            displayTasks();
+            return;
+        }
+
+        TaskOrder taskOrder = currentOrder();
+        Comparator<? super AbstractTask> order = taskOrder == null ? Comparator.naturalOrder() : taskOrder;
+        ObservableList<AbstractTask> items = mainTaskList.getItems();
+        ViewChange change;
+        while ((change = pendingChanges.poll()) != null)
+        {
+            if (change.view != displayedView)
+                continue;
+
+            // A change may already be shown by a reload of the table, so each is applied as the task's new state.
+            int index = indexOf(items, change.task, order);
+            if (change.kind == TaskView.Change.LEFT)
+            {
+                if (index >= 0)
+                    items.remove(index);
+            } else if (index >= 0 && isInOrder(items, index, change.task, order))
+                items.set(index, change.task);
             else
-                selected = new SimpleBooleanProperty(
-                        mainTaskList.getItems().get(count.getAndIncrement()).isCompleted());
+            {
+                if (index >= 0)
+                    items.remove(index);
+                items.add(insertionPoint(items, change.task, order), change.task);
+            }
+        }
+    }
 
-            checkBox.setSelectedStateCallback(callback -> selected);
-            selected.addListener((observable, oldValue, newValue) -> {
-                AbstractTask corresponding = mainTaskList.getItems().get(checkBox.getIndex());
-                if (corresponding.isCompleted() != newValue)
-                {
-                    corresponding.setCompleted(newValue);
-                    displayTasks();
-                }
-            });
-            return checkBox;
-        });
-        /*checkMarks.setCellFactory(CheckBoxTableCell.forTableColumn(checkMarks));
-        checkMarks.setCellValueFactory(new PropertyValueFactory<>("completed"));
-        checkMarks.setEditable(true);
-        checkMarks.setCellFactory(item -> new CheckBoxTableCell());
-        checkMarks.setCellValueFactory(new PropertyValueFactory<>("completed"));*/
-
-        // Tags
-        @SuppressWarnings("unchecked")
-        TableColumn<AbstractTask, String> tags = (TableColumn<AbstractTask, String>) mainTaskList.getColumns().get(3);
-        tags.setVisible(tagColumnShowing);
-
-        @SuppressWarnings("unchecked")
-        TableColumn<AbstractTask, String> completionBehaviors = (TableColumn<AbstractTask, String>) mainTaskList
-                .getColumns().get(4);
-        completionBehaviors.setVisible(onCompletionColumnShowing);
+    /**
+     * Finds a task in the table by binary search on its current fields, falling back to a scan of the table if the
+     * task has moved in the order since it was placed.
+     *
+     * @return The index of {@code task} in {@code items}, or -1 if it is not displayed.
+     */
+    private static int indexOf(List<AbstractTask> items, AbstractTask task, Comparator<? super AbstractTask> order)
+    {
+        int found = Collections.binarySearch(items, task, order);
+        if (found >= 0)
+        {
+            for (int i = found; i >= 0 && order.compare(items.get(i), task) == 0; i--)
+                if (items.get(i) == task)
+                    return i;
+            for (int i = found + 1; i < items.size() && order.compare(items.get(i), task) == 0; i++)
+                if (items.get(i) == task)
+                    return i;
+        }
+
+        for (int i = 0; i < items.size(); i++)
+            if (items.get(i) == task)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return Whether {@code task} belongs at {@code index} of {@code items} in the order of the table.
+     */
+    private static boolean isInOrder(List<AbstractTask> items, int index, AbstractTask task,
+                                     Comparator<? super AbstractTask> order)
+    {
+        return (index == 0 || order.compare(items.get(index - 1), task) <= 0) &&
+                (index == items.size() - 1 || order.compare(task, items.get(index + 1)) <= 0);
+    }
+
+    /**
+     * @return The index after every task in {@code items} which comes before or ties with {@code task}.
+     */
+    private static int insertionPoint(List<AbstractTask> items, AbstractTask task,
+                                      Comparator<? super AbstractTask> order)
+    {
+        int low = 0;
+        int high = items.size();
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (order.compare(items.get(middle), task) <= 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Translates the sort order of the table into a {@link TaskOrder}, so that sorting goes through Listr's sort keys
+     * rather than comparing the tasks' cell values. Each sortable column holds its {@link TaskOrder.Column} as its
+     * user data (see {@link MainWindowController#captureColumns()}); the completion behavior column is not sortable.
+     *
+     * @return The order of the sorted columns, or null if no sortable column is sorted.
+     */
+    private TaskOrder currentOrder()
+    {
+        TaskOrder order = null;
+        for (TableColumn<AbstractTask, ?> column : mainTaskList.getSortOrder())
+        {
+            if (!(column.getUserData() instanceof TaskOrder.Column))
+                continue;
+
+            TaskOrder.Column sortedBy = (TaskOrder.Column) column.getUserData();
+
+            boolean ascending = column.getSortType() == TableColumn.SortType.ASCENDING;
+            order = order == null ? TaskOrder.by(sortedBy, ascending) : order.then(sortedBy, ascending);
+        }
+        return order;
     }
 
     /**
@@ -226,12 +348,22 @@ public class MainWindowController
         showCompletedTasksCheckbox.setOnAction(event ->
         {
             showCompletedTasks = showCompletedTasksCheckbox.isSelected();
+            updateDisplayedView();
             displayTasks();
         });
 
         behaviorTreeView.setEditable(false);
         updateSidebar();
 
+        captureColumns();
+        initializeCheckMarksColumn();
+        mainTaskList.setSortPolicy(table ->
+        {
+            if (displayedView != null)
+                table.getItems().setAll(displayedView.getTasks(currentOrder()));
+            return true;
+        });
+
 
         initializeDueDatesColumn();
         initializeNamesColumn();
@@ -239,22 +371,60 @@ public class MainWindowController
         initializeCompletionBehaviorsColumn();
     }
 
+    /**
+     * Takes the columns from the table, in the order of the FXML (completed, date, name, tags and completion
+     * behavior), and gives each sortable column the {@link TaskOrder.Column} by which it sorts the tasks.
+     */
+    @SuppressWarnings("unchecked")
+    private void captureColumns()
+    {
+        List<TableColumn<AbstractTask, ?>> columns = mainTaskList.getColumns();
+        checkMarksColumn = (TableColumn<AbstractTask, AbstractTask>) columns.get(0);
+        dueDatesColumn = (TableColumn<AbstractTask, String>) columns.get(1);
+        namesColumn = (TableColumn<AbstractTask, String>) columns.get(2);
+        tagsColumn = (TableColumn<AbstractTask, String>) columns.get(3);
+        completionBehaviorsColumn = (TableColumn<AbstractTask, String>) columns.get(4);
+
+        checkMarksColumn.setUserData(TaskOrder.Column.COMPLETION);
+        dueDatesColumn.setUserData(TaskOrder.Column.DUE_DATE);
+        namesColumn.setUserData(TaskOrder.Column.NAME);
+        tagsColumn.setUserData(TaskOrder.Column.TAG_COUNT);
+        completionBehaviorsColumn.setSortable(false);
+    }
+
+    /**
+     * Binds each check box of the completion column to the completion flag of the task in its row, in both directions.
+     */
+    private void initializeCheckMarksColumn()
+    {
+        checkMarksColumn.setCellFactory(column -> {
+            CheckBoxTableCell<AbstractTask, AbstractTask> checkBox = new CheckBoxTableCell<>();
+            checkBox.setSelectedStateCallback(index -> {
+                AbstractTask task = mainTaskList.getItems().get(index);
+                BooleanProperty selected = new SimpleBooleanProperty(task.isCompleted());
+                selected.addListener((observable, oldValue, newValue) -> {
+                    if (task.isCompleted() != newValue)
+                        task.setCompleted(newValue);
+                });
+                return selected;
+            });
+            return checkBox;
+        });
+    }
+
     /**
      * Sets the due date factories to the getDueString method in the {@link AbstractTask}s. Allows due dates to be
      * updated.
      * If the task is a {@link SimpleTask} and the user changes its due date to "Eventually," then a new DatelessTask
      * is created which has the same other properties. Conversely, if a {@link DatelessTask} is given a concrete due
-     * date, then a SimpleTask is created with the specified due date, and all other properties the same.
+     * date, then a SimpleTask is created with the specified due date, and all other properties the same. Either way,
+     * the new task keeps the identifier of the old one, and takes its place in Listr.
      */
     private void initializeDueDatesColumn()
     {
-        // Due dates
-        @SuppressWarnings("unchecked")
-        TableColumn<AbstractTask, String> dueDates = (TableColumn<AbstractTask, String>) mainTaskList.getColumns().get(
-                1);
-        dueDates.setCellFactory(TextFieldTableCell.forTableColumn());
-        dueDates.setCellValueFactory(new PropertyValueFactory<>("dueString"));
-        dueDates.setOnEditCommit(event -> {
+        dueDatesColumn.setCellFactory(TextFieldTableCell.forTableColumn());
+        dueDatesColumn.setCellValueFactory(new PropertyValueFactory<>("dueString"));
+        dueDatesColumn.setOnEditCommit(event -> {
                     AbstractTask task = event.getRowValue();
                     try
                     {
@@ -262,41 +432,34 @@ public class MainWindowController
                         if (parser.hasNext(Pattern.quote("Eventually")))
                         {
                             if (task instanceof SimpleTask)
-                            {
-                                Listr.removeTask(task);
-                                Listr.addTask(new DatelessTask(task));
-                            }
+                                Listr.replaceTask(task, new DatelessTask(task));
                         } else
                         {
-                            AbstractTask newTask;
-                            if (task instanceof DatelessTask)
-                            {
-                                newTask = new SimpleTask(task);
-                            } else
-                                newTask = task;
-
                             parser.useDelimiter(Pattern.quote("-"));
 
                             int year = parser.nextInt();
                             int month = parser.nextInt();
                             int day_of_month = parser.nextInt();
+                            int dueDay = AbstractTask.toEpochDay(year, month - 1, day_of_month);
 
-                            newTask.getDueDate().set(Calendar.YEAR, year);
-                            newTask.getDueDate().set(Calendar.MONTH, month - 1);
-                            newTask.getDueDate().set(Calendar.DAY_OF_MONTH, day_of_month);
-
-                            Listr.removeTask(task);
-                            Listr.addTask(newTask);
+                            if (task instanceof DatelessTask)
+                            {
+                                AbstractTask newTask = new SimpleTask(task);
+                                newTask.setDueEpochDay(dueDay);
+                                Listr.replaceTask(task, newTask);
+                            } else
+                                task.setDueEpochDay(dueDay);
                         }
                     } catch (NoSuchElementException e)
                     {
                         System.err.println("Formatting of date is incorrect in user attempt to edit task " +
                                 task.getName() + " date graphically.");
+                        displayTasks();
                     } catch (Exception e)
                     {
                         e.printStackTrace();
+                        displayTasks();
                     }
-                    displayTasks();
                 }
         );
     }
@@ -306,11 +469,9 @@ public class MainWindowController
      */
     private void initializeNamesColumn()
     {
-        @SuppressWarnings("unchecked")
-        TableColumn<AbstractTask, String> names = (TableColumn<AbstractTask, String>) mainTaskList.getColumns().get(2);
-        names.setCellFactory(TextFieldTableCell.forTableColumn());
-        names.setCellValueFactory(new PropertyValueFactory<>("name"));
-        names.setOnEditCommit(event -> event.getRowValue().setName(event.getNewValue()));
+        namesColumn.setCellFactory(TextFieldTableCell.forTableColumn());
+        namesColumn.setCellValueFactory(new PropertyValueFactory<>("name"));
+        namesColumn.setOnEditCommit(event -> event.getRowValue().setName(event.getNewValue()));
         displayTasks();
     }
 
@@ -325,10 +486,8 @@ public class MainWindowController
      */
     private void initializeTagsColumn()
     {
-        @SuppressWarnings("unchecked")
-        TableColumn<AbstractTask, String> tags = (TableColumn<AbstractTask, String>) mainTaskList.getColumns().get(3);
-        tags.setCellFactory(TextFieldTableCell.forTableColumn());
-        tags.setCellValueFactory(task -> {
+        tagsColumn.setCellFactory(TextFieldTableCell.forTableColumn());
+        tagsColumn.setCellValueFactory(task -> {
             Set<Tag> theseTags = task.getValue().getTags();
             String labels = "";
             for (Tag current : theseTags)
@@ -336,7 +495,7 @@ public class MainWindowController
 
             return new SimpleStringProperty(labels.trim());
         });
-        tags.setOnEditCommit(event -> {
+        tagsColumn.setOnEditCommit(event -> {
             AbstractTask task = event.getRowValue();
             try (Scanner parser = new Scanner(event.getNewValue()))
             {
@@ -349,23 +508,21 @@ public class MainWindowController
             {
                 System.err.println("Formatting of tags in graphical edit of user task " +
                         event.getRowValue().getName() + " is incorrect.");
+                displayTasks();
             } catch (Exception e)
             {
                 e.printStackTrace();
+                displayTasks();
             }
-            displayTasks();
         });
     }
 
     private void initializeCompletionBehaviorsColumn()
     {
-        @SuppressWarnings("unchecked")
-        TableColumn<AbstractTask, String> completionBehaviors = (TableColumn<AbstractTask, String>) mainTaskList
-                .getColumns().get(4);
-        completionBehaviors.setCellFactory(TextFieldTableCell.forTableColumn());
-        completionBehaviors.setCellValueFactory(
+        completionBehaviorsColumn.setCellFactory(TextFieldTableCell.forTableColumn());
+        completionBehaviorsColumn.setCellValueFactory(
                 task -> new SimpleStringProperty(task.getValue().getOnComplete().getClass().getSimpleName()));
-        completionBehaviors.setOnEditCommit(
+        completionBehaviorsColumn.setOnEditCommit(
                 event -> event.getRowValue().setOnComplete(Listr.getCompletionBehavior(event.getNewValue())));
         displayTasks();
     }
@@ -375,11 +532,9 @@ public class MainWindowController
     {
         if (key.getCode() == KeyCode.DELETE || key.getCode() == KeyCode.BACK_SPACE)
         {
-            List<AbstractTask> tasks = Listr.getAllTasks();
             AbstractTask selected = mainTaskList.getSelectionModel().getSelectedItem();
-            tasks = tasks.stream().filter(task -> task != selected).collect(Collectors.toList());
-            Listr.setTasks(tasks);
-            displayTasks();
+            if (selected != null)
+                Listr.removeTask(selected);
         }
     }
 
@@ -443,5 +598,60 @@ public class MainWindowController
     private void identifyCurrentRule()
     {
         currentRule = DynamicBehaviorEngine.processInput(taskListDefinition.getText());
+        updateDisplayedView();
+    }
+
+    /**
+     * Registers the view of the tasks to display, according to the current rule and whether completed tasks are
+     * shown, and refreshes the table whenever the view changes.
+     */
+    private void updateDisplayedView()
+    {
+        Rule displayed = currentRule;
+        if (!showCompletedTasks)
+            displayed = Rule.and(currentRule, Rule.negate(Listr.getRule("completed")));
+
+        displayedView = Listr.registerView(displayedViewName, displayed);
+        displayedView.addListener(new TaskView.Listener()
+        {
+            @Override public void viewChanged(TaskView view, AbstractTask task, TaskView.Change change)
+            {
+                pendingChanges.add(new ViewChange(view, task, change));
+                scheduleDisplay();
+            }
+
+            @Override public void viewRefreshed(TaskView view)
+            {
+                refreshPending = true;
+                scheduleDisplay();
+            }
+        });
+    }
+
+    /**
+     * Applies the pending changes to the table once the current event has been handled, so that a burst of changes
+     * to the displayed view is applied in one go.
+     */
+    private void scheduleDisplay()
+    {
+        if (displayPending.compareAndSet(false, true))
+            Platform.runLater(this::applyPendingChanges);
+    }
+
+    /**
+     * A change to a view, waiting to be applied to the table.
+     */
+    private static final class ViewChange
+    {
+        private final TaskView view;
+        private final AbstractTask task;
+        private final TaskView.Change kind;
+
+        ViewChange(TaskView view, AbstractTask task, TaskView.Change kind)
+        {
+            this.view = view;
+            this.task = task;
+            this.kind = kind;
+        }
     }
 }
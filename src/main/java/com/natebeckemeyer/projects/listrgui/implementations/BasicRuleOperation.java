@@ -39,7 +39,7 @@ public enum BasicRuleOperation implements RuleOperation
             {
                 @Override public Rule performOperation(Rule a, Rule b)
                 {
-                    return Rule.and(a, Rule.negate(b));
+                    return Rule.difference(a, b);
                 }
             },
 
@@ -51,7 +51,7 @@ public enum BasicRuleOperation implements RuleOperation
             {
                 @Override public Rule performOperation(Rule a, Rule b)
                 {
-                    return Rule.and(Rule.or(a, b), Rule.negate(Rule.and(a, b)));
+                    return Rule.symmetricDifference(a, b);
                 }
             },;
 
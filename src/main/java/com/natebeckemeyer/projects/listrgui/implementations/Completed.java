@@ -2,13 +2,14 @@ package com.natebeckemeyer.projects.listrgui.implementations;
 
 import com.natebeckemeyer.projects.listrgui.core.AbstractTask;
 import com.natebeckemeyer.projects.listrgui.core.Rule;
+import com.natebeckemeyer.projects.listrgui.core.ThreadSafeRule;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-06-20.
  * <p>
  * This {@link Rule} returns true for all predicates for which {@link AbstractTask#isCompleted()} returns true.
  */
-public class Completed implements Rule
+public class Completed implements ThreadSafeRule
 {
     /**
      * @return The name of the rule; this is both the name that will be displayed and used to identify the rule in the
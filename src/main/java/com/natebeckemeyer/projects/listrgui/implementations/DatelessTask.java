@@ -5,7 +5,6 @@ import com.natebeckemeyer.projects.listrgui.core.CompletionBehavior;
 import com.natebeckemeyer.projects.listrgui.core.Listr;
 
 import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
@@ -15,16 +14,11 @@ import java.util.regex.Pattern;
 public class DatelessTask extends AbstractTask
 {
     /**
-     * Sets the due date for this task to Integer.MIN_VALUE for each field.
+     * Clears the due date for this task, setting it to {@link AbstractTask#NO_DUE_DATE}.
      */
     private void setDueDate()
     {
-        if (this.due == null)
-            this.due = new GregorianCalendar();
-
-        this.due.set(Calendar.YEAR, Integer.MIN_VALUE);
-        this.due.set(Calendar.MONTH, Integer.MIN_VALUE);
-        this.due.set(Calendar.DAY_OF_MONTH, Integer.MIN_VALUE);
+        this.dueDay = NO_DUE_DATE;
     }
 
     /**
@@ -55,14 +49,11 @@ public class DatelessTask extends AbstractTask
     }
 
     /**
-     * Returns the due date of the item in Calendar form. This calendar object is generated
-     * when this object is instantiated, and is therefore subject to the locale at that time.
-     *
-     * @return The calendar object containing the due date.
+     * @return {@link AbstractTask#NO_DUE_DATE}, as this task is never due.
      */
-    @Override public Calendar getDueDate()
+    @Override public int getDueEpochDay()
     {
-        return due;
+        return NO_DUE_DATE;
     }
 
     /**
@@ -90,19 +81,22 @@ public class DatelessTask extends AbstractTask
      */
     @Override public String serialize()
     {
-        StringBuilder tags = new StringBuilder("");
+        StringBuilder line = new StringBuilder(64).append(isCompleted()).append('|');
+
+        String separator = "";
         for (Tag tag : getTags())
         {
-            tags.append(tag.toString());
-            tags.append(" ");
+            line.append(separator).append(tag);
+            separator = " ";
         }
 
         String onCompleteOut = onComplete.convertToString();
         if (onCompleteOut == null || onCompleteOut.isEmpty())
             onCompleteOut = " ";
 
-        return String.format("%b|%s|%s|%s|%s", isCompleted(), tags.toString().trim(),
-                getOnComplete().getClass().getSimpleName(), onCompleteOut, getName());
+        line.append('|').append(onComplete.getClass().getSimpleName());
+        line.append('|').append(onCompleteOut);
+        return line.append('|').append(getName()).toString();
     }
 
     /**
@@ -0,0 +1,105 @@
+package com.natebeckemeyer.projects.listrgui.implementations;
+
+import com.natebeckemeyer.projects.listrgui.core.DueDateRule;
+import com.natebeckemeyer.projects.listrgui.core.QueryContext;
+import com.natebeckemeyer.projects.listrgui.core.ThreadSafeRule;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-07-20.
+ * <p>
+ * This {@link DueDateRule} matches the tasks due within an explicit range of dates. It is written in a rule as
+ * {@code due:2016-01-01..2016-03-31}; either end may be omitted to leave the range open on that side, as in
+ * {@code due:..2016-03-31}, and a single date, as in {@code due:2016-01-01}, matches only that day.
+ */
+public class DueRange implements DueDateRule, ThreadSafeRule
+{
+    /**
+     * The prefix which identifies a due-date range in the text of a rule.
+     */
+    public static final String prefix = "due:";
+
+    /**
+     * The separator between the two ends of the range.
+     */
+    private static final String separator = "..";
+
+    /**
+     * The first day of the range, inclusive.
+     */
+    private final int earliest;
+
+    /**
+     * The last day of the range, inclusive.
+     */
+    private final int latest;
+
+    /**
+     * Creates a range rule matching tasks due between the two days supplied.
+     *
+     * @param earliest The first day (in days since the epoch) of the range, inclusive.
+     * @param latest   The last day (in days since the epoch) of the range, inclusive.
+     */
+    public DueRange(int earliest, int latest)
+    {
+        this.earliest = earliest;
+        this.latest = latest;
+    }
+
+    /**
+     * Parses a range of the form {@code due:yyyy-mm-dd..yyyy-mm-dd}.
+     *
+     * @param text The text of the range, including the {@link DueRange#prefix}.
+     * @return The corresponding rule.
+     * @throws DateTimeParseException if either date is malformed.
+     */
+    public static DueRange parse(String text)
+    {
+        String range = text.startsWith(prefix) ? text.substring(prefix.length()) : text;
+
+        int split = range.indexOf(separator);
+        if (split < 0)
+        {
+            int day = parseDay(range, Integer.MIN_VALUE);
+            return new DueRange(day, day);
+        }
+
+        return new DueRange(parseDay(range.substring(0, split), Integer.MIN_VALUE),
+                parseDay(range.substring(split + separator.length()), Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param date        The ISO date to parse, or an empty string.
+     * @param unspecified The value to return if {@code date} is empty.
+     * @return The number of days since the epoch of {@code date}.
+     */
+    private static int parseDay(String date, int unspecified)
+    {
+        if (date.isEmpty())
+            return unspecified;
+
+        return (int) LocalDate.parse(date).toEpochDay();
+    }
+
+    @Override public int getEarliestDay(QueryContext context)
+    {
+        return earliest;
+    }
+
+    @Override public int getLatestDay(QueryContext context)
+    {
+        return latest;
+    }
+
+    /**
+     * @return The range in the same form from which it was parsed.
+     */
+    @Override public String toString()
+    {
+        String from = earliest == Integer.MIN_VALUE ? "" : LocalDate.ofEpochDay(earliest).toString();
+        String to = latest == Integer.MAX_VALUE ? "" : LocalDate.ofEpochDay(latest).toString();
+        return prefix + from + separator + to;
+    }
+}
@@ -4,8 +4,8 @@ import com.natebeckemeyer.projects.listrgui.core.AbstractTask;
 import com.natebeckemeyer.projects.listrgui.core.CompletionBehavior;
 import com.natebeckemeyer.projects.listrgui.core.Listr;
 
+import java.time.LocalDate;
 import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
@@ -30,48 +30,27 @@ public class SimpleTask extends AbstractTask
     }
 
     /**
-     * Copies the instance fields of implementations {@code other} into a new implementations.
+     * Constructs a implementations named {@code name}, due on the day specified {@code dueDay}. The
+     * implementations is created with the
+     * completion behavior specified by the {@code onComplete} object.
      *
-     * @param other The implementations to copy.
-     */
-    public SimpleTask(AbstractTask other)
-    {
-        super(other);
-    }
-
-    /**
-     * @return The year that the task is scheduled to be completed.
-     */
-    private int getDueYear()
-    {
-        return due.get(Calendar.YEAR);
-    }
-
-    /**
-     * @return The month of the year that the task is scheduled to be completed (on a 0-11 scale).
-     */
-    private int getDueMonth()
-    {
-        return due.get(Calendar.MONTH);
-    }
-
-    /**
-     * @return The day of the month that the task is scheduled to be completed.
+     * @param name       The name of the implementations
+     * @param dueDay     The due date of the implementations as a number of days since the epoch (1970-01-01).
+     * @param onComplete The specified completion behavior.
      */
-    private int getDueDay()
+    public SimpleTask(String name, int dueDay, CompletionBehavior onComplete)
     {
-        return due.get(Calendar.DAY_OF_MONTH);
+        super(name, dueDay, onComplete);
     }
 
     /**
-     * Returns the due date of the item in Calendar form. This calendar object is generated
-     * when this object is instantiated, and is therefore subject to the locale at that time.
+     * Copies the instance fields of implementations {@code other} into a new implementations.
      *
-     * @return The calendar object containing the due date.
+     * @param other The implementations to copy.
      */
-    @Override public Calendar getDueDate()
+    public SimpleTask(AbstractTask other)
     {
-        return due;
+        super(other);
     }
 
     /**
@@ -79,7 +58,7 @@ public class SimpleTask extends AbstractTask
      */
     @Override public String getDueString()
     {
-        return String.format("%04d-%02d-%02d", getDueYear(), getDueMonth() + 1, getDueDay());
+        return LocalDate.ofEpochDay(dueDay).toString();
     }
 
     @Override
@@ -97,21 +76,23 @@ public class SimpleTask extends AbstractTask
      */
     @Override public String serialize()
     {
-        StringBuilder tags = new StringBuilder("");
+        StringBuilder line = appendSerializedDate(new StringBuilder(64), dueDay);
+        line.append(isCompleted()).append('|');
+
+        String separator = "";
         for (Tag tag : getTags())
         {
-            tags.append(tag.toString());
-            tags.append(" ");
+            line.append(separator).append(tag);
+            separator = " ";
         }
 
         String onCompleteOut = onComplete.convertToString();
         if (onCompleteOut == null || onCompleteOut.isEmpty())
             onCompleteOut = " ";
 
-
-        return String.format("%04d|%02d|%02d|%b|%s|%s|%s|%s",
-                getDueYear(), getDueMonth(), getDueDay(), isCompleted(),
-                tags.toString().trim(), getOnComplete().getClass().getSimpleName(), onCompleteOut, getName());
+        line.append('|').append(onComplete.getClass().getSimpleName());
+        line.append('|').append(onCompleteOut);
+        return line.append('|').append(getName()).toString();
     }
 
     /**
@@ -124,7 +105,7 @@ public class SimpleTask extends AbstractTask
         Scanner parser = new Scanner(serialization);
         parser.useDelimiter(Pattern.quote("|"));
 
-        due = new GregorianCalendar(parser.nextInt(), parser.nextInt(), parser.nextInt());
+        dueDay = toEpochDay(parser.nextInt(), parser.nextInt(), parser.nextInt());
         completed = parser.nextBoolean();
 
         Scanner labelParser = new Scanner(parser.next());
@@ -2,35 +2,73 @@ package com.natebeckemeyer.projects.listrgui.implementations;
 
 import com.natebeckemeyer.projects.listrgui.core.AbstractTask;
 import com.natebeckemeyer.projects.listrgui.core.Rule;
+import com.natebeckemeyer.projects.listrgui.core.ThreadSafeRule;
 
-import java.util.HashMap;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-04-28.
  * <p>
- * Tags should be obtained through the getTag method.
+ * Tags should be obtained through the getTag method. Each tag is given a dense integer id when it is first created,
+ * so that tasks can order and search their tags by id.
+ * <p>
+ * The registry of tags only holds them weakly: a tag that no task, rule or window refers to any more is reclaimed
+ * by the garbage collector, and its name and id become free for reuse. Looking a tag up by name with
+ * {@link Tag#findTag(String)} or {@link Tag#lookup(String)} never creates it, so that searching for words which are
+ * not tags does not grow the registry. The registry is safe to use from multiple threads.
  */
-public class Tag implements Rule
+public class Tag implements ThreadSafeRule
 {
     /**
-     * The mapping from the name to the tag for all used tags.
+     * The mapping from the name to a weak reference to the tag, for all tags which may still be in use.
+     */
+    private static final ConcurrentMap<String, TagReference> tags = new ConcurrentHashMap<>();
+
+    /**
+     * The queue onto which the references to reclaimed tags are placed, so that their entries can be removed.
+     */
+    private static final ReferenceQueue<Tag> reclaimed = new ReferenceQueue<>();
+
+    /**
+     * The ids of reclaimed tags, available for reuse; the first {@link Tag#freeIdCount} entries are valid.
+     */
+    private static int[] freeIds = new int[16];
+
+    /**
+     * The number of valid entries in {@link Tag#freeIds}.
+     */
+    private static int freeIdCount = 0;
+
+    /**
+     * The number of ids ever handed out; every id below this is either in use or free.
      */
-    private static HashMap<String, Tag> tags = new HashMap<>();
+    private static int idCount = 0;
 
     /**
      * The name of the tag. Note that this name can only contain alphabetic characters.
      */
-    private String name;
+    private final String name;
+
+    /**
+     * The id of the tag: a small non-negative integer, unique among the tags in use.
+     */
+    private final int id;
 
     /**
      * Access is private to disable the repeated instantiation of the same tag; use Tag.getTag(String name) instead.
      * Creates a tag with name {@code name}. Can only contain lower-case alphabetic characters and a hyphen.
      *
      * @param name The name to give the tag
+     * @param id   The id to give the tag
      */
-    private Tag(String name)
+    private Tag(String name, int id)
     {
         this.name = name;
+        this.id = id;
     }
 
     /**
@@ -41,15 +79,71 @@ public class Tag implements Rule
      */
     public static Tag getTag(String name)
     {
-        Tag returned = tags.get(name);
+        expungeReclaimed();
 
-        if (returned == null)
+        while (true)
         {
-            returned = new Tag(name);
-            tags.put(name, returned);
+            TagReference existing = tags.get(name);
+            Tag returned = existing == null ? null : existing.get();
+            if (returned != null)
+                return returned;
+
+            Tag created = new Tag(name, allocateId());
+            TagReference reference = new TagReference(created, reclaimed);
+            if (existing == null ? tags.putIfAbsent(name, reference) == null : tags.replace(name, existing, reference))
+                return created;
+
+            // Another thread created the tag first; discard this one without letting it be enqueued.
+            reference.clear();
+            releaseId(created.id);
         }
+    }
 
-        return returned;
+    /**
+     * Returns the tag of the name provided, if it exists. Unlike {@link Tag#getTag(String)}, this never creates a
+     * tag.
+     *
+     * @param name The name of the tag
+     * @return The corresponding tag, or null if no tag of that name is in use.
+     */
+    public static Tag findTag(String name)
+    {
+        expungeReclaimed();
+
+        TagReference existing = tags.get(name);
+        return existing == null ? null : existing.get();
+    }
+
+    /**
+     * Returns a rule matching the tasks that contain the tag of the name provided, without creating the tag. If the
+     * tag exists, it is returned itself; otherwise, the returned rule looks the tag up again whenever it is tested, so
+     * that it matches the tag once some task is given it.
+     *
+     * @param name The name of the tag
+     * @return A rule for the tag.
+     */
+    public static Rule lookup(String name)
+    {
+        Tag existing = findTag(name);
+        return existing == null ? new Unresolved(name) : existing;
+    }
+
+    /**
+     * @return The number of tags in the registry. Tags which are no longer referenced are counted until the garbage
+     * collector has reclaimed them.
+     */
+    public static int getRegistrySize()
+    {
+        expungeReclaimed();
+        return tags.size();
+    }
+
+    /**
+     * @return The id of this tag: a small non-negative integer, unique among the tags in use.
+     */
+    public int getId()
+    {
+        return id;
     }
 
     /**
@@ -70,4 +164,93 @@ public class Tag implements Rule
     {
         return task.contains(this);
     }
+
+    /**
+     * Removes the entries of reclaimed tags from the registry, and frees their ids.
+     */
+    private static void expungeReclaimed()
+    {
+        TagReference reference;
+        while ((reference = (TagReference) reclaimed.poll()) != null)
+        {
+            tags.remove(reference.name, reference);
+            releaseId(reference.id);
+        }
+    }
+
+    /**
+     * @return A free id.
+     */
+    private static synchronized int allocateId()
+    {
+        if (freeIdCount > 0)
+            return freeIds[--freeIdCount];
+
+        return idCount++;
+    }
+
+    /**
+     * @param id An id no longer used by any tag.
+     */
+    private static synchronized void releaseId(int id)
+    {
+        if (freeIdCount == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+
+        freeIds[freeIdCount++] = id;
+    }
+
+    /**
+     * A weak reference to a tag in the registry, which remembers the name and id of the tag after it is reclaimed.
+     */
+    private static final class TagReference extends WeakReference<Tag>
+    {
+        private final String name;
+        private final int id;
+
+        TagReference(Tag tag, ReferenceQueue<Tag> queue)
+        {
+            super(tag, queue);
+            this.name = tag.name;
+            this.id = tag.id;
+        }
+    }
+
+    /**
+     * The rule returned by {@link Tag#lookup(String)} for a tag that did not exist when it was looked up.
+     */
+    public static final class Unresolved implements ThreadSafeRule
+    {
+        /**
+         * The name of the tag.
+         */
+        private final String name;
+
+        /**
+         * @param name The name of the tag.
+         */
+        private Unresolved(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * @return The tag of this rule's name, or null if it still does not exist.
+         */
+        public Tag resolve()
+        {
+            return findTag(name);
+        }
+
+        @Override public boolean test(AbstractTask task)
+        {
+            Tag tag = resolve();
+            return tag != null && task.contains(tag);
+        }
+
+        @Override public String toString()
+        {
+            return name;
+        }
+    }
 }
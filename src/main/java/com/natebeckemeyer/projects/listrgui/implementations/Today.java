@@ -1,25 +1,28 @@
 package com.natebeckemeyer.projects.listrgui.implementations;
 
-import com.natebeckemeyer.projects.listrgui.core.AbstractTask;
-import com.natebeckemeyer.projects.listrgui.core.Rule;
-
-import java.util.GregorianCalendar;
+import com.natebeckemeyer.projects.listrgui.core.DueDateRule;
+import com.natebeckemeyer.projects.listrgui.core.QueryContext;
+import com.natebeckemeyer.projects.listrgui.core.ThreadSafeRule;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-05-11.
  */
-public class Today implements Rule
+public class Today implements DueDateRule, ThreadSafeRule
 {
     /**
-     * Returns true if the task is due today or before today.
-     *
-     * @param task the task to check against
-     * @return {@code true} if the task is due before tomorrow,
-     * otherwise {@code false}
+     * @return No lower bound: overdue tasks are still due today.
+     */
+    @Override public int getEarliestDay(QueryContext context)
+    {
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return Today, so that the rule matches tasks due today or before today.
      */
-    @Override public boolean test(AbstractTask task)
+    @Override public int getLatestDay(QueryContext context)
     {
-        return new GregorianCalendar().compareTo(task.getDueDate()) >= 0;
+        return context.getToday();
     }
 
     @Override public String toString()
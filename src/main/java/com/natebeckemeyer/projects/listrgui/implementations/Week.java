@@ -1,15 +1,13 @@
 package com.natebeckemeyer.projects.listrgui.implementations;
 
-import com.natebeckemeyer.projects.listrgui.core.AbstractTask;
-import com.natebeckemeyer.projects.listrgui.core.Rule;
-
-import java.util.Calendar;
-import java.util.GregorianCalendar;
+import com.natebeckemeyer.projects.listrgui.core.DueDateRule;
+import com.natebeckemeyer.projects.listrgui.core.QueryContext;
+import com.natebeckemeyer.projects.listrgui.core.ThreadSafeRule;
 
 /**
  * Created for Listr by @author Nate Beckemeyer on 2016-06-08.
  */
-public class Week implements Rule
+public class Week implements DueDateRule, ThreadSafeRule
 {
     @Override public String toString()
     {
@@ -17,17 +15,18 @@ public class Week implements Rule
     }
 
     /**
-     * Returns true if the task is due before the end of the week
-     *
-     * @param task the task to be tested
-     * @return {@code true} if the task is due before the end of the week,
-     * otherwise {@code false}
+     * @return No lower bound: overdue tasks are still due this week.
      */
-    @Override public boolean test(AbstractTask task)
+    @Override public int getEarliestDay(QueryContext context)
     {
-        Calendar nextWeek = new GregorianCalendar();
-        nextWeek.add(Calendar.WEEK_OF_YEAR, 1);
+        return Integer.MIN_VALUE;
+    }
 
-        return nextWeek.compareTo(task.getDueDate()) >= 0;
+    /**
+     * @return One week from today, so that the rule matches tasks due before the end of the week.
+     */
+    @Override public int getLatestDay(QueryContext context)
+    {
+        return context.getDaysFromToday(7);
     }
 }
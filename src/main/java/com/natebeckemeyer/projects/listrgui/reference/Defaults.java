@@ -53,6 +53,24 @@ public final class Defaults
      */
     private static boolean autoSaveAll;
 
+    /**
+     * How long, in milliseconds, to wait for changes to the tasks to stop before auto-saving them; 0 saves each
+     * change as it is made.
+     */
+    private static long autoSaveDelay;
+
+    /**
+     * The auto-save delay, in milliseconds, used when the one given in the preferences is not a number.
+     */
+    private static final long DEFAULT_AUTO_SAVE_DELAY = 750;
+
+    /**
+     * The flag that determines whether the auto-saved task file is written in the binary format rather than text. It
+     * is off by default, as turning it on converts the auto-saved file to binary the next time it is written in full,
+     * after which versions of Listr that only read text cannot load it; either format is read back regardless.
+     */
+    private static boolean binaryTaskFiles;
+
     /**
      * The flag that determines if the default file is loaded automatically.
      */
@@ -72,6 +90,23 @@ public final class Defaults
         return autoSaveAll;
     }
 
+    /**
+     * @return How long, in milliseconds, to wait for changes to the tasks to stop before auto-saving them; 0 if each
+     * change is saved as it is made.
+     */
+    public static long getAutoSaveDelay()
+    {
+        return autoSaveDelay;
+    }
+
+    /**
+     * @return Whether to write the auto-saved task file in the binary format, rather than text.
+     */
+    public static boolean getBinaryTaskFiles()
+    {
+        return binaryTaskFiles;
+    }
+
     /**
      * @return Whether to load the default task file on startup.
      */
@@ -176,7 +211,19 @@ public final class Defaults
     {
         handlers.put("auto-save-file", value -> defaultAutoFile = value);
         handlers.put("auto-save", value -> autoSaveAll = Boolean.parseBoolean(value));
+        handlers.put("auto-save-delay", value -> {
+            try
+            {
+                autoSaveDelay = Math.max(0, Long.parseLong(value.trim()));
+            } catch (NumberFormatException e)
+            {
+                System.err.println("Invalid auto-save-delay '" + value + "'; using " + DEFAULT_AUTO_SAVE_DELAY
+                        + " milliseconds.");
+                autoSaveDelay = DEFAULT_AUTO_SAVE_DELAY;
+            }
+        });
         handlers.put("auto-load", value -> autoLoadDefault = Boolean.parseBoolean(value));
+        handlers.put("binary-task-files", value -> binaryTaskFiles = Boolean.parseBoolean(value));
         handlers.put("completion-behavior", value -> completionBehavior = Listr.getCompletionBehavior(value)
                 .getClass());
     }
@@ -0,0 +1,298 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-07.
+ * <p>
+ * Changes the tasks of {@link Listr} from several threads at once (single changes, and batches which are sometimes
+ * rolled back) while other threads query them, then checks every index against a scan of the tasks: the posting list
+ * of each tag, the due-date buckets, the completed tasks, the sorted order, the identifiers and a view.
+ * <p>
+ * Each writer changes only the tasks it added, as tasks themselves are not safe to change from two threads at once;
+ * Listr is. Meanwhile the readers check what must hold at every moment: the two tasks which every batch renames
+ * together always have the same name in a snapshot, and there are always two of them.
+ */
+public class ListrStressTest
+{
+    private static final int WRITERS = 3;
+    private static final int READERS = 2;
+    private static final int CHANGES = 4000;
+    private static final int BATCHES = 400;
+    private static final int FIRST_DAY = 17000;
+    private static final int DAYS = 60;
+
+    private static final Tag[] TAGS = new Tag[8];
+    private static final Tag PAIR = Tag.getTag("stress-pair");
+
+    static
+    {
+        for (int i = 0; i < TAGS.length; i++)
+            TAGS[i] = Tag.getTag("stress" + i);
+    }
+
+    private final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+    private final Rule viewRule = Rule.and(TAGS[0], Rule.negate(new Completed()));
+    private TaskView view;
+
+    @Before public void setUp()
+    {
+        Listr.setTasks(new ArrayList<>());
+        view = Listr.registerView("stress", viewRule);
+    }
+
+    @After public void tearDown()
+    {
+        Listr.unregisterView("stress");
+        Listr.setTasks(new ArrayList<>());
+    }
+
+    @Test public void indexesMatchScanAfterConcurrentChanges() throws InterruptedException
+    {
+        AbstractTask first = new SimpleTask("pair 0", FIRST_DAY, new SimpleCompleted());
+        AbstractTask second = new SimpleTask("pair 0", FIRST_DAY, new SimpleCompleted());
+        first.addTag(PAIR);
+        second.addTag(PAIR);
+        Listr.addTasks(Arrays.asList(first, second));
+
+        List<List<AbstractTask>> owned = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++)
+        {
+            List<AbstractTask> tasks = new ArrayList<>();
+            owned.add(tasks);
+            writers.add(thread(new Random(i), random -> write(random, tasks)));
+        }
+        List<AbstractTask> batched = new ArrayList<>();
+        owned.add(batched);
+        writers.add(thread(new Random(WRITERS), random -> batch(random, batched, first, second)));
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++)
+            readers.add(thread(new Random(-1 - i), random -> {
+                while (writing.get())
+                    read(random);
+            }));
+
+        for (Thread thread : writers)
+            thread.start();
+        for (Thread thread : readers)
+            thread.start();
+        for (Thread thread : writers)
+            thread.join();
+        writing.set(false);
+        for (Thread thread : readers)
+            thread.join();
+
+        if (!errors.isEmpty())
+        {
+            AssertionError failure = new AssertionError("A thread failed", errors.peek());
+            errors.forEach(failure::addSuppressed);
+            throw failure;
+        }
+
+        Set<AbstractTask> expected = identitySet(Arrays.asList(first, second));
+        owned.forEach(expected::addAll);
+        List<AbstractTask> all = Listr.getAllTasks();
+        assertEquals(expected.size(), all.size());
+        assertEquals(expected, identitySet(all));
+
+        for (Tag tag : TAGS)
+            assertMatchesScan(tag, all);
+        assertMatchesScan(PAIR, all);
+        assertMatchesScan(new Completed(), all);
+        assertMatchesScan(Rule.negate(new Completed()), all);
+        for (int day = FIRST_DAY - 1; day <= FIRST_DAY + DAYS; day += 7)
+            assertMatchesScan(new DueRange(day, day + 10), all);
+        assertMatchesScan(new DueRange(Integer.MIN_VALUE, Integer.MAX_VALUE), all);
+
+        List<AbstractTask> sorted = Listr.getTasksMatchingRule(Rule.or(new Completed(), Rule.negate(new Completed())));
+        assertEquals(all.size(), sorted.size());
+        for (int i = 1; i < sorted.size(); i++)
+            assertTrue("Out of order at " + i, sorted.get(i - 1).compareTo(sorted.get(i)) <= 0);
+
+        for (AbstractTask task : all)
+            assertSame(task, Listr.getTask(task.getId()));
+
+        assertEquals(scan(viewRule, all), identitySet(view.getTasks()));
+        for (TaskRecord record : Listr.getSnapshot())
+        {
+            AbstractTask task = record.getTask();
+            assertEquals(task.getName(), record.getName());
+            assertEquals(task.getDueEpochDay(), record.getDueEpochDay());
+            assertEquals(task.isCompleted(), record.isCompleted());
+            assertEquals(new ArrayList<>(task.getTags()), record.getTags());
+        }
+    }
+
+    /**
+     * Makes random changes, one at a time, to the tasks which it adds.
+     */
+    private void write(Random random, List<AbstractTask> tasks)
+    {
+        for (int i = 0; i < CHANGES; i++)
+        {
+            int change = random.nextInt(8);
+            if (change < 2 || tasks.isEmpty())
+            {
+                AbstractTask task = randomTask(random);
+                Listr.addTask(task);
+                tasks.add(task);
+                continue;
+            }
+
+            AbstractTask task = tasks.get(random.nextInt(tasks.size()));
+            switch (change)
+            {
+                case 2:
+                    Listr.removeTask(tasks.remove(random.nextInt(tasks.size())));
+                    break;
+                case 3:
+                    task.setName("task " + random.nextInt(100));
+                    break;
+                case 4:
+                    task.setCompleted(!task.isCompleted());
+                    break;
+                case 5:
+                    task.setDueEpochDay(FIRST_DAY + random.nextInt(DAYS));
+                    break;
+                case 6:
+                    task.addTag(TAGS[random.nextInt(TAGS.length)]);
+                    break;
+                default:
+                    task.removeTag(TAGS[random.nextInt(TAGS.length)]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Runs batches which rename the pair of tasks and change the tasks which they add, failing some of them halfway.
+     */
+    private void batch(Random random, List<AbstractTask> tasks, AbstractTask first, AbstractTask second)
+    {
+        for (int generation = 1; generation <= BATCHES; generation++)
+        {
+            String name = "pair " + generation;
+            boolean fail = random.nextInt(4) == 0;
+            List<AbstractTask> added = new ArrayList<>();
+            try
+            {
+                Listr.batch(transaction -> {
+                    transaction.setName(first, name);
+                    for (int i = random.nextInt(5); i > 0; i--)
+                    {
+                        AbstractTask task = randomTask(random);
+                        transaction.add(task);
+                        added.add(task);
+                    }
+                    for (AbstractTask task : tasks)
+                        if (random.nextInt(8) == 0)
+                            transaction.addTag(task, TAGS[random.nextInt(TAGS.length)]);
+                    if (!tasks.isEmpty())
+                        transaction.setCompleted(tasks.get(random.nextInt(tasks.size())), random.nextBoolean());
+                    if (fail)
+                        throw new IllegalStateException("Rolled back");
+                    transaction.setName(second, name);
+                });
+                tasks.addAll(added);
+            } catch (IllegalStateException e)
+            {
+                if (!fail)
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Queries the tasks while they change, checking what must hold at every moment.
+     */
+    private void read(Random random)
+    {
+        String firstName = null;
+        int pairs = 0;
+        for (TaskRecord record : Listr.getSnapshot())
+        {
+            if (!record.getTags().contains(PAIR))
+                continue;
+
+            pairs++;
+            if (firstName == null)
+                firstName = record.getName();
+            else
+                assertEquals("A batch was seen half done", firstName, record.getName());
+        }
+        assertEquals(2, pairs);
+        assertEquals(2, Listr.getTasksMatchingRule(PAIR).size());
+
+        Tag tag = TAGS[random.nextInt(TAGS.length)];
+        Listr.getTasksMatchingRule(Rule.and(tag, new DueRange(FIRST_DAY, FIRST_DAY + random.nextInt(DAYS))));
+        Listr.getTasksMatchingRule(Rule.or(tag, new Completed()), TaskOrder.by(TaskOrder.Column.NAME, true));
+
+        TaskPage page = view.getPage(null, 0, 20);
+        for (int i = 0; i < 3 && page.hasNext(); i++)
+            page = page.next();
+        view.size();
+    }
+
+    private static AbstractTask randomTask(Random random)
+    {
+        AbstractTask task = random.nextInt(5) == 0 ?
+                new DatelessTask("task " + random.nextInt(100), null, new SimpleCompleted()) :
+                new SimpleTask("task " + random.nextInt(100), FIRST_DAY + random.nextInt(DAYS), new SimpleCompleted());
+        for (int i = random.nextInt(3); i > 0; i--)
+            task.addTag(TAGS[random.nextInt(TAGS.length)]);
+        return task;
+    }
+
+    private static void assertMatchesScan(Rule rule, List<AbstractTask> all)
+    {
+        assertEquals(rule.toString(), scan(rule, all), identitySet(Listr.getTasksMatchingRule(rule)));
+    }
+
+    /**
+     * @return The tasks which match the rule, found by testing every task rather than by the indexes.
+     */
+    private static Set<AbstractTask> scan(Rule rule, List<AbstractTask> all)
+    {
+        Set<AbstractTask> matches = identitySet(Collections.emptyList());
+        for (AbstractTask task : all)
+            if (rule.test(task))
+                matches.add(task);
+        return matches;
+    }
+
+    private static Set<AbstractTask> identitySet(Collection<AbstractTask> tasks)
+    {
+        Set<AbstractTask> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(tasks);
+        return set;
+    }
+
+    /**
+     * @return A thread running the work with its own random numbers, which records anything the work throws.
+     */
+    private Thread thread(Random random, Consumer<Random> work)
+    {
+        return new Thread(() -> {
+            try
+            {
+                work.accept(random);
+            } catch (Throwable e)
+            {
+                errors.add(e);
+            }
+        });
+    }
+}
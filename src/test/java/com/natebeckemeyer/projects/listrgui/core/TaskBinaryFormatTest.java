@@ -0,0 +1,149 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+
+import static com.natebeckemeyer.projects.listrgui.core.TaskJournalTest.lines;
+import static org.junit.Assert.*;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-04.
+ * <p>
+ * Writes binary task files with {@link TaskBinaryWriter} and reads them back with {@link TaskBinaryReader}: every
+ * saved field survives the trip across many blocks, a corrupt block loses only its own tasks, a file cut short keeps
+ * the tasks before the cut, and a file of another version is refused.
+ */
+public class TaskBinaryFormatTest
+{
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private List<AbstractTask> tasks;
+
+    @Before public void setUp() throws IOException
+    {
+        tasks = new ArrayList<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 20000; i++)
+        {
+            AbstractTask task = i % 4 == 0 ? new DatelessTask("dateless \u00e9\u540d " + i, (Calendar) null,
+                    new SimpleCompleted()) : new SimpleTask(i % 9 == 0 ? "" : "task " + i + " | piped", 16000 +
+                    random.nextInt(4000), i % 6 == 0 ? new VerboseCompleted() : new SimpleCompleted());
+            task.completed = random.nextBoolean();
+            if (i % 3 != 0)
+                task.setTags(Arrays.asList(Tag.getTag("binary-" + random.nextInt(30)), Tag.getTag("binary-all")));
+            tasks.add(task);
+        }
+
+        file = new File(folder.getRoot(), "tasks.dat");
+        try (TaskBinaryWriter writer = new TaskBinaryWriter(file))
+        {
+            for (AbstractTask task : tasks)
+                writer.write(TaskRecord.of(task));
+            writer.commit();
+        }
+    }
+
+    @Test public void roundTripsEveryField() throws IOException
+    {
+        assertTrue(TaskBinaryReader.isBinary(file));
+        assertTrue("the file should hold several blocks", blockStarts().size() > 3);
+
+        List<AbstractTask> read = TaskBinaryReader.readAll(file);
+        assertEquals(lines(tasks), lines(read));
+        for (int i = 0; i < tasks.size(); i++)
+            assertEquals(tasks.get(i).getClass(), read.get(i).getClass());
+    }
+
+    @Test public void skipsOnlyACorruptBlock() throws IOException
+    {
+        List<Long> blocks = blockStarts();
+        try (RandomAccessFile corrupt = new RandomAccessFile(file, "rw"))
+        {
+            long position = blocks.get(1) + 40;
+            corrupt.seek(position);
+            int value = corrupt.read();
+            corrupt.seek(position);
+            corrupt.write(value ^ 0x5A);
+        }
+
+        List<String> expected = lines(tasks);
+        List<String> read = lines(TaskBinaryReader.readAll(file));
+        assertTrue(read.size() < expected.size());
+        assertEquals(expected.get(expected.size() - 1), read.get(read.size() - 1));
+
+        // The tasks read are those written, in order, but for one run of them: those of the corrupt block.
+        int first = 0;
+        while (expected.get(first).equals(read.get(first)))
+            first++;
+        int missing = expected.size() - read.size();
+        assertTrue(first > 0);
+        assertEquals(expected.subList(first + missing, expected.size()), read.subList(first, read.size()));
+    }
+
+    @Test public void keepsTheTasksBeforeACut() throws IOException
+    {
+        try (RandomAccessFile cut = new RandomAccessFile(file, "rw"))
+        {
+            cut.setLength(file.length() / 2);
+        }
+
+        List<String> expected = lines(tasks);
+        List<String> read = lines(TaskBinaryReader.readAll(file));
+        assertFalse(read.isEmpty());
+        assertTrue(read.size() < expected.size());
+        assertEquals(expected.subList(0, read.size()), read);
+    }
+
+    @Test(expected = IOException.class) public void refusesAnotherVersion() throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[TaskBinaryWriter.MAGIC.length] = (byte) (TaskBinaryWriter.VERSION + 1);
+        Files.write(file.toPath(), bytes);
+
+        TaskBinaryReader.readAll(file);
+    }
+
+    /**
+     * @return The position in the file of the length of each block.
+     */
+    private List<Long> blockStarts() throws IOException
+    {
+        List<Long> starts = new ArrayList<>();
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"))
+        {
+            input.seek(TaskBinaryWriter.MAGIC.length);
+            readVarint(input);
+            while (true)
+            {
+                long start = input.getFilePointer();
+                long length = readVarint(input);
+                if (length == 0)
+                    return starts;
+                starts.add(start);
+                input.seek(input.getFilePointer() + length + 4);
+            }
+        }
+    }
+
+    private static long readVarint(RandomAccessFile input) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.natebeckemeyer.projects.listrgui.core.TaskJournalTest.lines;
+import static org.junit.Assert.*;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-03.
+ * <p>
+ * Writes task files with {@link TaskFileWriter} and reads them back with {@link TaskFileReader}: every saved field and
+ * identifier survives the trip, lines written before tasks had identifiers are given new ones, a line which cannot be
+ * parsed is skipped, and a file read in parallel chunks gives the same tasks, in the same order, as one read on a
+ * single thread.
+ */
+public class TaskFileReaderTest
+{
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void roundTripsEveryField() throws IOException
+    {
+        List<AbstractTask> tasks = new ArrayList<>();
+        tasks.add(new SimpleTask("plain", 17000, new SimpleCompleted()));
+        tasks.add(new SimpleTask("a | name with | pipes", 17001, new SimpleCompleted()));
+        tasks.add(new SimpleTask("\u00fcn\u00efc\u00f8d\u00e9 \u2713 \u540d\u524d \ud83d\udcc5", 17002,
+                new SimpleCompleted()));
+        tasks.add(new SimpleTask("", 17003, new SimpleCompleted()));
+        tasks.add(new DatelessTask("dateless", (Calendar) null, new SimpleCompleted()));
+        tasks.add(new SimpleTask("verbose", 17004, new VerboseCompleted()));
+
+        AbstractTask done = new SimpleTask("done", 17005, new SimpleCompleted());
+        done.completed = true;
+        tasks.add(done);
+        AbstractTask tagged = new DatelessTask("tagged", (Calendar) null, new SimpleCompleted());
+        tagged.setTags(Arrays.asList(Tag.getTag("reader-work"), Tag.getTag("reader-home")));
+        tasks.add(tagged);
+
+        File file = write(tasks);
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+            assertTrue(line, line.matches("\\w+@\\d+\\|.*"));
+
+        List<AbstractTask> read = TaskFileReader.readAll(file);
+        assertEquals(lines(tasks), lines(read));
+        for (int i = 0; i < tasks.size(); i++)
+        {
+            assertEquals(tasks.get(i).getClass(), read.get(i).getClass());
+            assertEquals(tasks.get(i).getId(), read.get(i).getId());
+        }
+    }
+
+    @Test public void givesLinesWithoutIdentifiersNewOnes() throws IOException
+    {
+        List<AbstractTask> tasks = Arrays.asList(new SimpleTask("first", 17000, new SimpleCompleted()),
+                new SimpleTask("second", 17001, new SimpleCompleted()));
+        List<String> legacy = new ArrayList<>();
+        for (String line : lines(tasks))
+            legacy.add(line.replaceFirst("@\\d+", ""));
+        File file = folder.newFile("legacy.dat");
+        Files.write(file.toPath(), legacy, StandardCharsets.UTF_8);
+
+        List<AbstractTask> read = TaskFileReader.readAll(file);
+        assertEquals(2, read.size());
+        assertEquals("first", read.get(0).getName());
+        assertEquals("second", read.get(1).getName());
+        assertNotEquals(read.get(0).getId(), read.get(1).getId());
+        for (AbstractTask task : read)
+            for (AbstractTask original : tasks)
+                assertNotEquals(original.getId(), task.getId());
+    }
+
+    @Test public void skipsLinesWhichCannotBeParsed() throws IOException
+    {
+        List<AbstractTask> tasks = Arrays.asList(new SimpleTask("before", 17000, new SimpleCompleted()),
+                new SimpleTask("after", 17001, new SimpleCompleted()));
+        List<String> lines = new ArrayList<>(lines(tasks));
+        lines.add(1, "SimpleTask@12|not|a|date");
+        lines.add(2, "no fields at all");
+        File file = folder.newFile("malformed.dat");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+
+        assertEquals(lines(tasks), lines(TaskFileReader.readAll(file)));
+    }
+
+    @Test public void readsTheSameInParallel() throws Exception
+    {
+        List<AbstractTask> tasks = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 50000; i++)
+        {
+            AbstractTask task = i % 5 == 0 ? new DatelessTask("dateless " + i, (Calendar) null,
+                    new SimpleCompleted()) : new SimpleTask("task number " + i + " | of many", 16000 + random
+                    .nextInt(4000), i % 7 == 0 ? new VerboseCompleted() : new SimpleCompleted());
+            task.completed = random.nextBoolean();
+            if (i % 3 == 0)
+                task.setTags(Collections.singletonList(Tag.getTag("reader-" + random.nextInt(20))));
+            tasks.add(task);
+        }
+        File file = write(tasks);
+        assertTrue("the file should split into several chunks", file.length() > 3 * 1024 * 1024);
+
+        List<AbstractTask> sequential = TaskFileReader.readAll(file, false);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            ForkJoinTask<List<AbstractTask>> parallel = pool.submit(() -> TaskFileReader.readAll(file, true));
+            assertEquals(lines(sequential), lines(parallel.get()));
+        } finally
+        {
+            pool.shutdown();
+        }
+        assertEquals(lines(tasks), lines(sequential));
+    }
+
+    private File write(List<AbstractTask> tasks) throws IOException
+    {
+        File file = new File(folder.getRoot(), "tasks.dat");
+        try (TaskFileWriter writer = new TaskFileWriter(file))
+        {
+            for (AbstractTask task : tasks)
+                writer.write(TaskRecord.of(task));
+            writer.commit();
+        }
+        return file;
+    }
+}
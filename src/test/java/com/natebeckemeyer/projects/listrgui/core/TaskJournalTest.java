@@ -0,0 +1,161 @@
+package com.natebeckemeyer.projects.listrgui.core;
+
+import com.natebeckemeyer.projects.listrgui.implementations.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created for Listr by @author Nate Beckemeyer on 2016-08-07.
+ * <p>
+ * Appends changes to the {@link TaskJournal} of a task file and replays them on the tasks read back from the file:
+ * every kind of change, a last line cut short by a crash, and the point at which the journal asks to be folded into
+ * the file.
+ */
+public class TaskJournalTest
+{
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private List<AbstractTask> tasks;
+    private TaskJournal journal;
+
+    @Before public void setUp() throws IOException
+    {
+        file = new File(folder.getRoot(), "tasks.dat");
+        tasks = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            tasks.add(new SimpleTask("task " + i, 17000 + i, new SimpleCompleted()));
+        tasks.get(5).addTag(Tag.getTag("journal-home"));
+        FileParser.saveTasksToFile(file, tasks);
+        journal = new TaskJournal();
+    }
+
+    @Test public void replaysEveryKindOfChange() throws IOException
+    {
+        tasks.get(0).setName("renamed | with a pipe");
+        journal.renamed(tasks.get(0));
+        tasks.get(1).completed = true;
+        journal.recompleted(tasks.get(1));
+        tasks.get(2).setTags(Arrays.asList(Tag.getTag("journal-work"), Tag.getTag("journal-home")));
+        journal.retagged(tasks.get(2));
+        tasks.get(3).setDueEpochDay(18000);
+        journal.redated(tasks.get(3));
+        tasks.get(4).setOnComplete(new VerboseCompleted());
+        journal.reassigned(tasks.get(4));
+        journal.removed(tasks.remove(5));
+
+        AbstractTask replacement = new DatelessTask(tasks.get(1));
+        tasks.set(1, replacement);
+        journal.added(replacement);
+        AbstractTask added = new SimpleTask("added", 17500, new SimpleCompleted());
+        tasks.add(added);
+        journal.added(added);
+        append();
+
+        assertEquals(lines(tasks), lines(replay()));
+    }
+
+    @Test public void replayingTwiceDoesNoHarm() throws IOException
+    {
+        tasks.get(0).setName("renamed");
+        journal.renamed(tasks.get(0));
+        tasks.get(1).setTags(Collections.singletonList(Tag.getTag("journal-work")));
+        journal.retagged(tasks.get(1));
+        append();
+        FileParser.saveTasksToFile(file, tasks);
+        Files.write(TaskJournal.fileFor(file).toPath(), Arrays.asList("N " + tasks.get(0).getId() + " renamed",
+                "T " + tasks.get(1).getId() + " journal-work"), StandardCharsets.UTF_8);
+
+        assertEquals(lines(tasks), lines(replay()));
+    }
+
+    @Test public void skipsALastLineCutShort() throws IOException
+    {
+        tasks.get(0).setName("before the crash");
+        journal.renamed(tasks.get(0));
+        append();
+
+        String cut = "A " + TaskRecord.of(new SimpleTask("never added", 17000, new SimpleCompleted()));
+        Files.write(TaskJournal.fileFor(file).toPath(), cut.substring(0, 12).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertEquals(lines(tasks), lines(replay()));
+
+        // Changes appended after the cut line start on a line of their own.
+        tasks.get(1).setName("after the crash");
+        journal.renamed(tasks.get(1));
+        append();
+        assertEquals(lines(tasks), lines(replay()));
+    }
+
+    @Test public void skipsChangesToTasksWhichAreNotThere() throws IOException
+    {
+        Files.write(TaskJournal.fileFor(file).toPath(), Arrays.asList("N 999999999 nobody", "C " + tasks.get(0)
+                .getId() + " maybe", "X 1 unknown"), StandardCharsets.UTF_8);
+
+        assertEquals(lines(tasks), lines(replay()));
+    }
+
+    @Test public void asksToBeFoldedOnceItOutgrowsTheFile() throws IOException
+    {
+        File journalFile = TaskJournal.fileFor(file);
+        AbstractTask task = tasks.get(0);
+        int appends = 0;
+        boolean fold = false;
+        while (!fold)
+        {
+            task.setName("a fairly long name for change number " + appends++);
+            journal.renamed(task);
+            fold = append();
+            if (!fold)
+                assertTrue(journalFile.length() <= Math.max(64 * 1024, file.length()));
+        }
+        assertTrue(journalFile.length() > Math.max(64 * 1024, file.length()));
+        assertEquals(lines(tasks), lines(replay()));
+
+        // Writing the file in full folds the journal in, and deletes it.
+        FileParser.saveTasksToFile(file, tasks);
+        assertFalse(journalFile.exists());
+        assertEquals(lines(tasks), lines(replay()));
+    }
+
+    @Test public void replaysNothingWithoutAJournal() throws IOException
+    {
+        assertFalse(TaskJournal.fileFor(file).exists());
+        assertEquals(lines(tasks), lines(replay()));
+    }
+
+    /**
+     * @return Whether the journal should now be folded into the file.
+     */
+    private boolean append() throws IOException
+    {
+        return TaskJournal.append(file, journal.drain(TaskSnapshot.EMPTY));
+    }
+
+    private List<AbstractTask> replay() throws IOException
+    {
+        return TaskJournal.replay(file, TaskFileReader.readAll(file));
+    }
+
+    /**
+     * @return Each task as a line of a task file, which holds every field that is saved.
+     */
+    static List<String> lines(Collection<AbstractTask> tasks)
+    {
+        List<String> lines = new ArrayList<>();
+        for (AbstractTask task : tasks)
+            lines.add(TaskRecord.of(task).toString());
+        return lines;
+    }
+}